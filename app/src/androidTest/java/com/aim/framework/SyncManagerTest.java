@@ -0,0 +1,163 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import com.android.volley.VolleyError;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Key;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link SyncManager} against a local {@link MockWebServer}. SyncManager is main thread only,
+ * so syncs are started there and the test thread waits for their listeners.
+ */
+public class SyncManagerTest extends InstrumentationTestCase {
+    private static final String CACHE_KEY = "sync_manager_test";
+
+    private MockWebServer mServer;
+    private SyncManager mSyncManager;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mServer = new MockWebServer();
+        mServer.start();
+        mSyncManager = new SyncManager(getContext());
+        mSyncManager.setMinRevalidateInterval(0);
+        // start every test from an empty cache partition
+        CacheManager.onSignOutSession(getContext());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testFullResponseIsMergedAndPersisted() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setBody("{\"name\":\"first\"}"));
+
+        TestDAO dao = new TestDAO(getContext(), mServer.getUrl("/item").toString());
+        RecordingListener listener = syncAndWait(dao);
+
+        assertFalse(listener.servedFromCache);
+        assertTrue(listener.dataChanged);
+        assertEquals("first", ((Item) dao.getData()).name);
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+
+        // a fresh DAO should now find both the data and its validator in the cache
+        TestDAO reloaded = new TestDAO(getContext(), dao.getSyncUrl());
+        reloaded.initializeFromCache();
+        assertEquals("first", ((Item) reloaded.getData()).name);
+        assertEquals("\"v1\"", reloaded.getSyncMetadata().getEtag());
+    }
+
+    public void testNotModifiedOnlyRefreshesMetadata() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setBody("{\"name\":\"first\"}"));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        TestDAO dao = new TestDAO(getContext(), mServer.getUrl("/item").toString());
+        syncAndWait(dao);
+        mServer.takeRequest();
+        final long firstValidation = dao.getSyncMetadata().getLastValidatedMillis();
+
+        Thread.sleep(10);
+        RecordingListener listener = syncAndWait(dao);
+
+        RecordedRequest revalidation = mServer.takeRequest();
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+        assertTrue(listener.servedFromCache);
+        assertFalse(listener.dataChanged);
+        assertEquals("first", ((Item) dao.getData()).name);
+        assertEquals("\"v1\"", dao.getSyncMetadata().getEtag());
+        assertTrue(dao.getSyncMetadata().getLastValidatedMillis() > firstValidation);
+    }
+
+    private RecordingListener syncAndWait(final TestDAO dao) throws InterruptedException {
+        final RecordingListener listener = new RecordingListener();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSyncManager.sync(dao, listener);
+            }
+        });
+        assertTrue("sync timed out", listener.done.await(10, TimeUnit.SECONDS));
+        assertNull(listener.error);
+        return listener;
+    }
+
+    private Context getContext() {
+        return getInstrumentation().getTargetContext();
+    }
+
+    public static class Item implements CacheComposite {
+        @Key
+        public String name;
+    }
+
+    private static class TestDAO extends SyncableDAO {
+        private final String mUrl;
+
+        private TestDAO(Context context, String url) {
+            super(context);
+            mCacheKey = CACHE_KEY;
+            mUrl = url;
+        }
+
+        private CacheComposite getData() {
+            return mCacheComposite;
+        }
+
+        @Override
+        public String getSyncUrl() {
+            return mUrl;
+        }
+
+        @Override
+        protected Class<? extends CacheComposite> getCacheCompositeType() {
+            return Item.class;
+        }
+
+        @Override
+        protected CacheComposite parseNetworkData(byte[] data, Map<String, String> headers) throws IOException {
+            return new JacksonFactory().createJsonParser(new ByteArrayInputStream(data)).parseAndClose(Item.class);
+        }
+    }
+
+    private static class RecordingListener implements SyncManager.SyncListener {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean servedFromCache;
+        private boolean dataChanged;
+        private VolleyError error;
+
+        @Override
+        public void onCachedDataAvailable(SyncableDAO dao) {
+            servedFromCache = true;
+        }
+
+        @Override
+        public void onSyncComplete(SyncableDAO dao, boolean changed) {
+            dataChanged = changed;
+            done.countDown();
+        }
+
+        @Override
+        public void onSyncFailed(SyncableDAO dao, VolleyError e) {
+            error = e;
+            done.countDown();
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.aim.framework;
 
 import android.content.Context;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by Administrator on 2/18/15.
  */
@@ -18,15 +22,79 @@ public abstract class BaseDAO implements DAO {
 
     @Override
     public void initializeFromCache() throws IllegalAccessException {
+        Tracer.beginSection("BaseDAO.initializeFromCache");
+        try {
+            if (StringUtils.isNullOrEmpty(mCacheKey)) {
+                throw new IllegalAccessException("Cache key is null/empty!");
+            }
+            mCacheComposite = CacheManager.getCache(mContext).get(mCacheKey, getCacheCompositeType());
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+    /**
+     * Like {@link #initializeFromCache()}, but reads and deserializes on the given lane. The DAO is
+     * initialized on the main thread, right before the callback runs, unless it was given data
+     * there in the meantime, which is newer than the cache and so is kept.
+     *
+     * @param lane
+     * @param onInitialized may be null
+     * @return a handle to cancel the load with
+     * @throws IllegalAccessException
+     */
+    public TaskScheduler.Task initializeFromCacheAsync(TaskScheduler.Lane lane, final Runnable onInitialized) throws IllegalAccessException {
         if (StringUtils.isNullOrEmpty(mCacheKey)) {
             throw new IllegalAccessException("Cache key is null/empty!");
         }
-        mCacheComposite = CacheManager.getCache(mContext).get(mCacheKey);
+        final String cacheKey = mCacheKey;
+        return TaskScheduler.submit(lane, new TaskScheduler.BackgroundTask<Object>() {
+            @Override
+            protected Object doInBackground(TaskScheduler.Task task) {
+                return readFromCache(CacheManager.getCache(mContext), cacheKey);
+            }
+
+            @Override
+            protected void onResult(Object result) {
+                if (!hasBeenInited()) {
+                    onReadFromCache(result);
+                }
+                if (onInitialized != null) {
+                    onInitialized.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Read what {@link #initializeFromCacheAsync} initializes this DAO with. Runs on a lane, so it
+     * must not touch the DAO's fields.
+     *
+     * @param cache
+     * @param cacheKey
+     * @return handed to {@link #onReadFromCache(Object)}
+     */
+    protected Object readFromCache(BlobCache cache, String cacheKey) {
+        return cache.get(cacheKey, getCacheCompositeType());
+    }
+
+    /**
+     * Initialize this DAO with what {@link #readFromCache} returned. Runs on the main thread.
+     *
+     * @param cached
+     */
+    protected void onReadFromCache(Object cached) {
+        mCacheComposite = (CacheComposite) cached;
     }
 
+    /**
+     * Only drops what this DAO holds in memory. The cached copy goes away with the session
+     * partition once {@link CacheManager#onSignOutSession(Context)} is called, which saves every
+     * DAO from paying for its own synchronous remove.
+     */
     @Override
     public void onSignOutSession() {
-        CacheManager.getCache(mContext).remove(mCacheKey);
+        mCacheComposite = null;
     }
 
     @Override
@@ -36,6 +104,46 @@ public abstract class BaseDAO implements DAO {
 
     @Override
     public void saveToCache() {
-        CacheManager.getCache(mContext).put(mCacheKey, mCacheComposite);
+        Tracer.beginSection("BaseDAO.saveToCache");
+        try {
+            CacheManager.getCache(mContext).put(mCacheKey, mCacheComposite);
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+    /**
+     * Like {@link #saveToCache()}, but writes on the given lane. The DAO is serialized on the
+     * calling thread, so changes made after this returns are left for the next save, and an older
+     * save never overwrites a newer one. See {@link BlobCache#putAsync}.
+     *
+     * @param lane
+     * @return a handle to cancel the save with, or null if it was done right away
+     */
+    public TaskScheduler.Task saveToCacheAsync(TaskScheduler.Lane lane) {
+        return CacheManager.getCache(mContext).putAsync(mCacheKey, mCacheComposite, lane);
+    }
+
+    /**
+     * Save several DAOs with a single cache write instead of one per DAO, e.g. after a bulk edit.
+     *
+     * @param context
+     * @param daos
+     */
+    public static void saveAllToCache(Context context, Collection<? extends BaseDAO> daos) {
+        final Map<String, CacheComposite> items = new HashMap<>(daos.size() * 2);
+        for (BaseDAO dao : daos) {
+            items.put(dao.mCacheKey, dao.mCacheComposite);
+        }
+        CacheManager.getCache(context).putAll(items);
+    }
+
+    /**
+     * The concrete type stored under this DAO's cache key. Subclasses should override this so the
+     * cache knows what to deserialize into when the item is not already in memory.
+     * @return
+     */
+    protected Class<? extends CacheComposite> getCacheCompositeType() {
+        return CacheComposite.class;
     }
 }
@@ -0,0 +1,258 @@
+package com.aim.framework;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * Position-keyed {@link SelectionModel} backed by a packed bit set. Single toggles are O(1), range
+ * changes touch one word per 64 positions, and select-all / invert only flip a flag: while
+ * inverted, a set bit means "not selected".
+ */
+public class BitSetSelectionModel implements SelectionModel {
+    private static final long[] EMPTY_WORDS = new long[0];
+    private static final String STATE_WORDS = "BitSetSelectionModel.words";
+    private static final String STATE_INVERTED = "BitSetSelectionModel.inverted";
+
+    private final RecyclerView.Adapter<?> mAdapter;
+    private final BitCursor mCursor = new BitCursor();
+
+    private long[] mWords = EMPTY_WORDS;
+    private int mSetBitCount;
+    private boolean mInverted;
+    // words that may hold set bits, so clearing does not have to sweep the whole array
+    private int mLowestDirtyWord = Integer.MAX_VALUE;
+    private int mHighestDirtyWord = -1;
+
+    /**
+     * @param adapter supplies the item count that select-all and invert are relative to
+     */
+    public BitSetSelectionModel(RecyclerView.Adapter<?> adapter) {
+        mAdapter = adapter;
+    }
+
+    @Override
+    public boolean isSelected(int position) {
+        return position >= 0 && getBit(position) != mInverted;
+    }
+
+    @Override
+    public boolean toggle(int position) {
+        final boolean selected = !isSelected(position);
+        setSelected(position, selected);
+        return selected;
+    }
+
+    @Override
+    public void setSelected(int position, boolean selected) {
+        if (position < 0) {
+            return;
+        }
+        if (selected != mInverted) {
+            setBit(position);
+        } else {
+            clearBit(position);
+        }
+    }
+
+    @Override
+    public void setRangeSelected(int start, int count, boolean selected) {
+        if (start < 0) {
+            count += start;
+            start = 0;
+        }
+        if (count <= 0) {
+            return;
+        }
+        final int end = start + count;
+        final int firstWord = start >>> 6;
+        final int lastWord = (end - 1) >>> 6;
+        final boolean set = selected != mInverted;
+
+        if (set) {
+            ensureCapacity(lastWord);
+            markDirty(firstWord);
+            markDirty(lastWord);
+        }
+        for (int i = firstWord; i <= lastWord && i < mWords.length; i++) {
+            long mask = -1L;
+            if (i == firstWord) {
+                mask &= -1L << start;
+            }
+            if (i == lastWord) {
+                mask &= -1L >>> -end;
+            }
+            final long old = mWords[i];
+            mWords[i] = set ? (old | mask) : (old & ~mask);
+            mSetBitCount += Long.bitCount(mWords[i]) - Long.bitCount(old);
+        }
+    }
+
+    @Override
+    public void selectAll() {
+        clearBits();
+        mInverted = true;
+    }
+
+    @Override
+    public void invert() {
+        mInverted = !mInverted;
+    }
+
+    @Override
+    public void clear() {
+        clearBits();
+        mInverted = false;
+    }
+
+    @Override
+    public int getSelectedCount() {
+        final int itemCount = mAdapter.getItemCount();
+        final int setBelowItemCount = countSetBitsBelow(itemCount);
+        return mInverted ? itemCount - setBelowItemCount : setBelowItemCount;
+    }
+
+    @Override
+    public Cursor cursor() {
+        mCursor.mNext = 0;
+        return mCursor;
+    }
+
+    @Override
+    public void saveInstanceState(Bundle outState) {
+        final int usedWords = mSetBitCount > 0 ? mHighestDirtyWord + 1 : 0;
+        outState.putLongArray(STATE_WORDS, Arrays.copyOf(mWords, usedWords));
+        outState.putBoolean(STATE_INVERTED, mInverted);
+    }
+
+    @Override
+    public void restoreInstanceState(Bundle savedState) {
+        if (savedState == null || !savedState.containsKey(STATE_WORDS)) {
+            return;
+        }
+        clear();
+        final long[] words = savedState.getLongArray(STATE_WORDS);
+        mWords = words != null ? words : EMPTY_WORDS;
+        for (int i = 0; i < mWords.length; i++) {
+            if (mWords[i] != 0) {
+                mSetBitCount += Long.bitCount(mWords[i]);
+                markDirty(i);
+            }
+        }
+        mInverted = savedState.getBoolean(STATE_INVERTED);
+    }
+
+    private boolean getBit(int position) {
+        final int word = position >>> 6;
+        return word < mWords.length && (mWords[word] & (1L << position)) != 0;
+    }
+
+    private void setBit(int position) {
+        final int word = position >>> 6;
+        ensureCapacity(word);
+        final long mask = 1L << position;
+        if ((mWords[word] & mask) == 0) {
+            mWords[word] |= mask;
+            mSetBitCount++;
+            markDirty(word);
+        }
+    }
+
+    private void clearBit(int position) {
+        final int word = position >>> 6;
+        final long mask = 1L << position;
+        if (word < mWords.length && (mWords[word] & mask) != 0) {
+            mWords[word] &= ~mask;
+            mSetBitCount--;
+        }
+    }
+
+    private void clearBits() {
+        if (mSetBitCount > 0) {
+            Arrays.fill(mWords, mLowestDirtyWord, mHighestDirtyWord + 1, 0L);
+        }
+        mSetBitCount = 0;
+        mLowestDirtyWord = Integer.MAX_VALUE;
+        mHighestDirtyWord = -1;
+    }
+
+    private void markDirty(int word) {
+        if (word < mLowestDirtyWord) {
+            mLowestDirtyWord = word;
+        }
+        if (word > mHighestDirtyWord) {
+            mHighestDirtyWord = word;
+        }
+    }
+
+    private void ensureCapacity(int word) {
+        if (word >= mWords.length) {
+            mWords = Arrays.copyOf(mWords, Math.max(word + 1, mWords.length * 2));
+        }
+    }
+
+    /**
+     * Bits at or past the item count are left over from before the list shrank and do not count.
+     */
+    private int countSetBitsBelow(int itemCount) {
+        if (mSetBitCount == 0 || ((long) mHighestDirtyWord << 6) + 64 <= itemCount) {
+            return mSetBitCount;
+        }
+        int count = 0;
+        final int lastWord = Math.min(mHighestDirtyWord, (itemCount - 1) >>> 6);
+        for (int i = mLowestDirtyWord; i <= lastWord && itemCount > 0; i++) {
+            long word = mWords[i];
+            if (i == (itemCount - 1) >>> 6) {
+                word &= -1L >>> -itemCount;
+            }
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Index of the first bit at or after from that is set (or clear), or -1 if there is none
+     * within the array. Clear bits run on forever past the end of the array.
+     */
+    private int nextBit(int from, boolean set) {
+        int word = from >>> 6;
+        if (word >= mWords.length) {
+            return set ? -1 : from;
+        }
+        long bits = (set ? mWords[word] : ~mWords[word]) & (-1L << from);
+        while (bits == 0) {
+            word++;
+            if (word >= mWords.length) {
+                return set ? -1 : word << 6;
+            }
+            bits = set ? mWords[word] : ~mWords[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    @Override
+    public void detach() {
+        // only reads the adapter's item count, nothing to unregister
+    }
+
+    private class BitCursor implements Cursor {
+        private int mNext;
+
+        @Override
+        public int next() {
+            final int itemCount = mAdapter.getItemCount();
+            if (mNext >= itemCount) {
+                return NO_POSITION;
+            }
+            // selected positions are set bits normally, clear bits while inverted
+            final int position = nextBit(mNext, !mInverted);
+            if (position < 0 || position >= itemCount) {
+                mNext = itemCount;
+                return NO_POSITION;
+            }
+            mNext = position + 1;
+            return position;
+        }
+    }
+}
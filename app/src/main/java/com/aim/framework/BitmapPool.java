@@ -0,0 +1,102 @@
+package com.aim.framework;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Byte-bounded pool of bitmaps that nothing displays anymore, handed out again as
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} so decoding a thumbnail does not
+ * allocate a new pixel buffer. Thread safe.
+ */
+public class BitmapPool {
+    private final long mMaxBytes;
+    /** Oldest first. */
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private long mBytes;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Offer a bitmap for reuse. The caller must not touch it afterwards.
+     *
+     * @param bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        final int size = getSize(bitmap);
+        if (size > mMaxBytes) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mBytes += size;
+        while (mBytes > mMaxBytes) {
+            mBytes -= getSize(mBitmaps.removeFirst());
+        }
+    }
+
+    /**
+     * Take a bitmap that can be decoded into.
+     *
+     * @param width decoded width
+     * @param height decoded height
+     * @param sampleSize before KitKat, only undownsampled decodes can reuse bitmaps
+     * @return null if none fits
+     */
+    public synchronized Bitmap get(int width, int height, int sampleSize, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && sampleSize != 1) {
+            return null;
+        }
+        final long needed = (long) width * height * getBytesPerPixel(config);
+        for (Iterator<Bitmap> it = mBitmaps.iterator(); it.hasNext(); ) {
+            final Bitmap candidate = it.next();
+            if (canReuse(candidate, width, height, needed, config)) {
+                it.remove();
+                mBytes -= getSize(candidate);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, long needed, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // any bitmap with a large enough buffer will do
+            return getAllocationByteCount(candidate) >= needed;
+        }
+        return candidate.getWidth() == width && candidate.getHeight() == height && candidate.getConfig() == config;
+    }
+
+    static int getSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return getAllocationByteCount(bitmap);
+        }
+        return bitmap.getByteCount();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationByteCount(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
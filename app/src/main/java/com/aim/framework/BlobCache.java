@@ -0,0 +1,90 @@
+package com.aim.framework;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link Cache} that can also stream raw byte blobs, for payloads that are too large to be worth
+ * serializing into a {@link CacheComposite}. Blobs live in their own key space, so a structured
+ * item and a blob may share a key (e.g. a header and the body it describes).
+ */
+public interface BlobCache extends Cache {
+
+    /**
+     * Picks the keys {@link #removeAll(KeyFilter)} removes.
+     */
+    interface KeyFilter {
+        /**
+         * @param key the item's or blob's key; for blobs with very long keys only its first 80 or
+         *            so characters, so filters should decide on a key's head
+         * @return true to remove the key
+         */
+        boolean accept(String key);
+    }
+
+    /**
+     * Like {@link #put(String, CacheComposite)}, but the write happens on the given lane. The item
+     * is serialized before this returns, so later changes to it are not written, and it is
+     * returned by get right away. A write that runs after a newer write or remove of the key is
+     * skipped. If the lane is full, the item is written on the calling thread instead.
+     *
+     * @param key
+     * @param item
+     * @param lane
+     * @return a handle to cancel the write with, or null if there is nothing left to write
+     */
+    TaskScheduler.Task putAsync(String key, CacheComposite item, TaskScheduler.Lane lane);
+
+    /**
+     * Open a stream to write the blob stored under this key. The blob only becomes visible once the
+     * stream is closed, replacing any previous blob with the same key.
+     *
+     * @param key
+     * @return
+     * @throws IOException
+     */
+    OutputStream openBlobOutputStream(String key) throws IOException;
+
+    /**
+     * Open a stream to read the blob stored under this key.
+     *
+     * @param key
+     * @return null if there is no such blob
+     * @throws IOException
+     */
+    InputStream openBlobInputStream(String key) throws IOException;
+
+    /**
+     * @param key
+     * @return the stored length of the blob, or -1 if there is no such blob
+     */
+    long getBlobLength(String key);
+
+    /**
+     * Remove the keyed blob from cache.
+     *
+     * @param key
+     */
+    void removeBlob(String key);
+
+    /**
+     * Remove every item and blob whose key starts with the given prefix.
+     *
+     * @param prefix
+     */
+    void removeAllWithPrefix(String prefix);
+
+    /**
+     * Remove every item and blob whose key the filter accepts. This visits every key, so it is
+     * meant for housekeeping off the main thread.
+     *
+     * @param filter
+     */
+    void removeAll(KeyFilter filter);
+
+    /**
+     * @return live counters for this cache
+     */
+    CacheStats getStats();
+}
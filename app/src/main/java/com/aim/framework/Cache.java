@@ -1,5 +1,7 @@
 package com.aim.framework;
 
+import java.util.Map;
+
 /**
  * Expected methods for a caching mechanism.
  *
@@ -15,6 +17,14 @@ public interface Cache {
      */
     CacheComposite put(String key, CacheComposite item);
 
+    /**
+     * Put all of these values into the cache with a single write, e.g. after a bulk edit. A null
+     * value removes its key.
+     *
+     * @param items
+     */
+    void putAll(Map<String, ? extends CacheComposite> items);
+
     /**
      * Get this keyed item from the cache.
      *
@@ -23,6 +33,17 @@ public interface Cache {
      */
     CacheComposite get(String key);
 
+    /**
+     * Get this keyed item from the cache, deserializing it as the given concrete type. Returns null
+     * if nothing is stored under the key or the stored item is not of the requested type.
+     *
+     * @param key
+     * @param type
+     * @param <T>
+     * @return
+     */
+    <T extends CacheComposite> T get(String key, Class<T> type);
+
     /**
      * Remove the keyed item from cache.
      *
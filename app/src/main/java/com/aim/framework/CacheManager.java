@@ -7,22 +7,65 @@ import android.content.Context;
  */
 public class CacheManager {
     private static final String CACHE_PREF_KEY = "cache";
+    private static final String SESSION_PREF_KEY = "cache_session";
 
-    private static Cache sCache;
+    private static volatile SessionPartitionedCache sCache;
 
     /**
      * Safely get the cache mechanism
      * @param context
      * @return
      */
-    public static Cache getCache(Context context) {
+    public static BlobCache getCache(Context context) {
         if(sCache == null) {
             synchronized (CacheManager.class) {
                 if(sCache == null) {
-                    sCache = new SharedPreferenceCache(context, CACHE_PREF_KEY);
+                    sCache = new SessionPartitionedCache(context,
+                            new SharedPreferenceCache(context, CACHE_PREF_KEY), SESSION_PREF_KEY);
                 }
             }
         }
         return sCache;
     }
+
+    /**
+     * Drop everything cached for the current user. This is constant time: the cache moves on to a
+     * fresh session partition and the old one is reclaimed in the background. The new partition
+     * is committed to disk before this returns.
+     * @param context
+     * @return false if the sign-out could not be persisted and the current session is still active
+     */
+    public static boolean onSignOutSession(Context context) {
+        return ((SessionPartitionedCache) getCache(context)).startNewSession();
+    }
+
+    /**
+     * {@link #onSignOutSession(Context)} on a background lane, for callers on the main thread.
+     * @param context
+     * @param callback told on the main thread whether the sign-out was persisted, may be null
+     */
+    public static void onSignOutSessionAsync(Context context, final TaskScheduler.Callback<Boolean> callback) {
+        final Context appContext = context.getApplicationContext();
+        TaskScheduler.submit(TaskScheduler.Lane.USER_VISIBLE, new TaskScheduler.BackgroundTask<Boolean>() {
+            @Override
+            protected Boolean doInBackground(TaskScheduler.Task task) {
+                return onSignOutSession(appContext);
+            }
+
+            @Override
+            protected void onResult(Boolean persisted) {
+                if (callback != null) {
+                    callback.onResult(persisted);
+                }
+            }
+
+            @Override
+            protected void onError(Exception e) {
+                super.onError(e);
+                if (callback != null) {
+                    callback.onResult(false);
+                }
+            }
+        });
+    }
 }
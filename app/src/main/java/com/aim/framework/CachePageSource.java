@@ -0,0 +1,106 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link PageSource} over pages stored in the cache, one {@link CacheComposite} per page under
+ * keys derived from a common prefix. Pages are stored as blobs rather than cache items, so reading
+ * one does not pin it in the cache's memory or its preferences file once the adapter has dropped
+ * it. A DAO or sync job writes the pages with {@link #putPage(int, CacheComposite)}; a page that is
+ * missing from the cache shows up empty rather than failing the list.
+ *
+ * @param <P> the stored page type
+ * @param <E> the item type
+ */
+public abstract class CachePageSource<P extends CacheComposite, E> implements PageSource<E> {
+    private static final String TAG = CachePageSource.class.getSimpleName();
+
+    private final Context mContext;
+    private final String mKeyPrefix;
+    private final JacksonFactory mJackson = new JacksonFactory();
+
+    /**
+     * @param context
+     * @param keyPrefix pages live under keyPrefix + pageIndex
+     */
+    protected CachePageSource(Context context, String keyPrefix) {
+        mContext = context.getApplicationContext();
+        mKeyPrefix = keyPrefix;
+    }
+
+    @Override
+    public List<E> loadPage(int pageIndex, int pageSize) throws IOException {
+        final BlobCache cache = CacheManager.getCache(mContext);
+        final String key = getPageKey(pageIndex);
+        final InputStream in = cache.openBlobInputStream(key);
+        if (in == null) {
+            return Collections.emptyList();
+        }
+        final P page;
+        try {
+            page = mJackson.fromInputStream(in, getPageType());
+        } catch (IllegalArgumentException e) {
+            // unreadable, e.g. written by an older page type; it would never load, so drop it
+            Log.e(TAG, "Unable to parse page " + key + ", removing it", e);
+            cache.removeBlob(key);
+            return Collections.emptyList();
+        } finally {
+            in.close();
+        }
+        return page != null ? getItems(page) : Collections.<E>emptyList();
+    }
+
+    /**
+     * Store a page, replacing the previous one with the same index. Blocks on I/O, so call it off
+     * the main thread.
+     *
+     * @param pageIndex
+     * @param page
+     * @throws IOException
+     */
+    public void putPage(int pageIndex, P page) throws IOException {
+        final BlobCache cache = CacheManager.getCache(mContext);
+        final String key = getPageKey(pageIndex);
+        final byte[] bytes = mJackson.toByteArray(page);
+        final OutputStream out = cache.openBlobOutputStream(key);
+        try {
+            out.write(bytes);
+            out.close();
+        } catch (IOException e) {
+            // a partly written page must not replace the previous one, nor be served later
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            cache.removeBlob(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Remove every stored page, e.g. before writing a fresh set.
+     */
+    public void removePages() {
+        CacheManager.getCache(mContext).removeAllWithPrefix(mKeyPrefix);
+    }
+
+    public String getPageKey(int pageIndex) {
+        return mKeyPrefix + pageIndex;
+    }
+
+    /**
+     * @return the concrete type stored for each page, so the cache knows what to deserialize into
+     */
+    protected abstract Class<P> getPageType();
+
+    protected abstract List<E> getItems(P page);
+}
@@ -0,0 +1,107 @@
+package com.aim.framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters shared by everything stored through one cache, structured items and blobs alike.
+ */
+public class CacheStats {
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mWrites = new AtomicLong();
+    private final AtomicLong mBlobHits = new AtomicLong();
+    private final AtomicLong mBlobMisses = new AtomicLong();
+    private final AtomicLong mBlobBytesWritten = new AtomicLong();
+    private final AtomicLong mBlobEvictions = new AtomicLong();
+    private final AtomicLong mBlobBytes = new AtomicLong();
+
+    void recordMemoryHit() {
+        mMemoryHits.incrementAndGet();
+    }
+
+    void recordDiskHit() {
+        mDiskHits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        mMisses.incrementAndGet();
+    }
+
+    void recordWrite() {
+        mWrites.incrementAndGet();
+    }
+
+    void recordBlobHit() {
+        mBlobHits.incrementAndGet();
+    }
+
+    void recordBlobMiss() {
+        mBlobMisses.incrementAndGet();
+    }
+
+    void recordBlobWrite(long bytes) {
+        mBlobBytesWritten.addAndGet(bytes);
+    }
+
+    void recordBlobEviction() {
+        mBlobEvictions.incrementAndGet();
+    }
+
+    void setBlobBytes(long bytes) {
+        mBlobBytes.set(bytes);
+    }
+
+    public long getMemoryHits() {
+        return mMemoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return mDiskHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public long getWrites() {
+        return mWrites.get();
+    }
+
+    public long getBlobHits() {
+        return mBlobHits.get();
+    }
+
+    public long getBlobMisses() {
+        return mBlobMisses.get();
+    }
+
+    public long getBlobBytesWritten() {
+        return mBlobBytesWritten.get();
+    }
+
+    public long getBlobEvictions() {
+        return mBlobEvictions.get();
+    }
+
+    /**
+     * @return bytes currently held in blobs
+     */
+    public long getBlobBytes() {
+        return mBlobBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{memoryHits=" + getMemoryHits()
+                + ", diskHits=" + getDiskHits()
+                + ", misses=" + getMisses()
+                + ", writes=" + getWrites()
+                + ", blobHits=" + getBlobHits()
+                + ", blobMisses=" + getBlobMisses()
+                + ", blobBytesWritten=" + getBlobBytesWritten()
+                + ", blobEvictions=" + getBlobEvictions()
+                + ", blobBytes=" + getBlobBytes()
+                + "}";
+    }
+}
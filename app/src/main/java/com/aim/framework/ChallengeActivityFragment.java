@@ -1,18 +1,35 @@
 package com.aim.framework;
 
+import android.content.Context;
 import android.support.v4.app.Fragment;
 import android.os.Bundle;
-import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.google.api.client.util.Key;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 
 /**
  * A placeholder fragment containing a simple view.
  */
 public class ChallengeActivityFragment extends Fragment {
+    private static final int SAMPLE_ROW_COUNT = 1000;
+    private static final int SAMPLE_PAGE_SIZE = 50;
+    private static final String SAMPLE_PAGE_KEY_PREFIX = "challenge_rows:";
+
+    private static final int ROW_VIEW_TYPE = 0;
+    private static final int MAX_RECYCLED_ROWS = 16;
+    /** About a screenful of rows plus a couple. */
+    private static final int PREWARMED_ROWS = 10;
+
     DraggableAndMultiSelectableRecyclerView mListView;
+    private PrewarmedViewPool mViewPool;
 
     public ChallengeActivityFragment() {
     }
@@ -27,22 +44,108 @@ public class ChallengeActivityFragment extends Fragment {
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
+        // shared with the activity's other lists, so rows outlive this fragment's view
+        mViewPool = PrewarmedViewPool.forActivity(getActivity());
+        ThumbnailViewHolder.declare(mViewPool, ROW_VIEW_TYPE, MAX_RECYCLED_ROWS, PREWARMED_ROWS);
+
         mListView = (DraggableAndMultiSelectableRecyclerView) view.findViewById(R.id.listView);
-        mListView.setAdapter(new DraggableAndMultiSelectableRecyclerView.Adapter() {
+        mListView.setAdapter(new PagedAdapter<SampleRow, ThumbnailViewHolder>(new SampleRowSource(getActivity()), SAMPLE_PAGE_SIZE) {
             @Override
-            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-                return null;
+            public ThumbnailViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                return ThumbnailViewHolder.create(parent, mViewPool);
             }
 
             @Override
-            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            protected void onBindItem(ThumbnailViewHolder holder, int position, SampleRow row) {
+                // a row whose page is still loading stays blank until it is rebound
+                if (row != null) {
+                    holder.bind(row.title, row.thumbnailUrl);
+                } else {
+                    holder.bind("", null);
+                }
+            }
+        });
+        mViewPool.prewarm(mListView);
+    }
+
+    @Override
+    public void onDestroyView() {
+        mViewPool.returnViews(mListView);
+        mListView = null;
+        super.onDestroyView();
+    }
+
+    /**
+     * A sample row as stored in a page.
+     */
+    public static class SampleRow {
+        @Key
+        public String title;
 
+        /** Null for rows without a thumbnail, which is all of the bundled sample rows. */
+        @Key
+        public String thumbnailUrl;
+
+        public SampleRow() {
+        }
+    }
+
+    /**
+     * A page of sample rows as stored in the cache.
+     */
+    public static class SampleRowPage implements CacheComposite {
+        @Key
+        public List<SampleRow> rows;
+
+        public SampleRowPage() {
+        }
+    }
+
+    /**
+     * Streams the sample rows from the cache a page at a time. Stands in for the sync job that
+     * would normally store the pages by writing them itself the first time it is counted.
+     */
+    private static class SampleRowSource extends CachePageSource<SampleRowPage, SampleRow> {
+        private final Context mContext;
+
+        private SampleRowSource(Context context) {
+            super(context, SAMPLE_PAGE_KEY_PREFIX);
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public int getCount() throws IOException {
+            if (CacheManager.getCache(mContext).getBlobLength(getPageKey(0)) < 0) {
+                writeSamplePages();
             }
+            return SAMPLE_ROW_COUNT;
+        }
 
-            @Override
-            public int getItemCount() {
-                return 10;
+        @Override
+        protected Class<SampleRowPage> getPageType() {
+            return SampleRowPage.class;
+        }
+
+        @Override
+        protected List<SampleRow> getItems(SampleRowPage page) {
+            return page.rows != null ? page.rows : Collections.<SampleRow>emptyList();
+        }
+
+        /**
+         * Last page first, so a first page in the cache means every page was written.
+         */
+        private void writeSamplePages() throws IOException {
+            for (int pageIndex = (SAMPLE_ROW_COUNT - 1) / SAMPLE_PAGE_SIZE; pageIndex >= 0; pageIndex--) {
+                final int start = pageIndex * SAMPLE_PAGE_SIZE;
+                final SampleRowPage page = new SampleRowPage();
+                page.rows = new ArrayList<>(SAMPLE_PAGE_SIZE);
+                for (int i = start; i < Math.min(start + SAMPLE_PAGE_SIZE, SAMPLE_ROW_COUNT); i++) {
+                    final SampleRow row = new SampleRow();
+                    row.title = mContext.getString(R.string.sample_row_title, i);
+                    page.rows.add(row);
+                }
+                putPage(pageIndex, page);
             }
-        });
+        }
     }
 }
@@ -11,7 +11,8 @@ public interface DAO {
     void initializeFromCache() throws IllegalAccessException;
 
     /**
-     * Clear the DAO's of user data, this can happen from logging out
+     * Clear the DAO's of user data, this can happen from logging out. The cached copy is dropped
+     * for all DAOs at once by {@link CacheManager#onSignOutSession(android.content.Context)}.
      */
     void onSignOutSession();
 
@@ -0,0 +1,199 @@
+package com.aim.framework;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds swipe-to-delete deletions for an undo window before committing them. A deleted row is taken
+ * out of the adapter right away, so the list animates immediately, but nothing is persisted until
+ * no further delete has happened for the length of the window. Everything deleted in the meantime
+ * is then committed in one batch on a background thread, and undoing costs no I/O at all.
+ *
+ * Hand it to {@link DraggableAndMultiSelectableRecyclerView#setDeferredDeleteController} and swiped
+ * rows are deleted through it, and pending deletions are committed when the list is detached.
+ *
+ * Main thread only, apart from the {@link Committer}.
+ */
+public class DeferredDeleteController<E> {
+    private static final String TAG = DeferredDeleteController.class.getSimpleName();
+
+    private static final long DEFAULT_UNDO_WINDOW_MS = 3000;
+
+    /**
+     * Commits run in order, so a later batch never lands before an earlier one. Unbounded, since
+     * commits come at most one per undo window and none may be dropped.
+     */
+    private static final TaskScheduler.SerialExecutor sCommitExecutor =
+            TaskScheduler.newSerialExecutor(TaskScheduler.Lane.BACKGROUND, TaskScheduler.UNBOUNDED_CAPACITY);
+
+    /**
+     * The adapter side: takes rows out and puts them back, notifying as it goes.
+     * {@link DiffingAdapter} implements this.
+     */
+    public interface Host<E> {
+        E removeItem(int position);
+
+        void insertItem(int position, E item);
+
+        int getItemCount();
+    }
+
+    public interface Committer<E> {
+        /**
+         * Called on a background thread with every deletion of one undo window, in the order they
+         * were made. {@link MutationQueue#newDeleteCommitter} records them for the server.
+         */
+        void commitDeletes(List<E> items) throws Exception;
+    }
+
+    public interface Listener<E> {
+        /**
+         * Called when a delete is made, undone or committed, e.g. to show or hide an undo bar.
+         */
+        void onPendingDeletesChanged(int pendingCount);
+
+        /**
+         * Called on the main thread if the committer threw. The items are no longer in the
+         * adapter, so it is up to the listener to restore them if that matters.
+         */
+        void onCommitFailed(List<E> items, Exception e);
+    }
+
+    private final Host<E> mHost;
+    private final Committer<E> mCommitter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /** Deleted items and the positions they were removed from, in deletion order. */
+    private final List<E> mPendingItems = new ArrayList<>();
+    private final List<Integer> mPendingPositions = new ArrayList<>();
+
+    private Listener<E> mListener;
+    private long mUndoWindowMs = DEFAULT_UNDO_WINDOW_MS;
+
+    private final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitNow();
+        }
+    };
+
+    public DeferredDeleteController(Host<E> host, Committer<E> committer) {
+        mHost = host;
+        mCommitter = committer;
+    }
+
+    public void setListener(Listener<E> listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param undoWindowMs how long after the latest delete the pending ones are committed
+     */
+    public void setUndoWindowMillis(long undoWindowMs) {
+        if (undoWindowMs < 0)
+            throw new IllegalArgumentException("undoWindowMs must not be negative, but was " + undoWindowMs);
+        mUndoWindowMs = undoWindowMs;
+    }
+
+    /**
+     * Remove the row at the given position and hold its deletion. Restarts the undo window.
+     *
+     * @param position
+     */
+    public void delete(int position) {
+        mPendingItems.add(mHost.removeItem(position));
+        mPendingPositions.add(position);
+        mHandler.removeCallbacks(mCommitRunnable);
+        mHandler.postDelayed(mCommitRunnable, mUndoWindowMs);
+        notifyPendingChanged();
+    }
+
+    /**
+     * Put back the most recently deleted row, if its deletion is still pending.
+     *
+     * @return true if a row was restored
+     */
+    public boolean undoLast() {
+        final int last = mPendingItems.size() - 1;
+        if (last < 0) {
+            return false;
+        }
+        restore(mPendingPositions.remove(last), mPendingItems.remove(last));
+        if (mPendingItems.isEmpty()) {
+            mHandler.removeCallbacks(mCommitRunnable);
+        }
+        notifyPendingChanged();
+        return true;
+    }
+
+    /**
+     * Put back every row whose deletion is still pending, at its original position as far as the
+     * list still has one.
+     */
+    public void undoAll() {
+        if (mPendingItems.isEmpty()) {
+            return;
+        }
+        mHandler.removeCallbacks(mCommitRunnable);
+        // newest first, so each position means what it meant when the row was removed
+        for (int i = mPendingItems.size() - 1; i >= 0; i--) {
+            restore(mPendingPositions.get(i), mPendingItems.get(i));
+        }
+        mPendingItems.clear();
+        mPendingPositions.clear();
+        notifyPendingChanged();
+    }
+
+    /**
+     * Commit pending deletions without waiting for the undo window, e.g. when the screen is
+     * paused.
+     */
+    public void commitNow() {
+        mHandler.removeCallbacks(mCommitRunnable);
+        if (mPendingItems.isEmpty()) {
+            return;
+        }
+        final List<E> items = new ArrayList<>(mPendingItems);
+        mPendingItems.clear();
+        mPendingPositions.clear();
+        notifyPendingChanged();
+
+        sCommitExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCommitter.commitDeletes(items);
+                } catch (final Exception e) {
+                    Log.e(TAG, "Unable to commit " + items.size() + " deletions", e);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mListener != null)
+                                mListener.onCommitFailed(items, e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    public int getPendingCount() {
+        return mPendingItems.size();
+    }
+
+    /**
+     * The list may have been replaced or shortened since the row was removed, so its old position
+     * can be past the end.
+     */
+    private void restore(int position, E item) {
+        mHost.insertItem(Math.min(position, mHost.getItemCount()), item);
+    }
+
+    private void notifyPendingChanged() {
+        if (mListener != null)
+            mListener.onPendingDeletesChanged(mPendingItems.size());
+    }
+}
@@ -0,0 +1,231 @@
+package com.aim.framework;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link DraggableAndMultiSelectableRecyclerView.Adapter} over a list of items that is updated with
+ * {@link #submitList(List)} instead of notifyDataSetChanged(). The new list is diffed against the
+ * current one on a background thread with {@link ListDiffer}, and only the resulting range
+ * notifications are dispatched, so unchanged rows are not rebound, item animations keep running and
+ * an active drag is not reset.
+ *
+ * Item ids from the {@link ListDiffer.ItemCallback} are reported as stable ids, which also gives the
+ * adapter a selection that follows items around.
+ *
+ * Must be used from the main thread.
+ */
+public abstract class DiffingAdapter<E, T extends DraggableAndMultiSelectableRecyclerView.ViewHolder>
+        extends DraggableAndMultiSelectableRecyclerView.Adapter<T> implements DeferredDeleteController.Host<E> {
+    private static final String TAG = DiffingAdapter.class.getSimpleName();
+
+    private final ListDiffer.ItemCallback<E> mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private List<E> mItems = Collections.emptyList();
+    /** Bumped on every change to mItems, so diffs computed against an older list are dropped. */
+    private int mGeneration;
+    /** Most recently submitted list whose diff has not been applied yet. */
+    private List<E> mPendingList;
+
+    protected DiffingAdapter(ListDiffer.ItemCallback<E> callback) {
+        mCallback = callback;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replace the displayed items. The list is copied, so the caller may keep modifying it.
+     * Notifications are dispatched once the diff has been computed; until then the adapter keeps
+     * showing the previous list.
+     *
+     * @param newList
+     */
+    public void submitList(List<E> newList) {
+        final int generation = ++mGeneration;
+        final List<E> oldList = mItems;
+        final List<E> snapshot = newList != null ? new ArrayList<>(newList) : Collections.<E>emptyList();
+        mPendingList = snapshot;
+
+        // nothing worth diffing; skip the round trip
+        if (oldList.isEmpty() || snapshot.isEmpty()) {
+            final int oldSize = oldList.size();
+            applyList(snapshot);
+            if (oldSize > 0) {
+                notifyItemRangeRemoved(0, oldSize);
+            }
+            if (!snapshot.isEmpty()) {
+                notifyItemRangeInserted(0, snapshot.size());
+            }
+            return;
+        }
+
+        final TaskScheduler.Task task = TaskScheduler.tryExecute(TaskScheduler.Lane.USER_VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                final ListDiffer.Result result;
+                try {
+                    result = ListDiffer.diff(oldList, snapshot, mCallback);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Unable to diff lists, falling back to a full refresh", e);
+                    postFullRefresh(generation, snapshot);
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // a newer list was submitted, or the items were edited in place
+                            return;
+                        }
+                        applyList(snapshot);
+                        result.dispatchTo(DiffingAdapter.this);
+                    }
+                });
+            }
+        });
+        if (task == null) {
+            // the lane is backed up; showing the new list beats waiting for a diff
+            applyList(snapshot);
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * @return the items currently displayed, which lag behind {@link #submitList(List)} until
+     * its diff is applied
+     */
+    public List<E> getItems() {
+        return Collections.unmodifiableList(mItems);
+    }
+
+    public E getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mCallback.getItemId(mItems.get(position));
+    }
+
+    // region In-place edits
+
+    // Edits made directly to the displayed list, e.g. when a row is swiped away. A diff still in
+    // flight was computed against the unedited list, so it is redone against the edited one, and
+    // removals, insertions and moves are carried over to the pending list so it does not undo them.
+
+    @Override
+    public E removeItem(int position) {
+        final E item = editableItems().remove(position);
+        notifyItemRemoved(position);
+        if (mPendingList != null) {
+            final List<E> pending = new ArrayList<>(mPendingList);
+            final int pendingPosition = indexOfId(pending, mCallback.getItemId(item));
+            if (pendingPosition >= 0) {
+                pending.remove(pendingPosition);
+            }
+            mPendingList = pending;
+        }
+        onItemsEdited();
+        return item;
+    }
+
+    @Override
+    public void insertItem(int position, E item) {
+        final List<E> items = editableItems();
+        items.add(position, item);
+        notifyItemInserted(position);
+        if (mPendingList != null && indexOfId(mPendingList, mCallback.getItemId(item)) < 0) {
+            final List<E> pending = new ArrayList<>(mPendingList);
+            addAfterPrevious(pending, items, position, item);
+            mPendingList = pending;
+        }
+        onItemsEdited();
+    }
+
+    protected void moveItem(int fromPosition, int toPosition) {
+        final List<E> items = editableItems();
+        final E item = items.remove(fromPosition);
+        items.add(toPosition, item);
+        notifyItemMoved(fromPosition, toPosition);
+        if (mPendingList != null) {
+            final List<E> pending = new ArrayList<>(mPendingList);
+            final int pendingPosition = indexOfId(pending, mCallback.getItemId(item));
+            // a row the pending list dropped stays dropped
+            if (pendingPosition >= 0) {
+                pending.remove(pendingPosition);
+                addAfterPrevious(pending, items, toPosition, item);
+                mPendingList = pending;
+            }
+        }
+        onItemsEdited();
+    }
+
+    @Override
+    public boolean onMoveItem(int fromPosition, int toPosition) {
+        moveItem(fromPosition, toPosition);
+        return true;
+    }
+
+    // endregion
+
+    private void applyList(List<E> items) {
+        mItems = items;
+        mPendingList = null;
+    }
+
+    /**
+     * Snapshots handed to the diff thread are never modified, so copy before the first edit.
+     */
+    private List<E> editableItems() {
+        if (mPendingList != null || !(mItems instanceof ArrayList)) {
+            mItems = new ArrayList<>(mItems);
+        }
+        return mItems;
+    }
+
+    /**
+     * Add item to pending after the row it follows at position in items, if pending has that row too.
+     */
+    private void addAfterPrevious(List<E> pending, List<E> items, int position, E item) {
+        final int previous = position > 0 ? indexOfId(pending, mCallback.getItemId(items.get(position - 1))) : -1;
+        pending.add(previous >= 0 ? previous + 1 : Math.min(position, pending.size()), item);
+    }
+
+    private int indexOfId(List<E> items, long id) {
+        for (int i = 0; i < items.size(); i++) {
+            if (mCallback.getItemId(items.get(i)) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void onItemsEdited() {
+        mGeneration++;
+        if (mPendingList != null) {
+            submitList(mPendingList);
+        }
+    }
+
+    private void postFullRefresh(final int generation, final List<E> snapshot) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) {
+                    applyList(snapshot);
+                    notifyDataSetChanged();
+                }
+            }
+        });
+    }
+}
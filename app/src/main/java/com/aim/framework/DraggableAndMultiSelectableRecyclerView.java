@@ -2,21 +2,26 @@ package com.aim.framework;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.SparseBooleanArray;
 import android.view.ActionMode;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewPropertyAnimator;
+import android.view.animation.Interpolator;
 import android.view.animation.OvershootInterpolator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -37,25 +42,87 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
     private static final String TAG = DraggableAndMultiSelectableRecyclerView.class.getSimpleName();
+    private static final boolean DEBUG = false;
 
     private static final boolean DEFAULT_ALLOW_DRAGGING = false;
     private static final boolean DEFAULT_ALLOW_MULTI_SELECT = false;
+    private static final boolean DEFAULT_ALLOW_REORDER = false;
+    /** Frames to watch after a swipe is released or the selection changes (~half a second). */
+    private static final int SETTLE_MONITOR_FRAMES = 30;
+    private static final int BULK_ACTION_CHUNK_SIZE = 500;
+
+    /**
+     * Bulk actions run one after another, since each may shift the positions of the next.
+     * Unbounded, since each is started by the user and the selection is already cleared when it
+     * is queued, so none may be dropped.
+     */
+    private static final TaskScheduler.SerialExecutor sBulkActionExecutor =
+            TaskScheduler.newSerialExecutor(TaskScheduler.Lane.BACKGROUND, TaskScheduler.UNBOUNDED_CAPACITY);
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
 
     private final EnumSet<RecyclerFeature> enabledFeatures = EnumSet.allOf(RecyclerFeature.class);
 
     private String mMultiSelectActionBarFormattedString;
+    /** The last action mode title and its count, so repeated updates do not re-format. */
+    private String mActionModeTitle;
+    private int mActionModeTitleCount = -1;
+
+    private final GestureFrameStats mGestureFrameStats = new GestureFrameStats();
+    private final FrameTimingMonitor mFrameTimingMonitor = new FrameTimingMonitor();
+
+    private RecyclerListener mClientRecyclerListener;
+    private final RecyclerListener mInternalRecyclerListener = new RecyclerListener() {
+        @Override
+        public void onViewRecycled(RecyclerView.ViewHolder holder) {
+            if (mDragAnimator instanceof ItemDragAnimator.DragLifecycle)
+                ((ItemDragAnimator.DragLifecycle) mDragAnimator).onItemRecycled((ViewHolder) holder);
+            ((ViewHolder) holder).onRecycled();
+            if (mClientRecyclerListener != null)
+                mClientRecyclerListener.onViewRecycled(holder);
+        }
+    };
+
+    private OnScrollListener mClientScrollListener;
+    private final OnScrollListener mInternalScrollListener = new OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(int newState) {
+            if (newState == SCROLL_STATE_IDLE)
+                mFrameTimingMonitor.end(FrameTimingMonitor.Interaction.SCROLL);
+            else
+                mFrameTimingMonitor.begin(FrameTimingMonitor.Interaction.SCROLL);
+            if (mClientScrollListener != null)
+                mClientScrollListener.onScrollStateChanged(newState);
+        }
+
+        @Override
+        public void onScrolled(int dx, int dy) {
+            final RecyclerView.Adapter adapter = getAdapter();
+            if (adapter instanceof Adapter)
+                ((Adapter<?>) adapter).onListScrolled(dx, dy);
+            if (mClientScrollListener != null)
+                mClientScrollListener.onScrolled(dx, dy);
+        }
+    };
 
     private ItemDragAnimator mDragAnimator = new DefaultDragAnimator();
     private ItemMultiSelectAnimator mMultiSelectAnimator = new DefaultMultiSelectAnimator();
 
     private DraggableAndMultiSelectableRecyclerViewListener mRecyclerViewListener;
+    private DeferredDeleteController<?> mDeferredDeleteController;
+    private ItemReorderListener mItemReorderListener;
+    private final ItemReorderController mReorderController;
 
     private ActionMode mActionMode;
     private ActionMode.Callback mActionModeCallback;
 
     public static enum RecyclerFeature {
         ITEM_DRAG,
-        MULTI_SELECT
+        MULTI_SELECT,
+        /**
+         * Long-press and drag vertically to move an item. A long press that is released without
+         * moving still starts multi-select.
+         */
+        ITEM_REORDER
     }
 
     /**
@@ -78,6 +145,22 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         HOLDING
     }
 
+    /**
+     * What changed about an item when only part of its row needs updating. See
+     * {@link ViewHolder#onBindPayload(Payload)}.
+     */
+    public enum Payload {
+        /**
+         * The item was selected or deselected
+         */
+        SELECTION,
+
+        /**
+         * The item's {@link CardState} changed
+         */
+        DRAG_STATE
+    }
+
     public interface DraggableAndMultiSelectableRecyclerViewListener {
         void onItemSelected(final DraggableAndMultiSelectableRecyclerView.ViewHolder holder);
 
@@ -91,10 +174,63 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
          * This allows clients to (for whatever reason), allow dragging without deletion, or to
          * put constraints on what can be deleted.
          *
+         * Called on the UI thread at release, so it should not persist anything itself. With a
+         * {@link DeferredDeleteController} set, returning true only accepts the delete; the
+         * controller removes the item and persists it after its undo window.
+         *
          */
         boolean onDeleteItem(final ViewHolder holder);
     }
 
+    public interface ItemReorderListener {
+        /**
+         * Called once when a reordering drag ends, with the net effect of the whole drag. The
+         * adapter has already moved the item; persist the move here.
+         *
+         * @param fromPosition where the item was picked up
+         * @param toPosition where it was dropped
+         */
+        void onItemReordered(int fromPosition, int toPosition);
+    }
+
+    /**
+     * An operation on every selected item, run by {@link #performBulkAction}.
+     */
+    public interface BulkActionCallback {
+        /**
+         * Called on a background thread for consecutive chunks of the selected positions.
+         *
+         * @param positions every selected position, ascending, as of when the action started
+         * @param start first index into positions belonging to this chunk
+         * @param end index into positions just past this chunk
+         */
+        void onProcessChunk(int[] positions, int start, int end) throws Exception;
+
+        /**
+         * Called on the background thread after the last chunk. Persist what the chunks produced
+         * here, ideally with one {@link Cache#putAll} or {@link BaseDAO#saveAllToCache}.
+         */
+        void onCommit() throws Exception;
+
+        /**
+         * Called on the main thread after each chunk.
+         */
+        void onProgress(int processed, int total);
+
+        /**
+         * Called on the main thread once the action has been committed. If the action removes
+         * items, drop them from the adapter's data set here; the view dispatches the removals.
+         *
+         * @param positions the same array given to {@link #onProcessChunk}
+         */
+        void onFinished(int[] positions);
+
+        /**
+         * Called on the main thread instead of {@link #onFinished} if a chunk or the commit threw.
+         */
+        void onFailed(Exception e);
+    }
+
     // region CONSTRUCTORS
     public DraggableAndMultiSelectableRecyclerView(Context context) {
         this(context, null, 0);
@@ -110,9 +246,13 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
 
         final InternalTouchManager touchListener = new InternalTouchManager(context);
         addOnItemTouchListener(touchListener);
+        mReorderController = new ItemReorderController(this);
+        addItemDecoration(mReorderController);
+        super.setOnScrollListener(mInternalScrollListener);
+        super.setRecyclerListener(mInternalRecyclerListener);
         setLayoutManager(new DraggableLinearLayoutManager(context, touchListener.getSwipingFlag()));
         // If provided, grab feature flags from given attributes; otherwise, initialize with defaults
-        final boolean allowDrag, allowMultiSelect;
+        final boolean allowDrag, allowMultiSelect, allowReorder;
         final String multiSelectActionBarString;
         if (attrs != null) {
             TypedArray a = context.obtainStyledAttributes(
@@ -124,15 +264,20 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
             allowMultiSelect = a.getBoolean(
                     R.styleable.DraggableAndMultiSelectableRecyclerView_sbAllowMultiSelect,
                     DEFAULT_ALLOW_MULTI_SELECT);
+            allowReorder = a.getBoolean(
+                    R.styleable.DraggableAndMultiSelectableRecyclerView_sbAllowReorder,
+                    DEFAULT_ALLOW_REORDER);
             multiSelectActionBarString = a.getString(
                     R.styleable.DraggableAndMultiSelectableRecyclerView_sbMultiSelectFormattedABString);
         } else {
             allowDrag = DEFAULT_ALLOW_DRAGGING;
             allowMultiSelect = DEFAULT_ALLOW_MULTI_SELECT;
+            allowReorder = DEFAULT_ALLOW_REORDER;
             multiSelectActionBarString = null;
         }
         setFeatureEnabled(RecyclerFeature.ITEM_DRAG, allowDrag);
         setFeatureEnabled(RecyclerFeature.MULTI_SELECT, allowMultiSelect);
+        setFeatureEnabled(RecyclerFeature.ITEM_REORDER, allowReorder);
         if (multiSelectActionBarString != null)
             mMultiSelectActionBarFormattedString = multiSelectActionBarString;
         else
@@ -160,7 +305,9 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
 
         final boolean isNowSelected = multiSelectAdapter.isPositionSelected(itemIndex);
         ViewHolder holder = (ViewHolder) getChildViewHolder(view);
+        mFrameTimingMonitor.beginForFrames(FrameTimingMonitor.Interaction.MULTI_SELECT, SETTLE_MONITOR_FRAMES);
         if (holder != null) {
+            ((Adapter<?>) getAdapter()).dispatchPayload(holder, Payload.SELECTION);
             if (isNowSelected) {
                 mMultiSelectAnimator.animateItemChecked(holder);
             } else {
@@ -169,18 +316,167 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         }
 
         if (!didDeSelectLastItem) {
-            String title = String.format(mMultiSelectActionBarFormattedString, multiSelectAdapter.getSelectedItemCount());
-            mActionMode.setTitle(title);
+            updateActionModeTitle(multiSelectAdapter);
         } else {
             mActionMode.finish();
         }
     }
 
+    private void updateActionModeTitle(MultiSelectAdapter multiSelectAdapter) {
+        final int count = multiSelectAdapter.getSelectedItemCount();
+        if (count != mActionModeTitleCount || mActionModeTitle == null) {
+            mActionModeTitle = String.format(mMultiSelectActionBarFormattedString, count);
+            mActionModeTitleCount = count;
+        }
+        mActionMode.setTitle(mActionModeTitle);
+    }
+
+    /**
+     * Re-run the check/uncheck animation for attached items only, after a selection change that
+     * may have touched any number of positions.
+     */
+    private void onBulkSelectionChanged() {
+        final MultiSelectAdapter multiSelectAdapter = (MultiSelectAdapter) getAdapter();
+        final Adapter<?> adapter = (Adapter<?>) getAdapter();
+        mFrameTimingMonitor.beginForFrames(FrameTimingMonitor.Interaction.MULTI_SELECT, SETTLE_MONITOR_FRAMES);
+        for (int i = 0; i < getChildCount(); i++) {
+            final View child = getChildAt(i);
+            final int position = getChildPosition(child);
+            final ViewHolder holder = (ViewHolder) getChildViewHolder(child);
+            if (position == NO_POSITION || holder == null)
+                continue;
+            adapter.dispatchPayload(holder, Payload.SELECTION);
+            if (multiSelectAdapter.isPositionSelected(position))
+                mMultiSelectAnimator.animateItemChecked(holder);
+            else
+                mMultiSelectAnimator.animateItemUnchecked(holder);
+        }
+
+        if (mActionMode == null)
+            return;
+        if (multiSelectAdapter.getSelectedItemCount() > 0)
+            updateActionModeTitle(multiSelectAdapter);
+        else
+            mActionMode.finish();
+    }
+
+    /**
+     * Select every item while in action mode. Constant time regardless of list size.
+     */
+    public void selectAll() {
+        ((MultiSelectAdapter) getAdapter()).selectAll();
+        onBulkSelectionChanged();
+    }
+
+    /**
+     * Swap selected and unselected items while in action mode. Constant time regardless of list size.
+     */
+    public void invertSelection() {
+        ((MultiSelectAdapter) getAdapter()).invertSelection();
+        onBulkSelectionChanged();
+    }
+
+    /**
+     * Select or deselect all positions between the two given ones, inclusive and in either
+     * order (e.g. for shift-range selection).
+     */
+    public void setRangeSelected(int fromPosition, int toPosition, boolean selected) {
+        final int start = Math.min(fromPosition, toPosition);
+        final int count = Math.abs(toPosition - fromPosition) + 1;
+        ((MultiSelectAdapter) getAdapter()).setRangeSelected(start, count, selected);
+        onBulkSelectionChanged();
+    }
+
+    /**
+     * Run an action on every selected item without blocking the UI: the selection is captured
+     * and cleared (ending action mode), then processed off the main thread in chunks. The adapter's
+     * data set should not change until the callback finishes.
+     *
+     * @param callback
+     * @param removesItems if true, the selected positions are reported to the adapter as removed
+     *                     after {@link BulkActionCallback#onFinished}, grouped into ranges
+     */
+    public void performBulkAction(final BulkActionCallback callback, final boolean removesItems) {
+        final Adapter<?> adapter = (Adapter<?>) getAdapter();
+        final SelectionModel selectionModel = adapter.getSelectionModel();
+        final int[] selected = new int[selectionModel.getSelectedCount()];
+        final SelectionModel.Cursor cursor = selectionModel.cursor();
+        int count = 0;
+        for (int position = cursor.next(); position != SelectionModel.Cursor.NO_POSITION && count < selected.length; position = cursor.next()) {
+            selected[count++] = position;
+        }
+        final int[] positions = count == selected.length ? selected : Arrays.copyOf(selected, count);
+
+        adapter.clearSelections();
+        onBulkSelectionChanged();
+
+        sBulkActionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int start = 0; start < positions.length; start += BULK_ACTION_CHUNK_SIZE) {
+                        final int end = Math.min(start + BULK_ACTION_CHUNK_SIZE, positions.length);
+                        callback.onProcessChunk(positions, start, end);
+                        sMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onProgress(end, positions.length);
+                            }
+                        });
+                    }
+                    callback.onCommit();
+                } catch (final Exception e) {
+                    Log.e(TAG, "Bulk action on " + positions.length + " items failed", e);
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailed(e);
+                        }
+                    });
+                    return;
+                }
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFinished(positions);
+                        if (removesItems)
+                            adapter.notifyPositionsRemoved(positions);
+                    }
+                });
+            }
+        });
+    }
+
+    void setCardState(ViewHolder holder, CardState state) {
+        if (holder.state != state) {
+            holder.state = state;
+            ((Adapter<?>) getAdapter()).dispatchPayload(holder, Payload.DRAG_STATE);
+        }
+    }
+
+    /**
+     * Start multi-select with the given item, as a long press does.
+     */
+    void onLongPressWithoutReorder(View view) {
+        if (! isFeatureEnabled(RecyclerFeature.MULTI_SELECT) || mActionMode != null)
+            return;
+        final int viewIndex = getChildPosition(view);
+        if (viewIndex == NO_POSITION)
+            return;
+        mActionMode = startActionMode(mActionModeCallback);
+        toggleSelection(view, viewIndex);
+        HapticFeedbackUtils.provideHapticFeedback(getContext(), HapticFeedbackDispatcher.Effect.LONG_PRESS);
+    }
+
+    void onItemReordered(int fromPosition, int toPosition) {
+        if (mItemReorderListener != null)
+            mItemReorderListener.onItemReordered(fromPosition, toPosition);
+    }
+
     public void resetActionMode() {
         mActionMode = null;
         final MultiSelectAdapter multiSelectAdapter = (MultiSelectAdapter) getAdapter();
-        List<Integer> selectedItemPositions = multiSelectAdapter.getSelectedPositions();
-        mMultiSelectAnimator.onActionModeReset(selectedItemPositions);
+        mMultiSelectAnimator.onActionModeReset(multiSelectAdapter.getSelectionModel().cursor());
     }
 
     // region GETTERS AND SETTERS
@@ -190,6 +486,38 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
 
     public void setMultiSelectActionBarFormattedString(@NonNull String multiSelectActionBarFormattedString) {
         mMultiSelectActionBarFormattedString = multiSelectActionBarFormattedString;
+        mActionModeTitle = null;
+    }
+
+    /**
+     * Per-frame timing and allocation counts of the drag gesture handler. Disabled by default.
+     */
+    public GestureFrameStats getGestureFrameStats() {
+        return mGestureFrameStats;
+    }
+
+    /**
+     * Frame timing of scrolling, swiping, settle animations and selection changes in this list.
+     * Idle until a listener is set on it.
+     */
+    public FrameTimingMonitor getFrameTimingMonitor() {
+        return mFrameTimingMonitor;
+    }
+
+    /**
+     * The listener is chained behind the one this view uses for frame timing.
+     */
+    @Override
+    public void setOnScrollListener(OnScrollListener listener) {
+        mClientScrollListener = listener;
+    }
+
+    /**
+     * The listener is chained behind the one that lets the drag animator reset recycled items.
+     */
+    @Override
+    public void setRecyclerListener(RecyclerListener listener) {
+        mClientRecyclerListener = listener;
     }
 
     public boolean isFeatureEnabled(RecyclerFeature feature) {
@@ -213,6 +541,21 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         mRecyclerViewListener = listener;
     }
 
+    /**
+     * Route swipe-to-delete through the given controller, which removes swiped rows from the
+     * adapter and commits them after its undo window. The {@link DraggableAndMultiSelectableRecyclerViewListener},
+     * if any, can still veto a delete.
+     *
+     * @param controller null to leave deletes to the listener
+     */
+    public void setDeferredDeleteController(DeferredDeleteController<?> controller) {
+        mDeferredDeleteController = controller;
+    }
+
+    public void setItemReorderListener(ItemReorderListener listener) {
+        mItemReorderListener = listener;
+    }
+
     public ItemDragAnimator getDragAnimator() {
         return mDragAnimator;
     }
@@ -252,9 +595,23 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         if (! (adapter instanceof Adapter) )
             throw new IllegalArgumentException("SBRecyclerView requires it's adapter to subclass SBRecyclerView.Adapter, but was given " + adapter);
 
+        final RecyclerView.Adapter oldAdapter = getAdapter();
+        if (oldAdapter != null)
+            ((Adapter<?>) oldAdapter).mRecyclerView = null;
+        ((Adapter<?>) adapter).mRecyclerView = this;
         super.setAdapter(adapter);
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        // a detached list gets no scroll or touch callbacks that would end its interactions
+        mFrameTimingMonitor.stop();
+        // nothing is left to undo once the list is gone
+        if (mDeferredDeleteController != null)
+            mDeferredDeleteController.commitNow();
+        super.onDetachedFromWindow();
+    }
+
     // endregion
 
     // ==========   TOUCH MANAGER
@@ -280,31 +637,36 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         private void handleSwipeStart(final DraggableAndMultiSelectableRecyclerView.ViewHolder holder) {
             if (mLastSwipedView != null) {
                 // TODO safety-check, probably doesn't need to be here after dev
-                if (holder == mLastSwipedView)
+                if (DEBUG && holder == mLastSwipedView)
                     Log.d(TAG, "Whups: attempting to re-start an active swipe");
-                mLastSwipedView.state = CardState.IDLE;
+                setCardState(mLastSwipedView, CardState.IDLE);
             }
-            holder.state = CardState.SWIPING;
+            setCardState(holder, CardState.SWIPING);
             mLastSwipedView = holder;
+            if (mDragAnimator instanceof ItemDragAnimator.DragLifecycle)
+                ((ItemDragAnimator.DragLifecycle) mDragAnimator).onDragStart(holder);
+            mFrameTimingMonitor.begin(FrameTimingMonitor.Interaction.DRAG);
             // just in case...
             mIsActiveSwipePastThreshold = false;
         }
 
         private void handleSwipeRelease(final DraggableAndMultiSelectableRecyclerView.ViewHolder holder) {
             mLastSwipedView = null;
+            mFrameTimingMonitor.end(FrameTimingMonitor.Interaction.DRAG);
+            mFrameTimingMonitor.beginForFrames(FrameTimingMonitor.Interaction.ANIMATION, SETTLE_MONITOR_FRAMES);
             final boolean animateBackHome;
 
             if (mIsActiveSwipePastThreshold) {
                 tempSwipeCheck(holder);
                 // allow the animator to handle this animation, which is handled when the callback knows to delete
-                animateBackHome = (mRecyclerViewListener == null || ! mRecyclerViewListener.onDeleteItem(holder));
+                animateBackHome = ! deleteItem(holder);
                 mIsActiveSwipePastThreshold = false;
             } else {
                 animateBackHome = true;
             }
             if (animateBackHome) {
                 // reset holder state and animate back in place
-                holder.state = DraggableAndMultiSelectableRecyclerView.CardState.IDLE;
+                setCardState(holder, CardState.IDLE);
                 mDragAnimator.animateReturnToHome(holder);
             }
         }
@@ -313,47 +675,74 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
 
         @Override
         public boolean onSingleTapUp(MotionEvent e) {
-            final View tappedView = findChildViewUnder(e.getX(), e.getY());
-            if (tappedView == null)
-                return super.onSingleTapUp(e);
-
-            if (mActionMode == null) {
-                ViewHolder holder = (ViewHolder) getChildViewHolder(tappedView);
-                if (holder == null)
+            Tracer.beginSection("InternalTouchManager.onSingleTapUp");
+            try {
+                final View tappedView = findChildViewUnder(e.getX(), e.getY());
+                if (tappedView == null)
                     return super.onSingleTapUp(e);
 
-                if (mRecyclerViewListener != null)
-                    mRecyclerViewListener.onItemSelected(holder);
-
-            } else {
-                View view = findChildViewUnder(e.getX(), e.getY());
-                if (view != null) {
-                    final int viewPosition = getChildPosition(view);
-                    if (viewPosition != NO_POSITION) {
-                        toggleSelection(view, viewPosition);
+                if (mActionMode == null) {
+                    ViewHolder holder = (ViewHolder) getChildViewHolder(tappedView);
+                    if (holder == null)
+                        return super.onSingleTapUp(e);
+
+                    if (mRecyclerViewListener != null)
+                        mRecyclerViewListener.onItemSelected(holder);
+
+                } else {
+                    View view = findChildViewUnder(e.getX(), e.getY());
+                    if (view != null) {
+                        final int viewPosition = getChildPosition(view);
+                        if (viewPosition != NO_POSITION) {
+                            toggleSelection(view, viewPosition);
+                        }
                     }
                 }
+                return super.onSingleTapUp(e);
+            } finally {
+                Tracer.endSection();
             }
-            return super.onSingleTapUp(e);
         }
 
+        /**
+         * Runs for every touch frame. Once a drag is under way this must not allocate: the dragged
+         * view is reused instead of hit-testing, logging is compiled out and haptics are sent from
+         * another thread.
+         */
         @Override
         public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceThisFrameX, float distanceThisFrameY) {
-
-            // never capture if dragging is disabled
-            if (! isFeatureEnabled(RecyclerFeature.ITEM_DRAG))
+            Tracer.beginSection("InternalTouchManager.onScroll");
+            try {
+                // never capture if dragging is disabled
+                if (! isFeatureEnabled(RecyclerFeature.ITEM_DRAG))
+                    return false;
+
+                mGestureFrameStats.beginFrame();
+                try {
+                    handleScroll(e1, e2, distanceThisFrameX, distanceThisFrameY);
+                } finally {
+                    mGestureFrameStats.endFrame();
+                }
                 return false;
+            } finally {
+                Tracer.endSection();
+            }
+        }
 
+        private void handleScroll(MotionEvent e1, MotionEvent e2, float distanceThisFrameX, float distanceThisFrameY) {
             final float deltaX = e2.getX() - e1.getX();
             final float deltaY = e2.getY() - e1.getY();
             final float deltaXAbs = Math.abs(deltaX);
 
-            View v = findChildViewUnder(e2.getX(), e2.getY());
+            // the drag is locked to one view once it starts, so only hit-test before that
+            final boolean isDragLocked = mIsSwiping.get() && mLastSwipedView != null;
+            View v = isDragLocked ? mLastSwipedView.itemView : findChildViewUnder(e2.getX(), e2.getY());
 
             // ----Ripcord out if no view is found
             if (v == null) {
-                Log.d(TAG, "No view found at position " + e2.getX() + " , " + e2.getY());
-                return false;
+                if (DEBUG)
+                    Log.d(TAG, "No view found at position " + e2.getX() + " , " + e2.getY());
+                return;
             }
 
             // Check to ensure we actually want to drag (but cotinue dragging if we already are)
@@ -361,17 +750,18 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
             if (!mIsSwiping.get() && shouldIgnoreDrag(deltaX, deltaY, distanceThisFrameX, distanceThisFrameY)) {
                 // TODO Hull remove temp state check?
                 if (mLastSwipedView != null) {
-                    Log.e(TAG, "Ignoring drag event while drag is in progress.  Releasing...");
+                    if (DEBUG)
+                        Log.e(TAG, "Ignoring drag event while drag is in progress.  Releasing...");
                     handleSwipeRelease(mLastSwipedView);
                 }
-                return false;
+                return;
             }
 
             if (mLastSwipedView != null && v != mLastSwipedView.itemView) {
                 v = mLastSwipedView.itemView;
             }
 
-            final ViewHolder holder = (ViewHolder) getChildViewHolder(v);
+            final ViewHolder holder = isDragLocked ? mLastSwipedView : (ViewHolder) getChildViewHolder(v);
 
             // Set 'Swiping' to true.  If it just started, do special stuff
             if (!mIsSwiping.getAndSet(true)) {
@@ -385,53 +775,91 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
                 // handle crossing (or un-crossing) threshold
                 mIsActiveSwipePastThreshold = isBeyondThreshold;
                 // TODO consider pulling this into a custom mid-level input listener
-                HapticFeedbackUtils.provideHapticFeedback(getContext());
+                // sent off the UI thread, and rate-limited against a finger jittering on the line
+                HapticFeedbackUtils.provideHapticFeedback(getContext(), HapticFeedbackDispatcher.Effect.THRESHOLD_CROSSED);
             }
-
-            return false;
         }
 
         @Override
         public void onLongPress(MotionEvent e) {
-            // never capture if multi-select is disabled
-            if (! isFeatureEnabled(RecyclerFeature.MULTI_SELECT))
-                return;
+            Tracer.beginSection("InternalTouchManager.onLongPress");
+            try {
+                // reordering gets first dibs; it falls back to multi-select if the item is not moved
+                if (isFeatureEnabled(RecyclerFeature.ITEM_REORDER) && mActionMode == null) {
+                    final View view = findChildViewUnder(e.getX(), e.getY());
+                    if (view != null && mReorderController.start((ViewHolder) getChildViewHolder(view), e)) {
+                        HapticFeedbackUtils.provideHapticFeedback(getContext(), HapticFeedbackDispatcher.Effect.LONG_PRESS);
+                        return;
+                    }
+                }
 
-            View view = findChildViewUnder(e.getX(), e.getY());
-            if (view == null || mActionMode != null) {
-                return;
+                // never capture if multi-select is disabled
+                if (! isFeatureEnabled(RecyclerFeature.MULTI_SELECT))
+                    return;
+
+                View view = findChildViewUnder(e.getX(), e.getY());
+                if (view == null || mActionMode != null) {
+                    return;
+                }
+                onLongPressWithoutReorder(view);
+                super.onLongPress(e);
+            } finally {
+                Tracer.endSection();
             }
-            mActionMode = startActionMode(mActionModeCallback);
-            int viewIndex = getChildPosition(view);
-            toggleSelection(view, viewIndex);
-            HapticFeedbackUtils.provideHapticFeedback(getContext());
-            super.onLongPress(e);
         }
 
         //=-=-=-=-= TOUCH MANAGER:  TOUCH ITEM LISTENER METHODS
         @Override
         public boolean onInterceptTouchEvent(RecyclerView recyclerView, MotionEvent motionEvent) {
-            // Check if we're swiping, reset to false no matter what
-            if (motionEvent.getAction() == MotionEvent.ACTION_UP && mIsSwiping.getAndSet(false)) {
-                final ViewHolder holder = mLastSwipedView;
-                if (holder != null) {
-                    handleSwipeRelease(holder);
-                }
-                else {
-                    Log.e(TAG, "swipe-up intercepted without lastSwipedView being set.");
+            Tracer.beginSection("InternalTouchManager.onInterceptTouchEvent");
+            try {
+                // a reorder takes over the rest of the gesture, see onTouchEvent
+                if (mReorderController.isActive())
+                    return true;
+
+                // Check if we're swiping, reset to false no matter what
+                if (motionEvent.getAction() == MotionEvent.ACTION_UP && mIsSwiping.getAndSet(false)) {
+                    final ViewHolder holder = mLastSwipedView;
+                    if (holder != null) {
+                        handleSwipeRelease(holder);
+                    }
+                    else {
+                        Log.e(TAG, "swipe-up intercepted without lastSwipedView being set.");
+                    }
                 }
-            }
 
-            return gestureDetector.onTouchEvent(motionEvent);
+                return gestureDetector.onTouchEvent(motionEvent);
+            } finally {
+                Tracer.endSection();
+            }
         }
 
         @Override
         public void onTouchEvent(RecyclerView recyclerView, MotionEvent motionEvent) {
-
+            Tracer.beginSection("InternalTouchManager.onTouchEvent");
+            try {
+                mReorderController.onTouchEvent(motionEvent);
+            } finally {
+                Tracer.endSection();
+            }
         }
 
         // =-=-=-=-= TOUCH MANAGER:  HELPERS
 
+        /**
+         * @return true if the swiped item was deleted, or the listener took over deleting it
+         */
+        private boolean deleteItem(DraggableAndMultiSelectableRecyclerView.ViewHolder holder) {
+            if (mDeferredDeleteController == null)
+                return mRecyclerViewListener != null && mRecyclerViewListener.onDeleteItem(holder);
+
+            final int position = holder.getPosition();
+            if (position == NO_POSITION || (mRecyclerViewListener != null && ! mRecyclerViewListener.onDeleteItem(holder)))
+                return false;
+            mDeferredDeleteController.delete(position);
+            return true;
+        }
+
         /**
          * A method used to check and ensure state, so we can capture as many potential bugs as possible without
          * cluttering the code with too much boilerplate.  Will very likely be removed
@@ -473,6 +901,23 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         public ViewHolder(View itemView) {
             super(itemView);
         }
+
+        /**
+         * Update only what the given payload covers (e.g. a check mark for
+         * {@link Payload#SELECTION}, elevation for {@link Payload#DRAG_STATE}) instead of
+         * rebinding the whole row. The default does nothing.
+         *
+         * @param payload
+         */
+        public void onBindPayload(Payload payload) {
+        }
+
+        /**
+         * Called when the row goes back to the pool. Release what it holds here, e.g. cancel image
+         * loads. The default does nothing.
+         */
+        public void onRecycled() {
+        }
     }
 
     /**
@@ -482,51 +927,194 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
      */
     public static abstract class Adapter<T extends ViewHolder>
             extends RecyclerView.Adapter<T> implements MultiSelectAdapter {
-        protected final SparseBooleanArray mSelectedItems = new SparseBooleanArray();
+        private SelectionModel mSelectionModel;
+        /** The view this adapter is set on, for routing payloads to attached holders. */
+        private DraggableAndMultiSelectableRecyclerView mRecyclerView;
+
+        /**
+         * Partially rebind the item at the given position, if its row is currently attached. Rows
+         * that are not attached get a full bind when they are next shown, so nothing is lost.
+         *
+         * @param position
+         * @param payload
+         */
+        public void notifyItemPayloadChanged(int position, Payload payload) {
+            if (mRecyclerView == null)
+                return;
+            final RecyclerView.ViewHolder holder = mRecyclerView.findViewHolderForPosition(position);
+            if (holder != null)
+                dispatchPayload((ViewHolder) holder, payload);
+        }
+
+        /**
+         * Move an item in the data set and call notifyItemMoved, for drag-to-reorder. The default
+         * does not support moving.
+         *
+         * @param fromPosition
+         * @param toPosition
+         * @return true if the item was moved
+         */
+        public boolean onMoveItem(int fromPosition, int toPosition) {
+            return false;
+        }
+
+        /**
+         * Called when the list this adapter is set on scrolls, before any client scroll listener.
+         * Unlike the order rows are bound in, this follows the user. The default does nothing.
+         *
+         * @param dx
+         * @param dy
+         */
+        public void onListScrolled(int dx, int dy) {
+        }
+
+        /**
+         * Report many removals at once, as one notifyItemRangeRemoved per contiguous run. Runs are
+         * dispatched from the highest position down so the earlier ones stay valid.
+         *
+         * @param positions removed positions in ascending order, as they were before the removal
+         */
+        public void notifyPositionsRemoved(int[] positions) {
+            int end = positions.length;
+            while (end > 0) {
+                int start = end - 1;
+                while (start > 0 && positions[start - 1] == positions[start] - 1) {
+                    start--;
+                }
+                notifyItemRangeRemoved(positions[start], end - start);
+                end = start;
+            }
+        }
+
+        /**
+         * Called instead of {@link #onBindViewHolder} when only the given payload changed. The
+         * default routes to {@link ViewHolder#onBindPayload(Payload)}.
+         *
+         * @param holder
+         * @param position
+         * @param payload
+         */
+        public void onBindViewHolderPayload(T holder, int position, Payload payload) {
+            holder.onBindPayload(payload);
+        }
+
+        @SuppressWarnings("unchecked")
+        void dispatchPayload(ViewHolder holder, Payload payload) {
+            onBindViewHolderPayload((T) holder, holder.getPosition(), payload);
+        }
 
 
         @Override
         public boolean toggleSelection(int position) {
-            final int previousSize = mSelectedItems.size();
+            final SelectionModel selectionModel = getSelectionModel();
+            selectionModel.toggle(position);
+            return selectionModel.getSelectedCount() == 0;
+        }
 
-            if (mSelectedItems.get(position, false)) {
-                mSelectedItems.delete(position);
-            } else {
-                mSelectedItems.put(position, true);
-            }
+        @Override
+        public void setRangeSelected(int start, int count, boolean selected) {
+            getSelectionModel().setRangeSelected(start, count, selected);
+        }
+
+        @Override
+        public void selectAll() {
+            getSelectionModel().selectAll();
+        }
 
-            final int currentSize = mSelectedItems.size();
-            return previousSize >= 0 && currentSize == 0;
+        @Override
+        public void invertSelection() {
+            getSelectionModel().invert();
         }
 
         @Override
         public void clearSelections() {
-            mSelectedItems.clear();
+            getSelectionModel().clear();
         }
 
         @Override
         public int getSelectedItemCount() {
-            return mSelectedItems.size();
+            return getSelectionModel().getSelectedCount();
         }
 
         @Override
         public List<Integer> getSelectedPositions() {
-            List<Integer> items = new ArrayList<Integer>(mSelectedItems.size());
-            for (int i = 0; i < mSelectedItems.size(); i++) {
-                items.add(mSelectedItems.keyAt(i));
+            final SelectionModel selectionModel = getSelectionModel();
+            List<Integer> items = new ArrayList<Integer>(selectionModel.getSelectedCount());
+            final SelectionModel.Cursor cursor = selectionModel.cursor();
+            for (int position = cursor.next(); position != SelectionModel.Cursor.NO_POSITION; position = cursor.next()) {
+                items.add(position);
             }
             return items;
 
         }
         @Override
         public boolean isPositionSelected(int position) {
-            return (mSelectedItems.get(position, false));
+            return getSelectionModel().isSelected(position);
+        }
+
+        /**
+         * Adapters with stable ids get a {@link StableIdSelectionModel}, so their selection
+         * follows items through inserts, removals and moves; others get a position-keyed
+         * {@link BitSetSelectionModel}.
+         */
+        @Override
+        public SelectionModel getSelectionModel() {
+            if (mSelectionModel == null) {
+                mSelectionModel = hasStableIds()
+                        ? new StableIdSelectionModel(this)
+                        : new BitSetSelectionModel(this);
+            }
+            return mSelectionModel;
+        }
+
+        /**
+         * Swap in a different selection model. The current selection is not carried over, and the
+         * current model is detached from this adapter.
+         *
+         * @param selectionModel Set to null to revert to the default model
+         */
+        public void setSelectionModel(SelectionModel selectionModel) {
+            if (mSelectionModel != null && mSelectionModel != selectionModel) {
+                mSelectionModel.detach();
+            }
+            mSelectionModel = selectionModel;
+        }
+
+        /**
+         * Save the selection, e.g. from the hosting fragment's onSaveInstanceState.
+         */
+        public void onSaveInstanceState(Bundle outState) {
+            getSelectionModel().saveInstanceState(outState);
+        }
+
+        /**
+         * Restore a selection saved with {@link #onSaveInstanceState(Bundle)}.
+         */
+        public void onRestoreInstanceState(Bundle savedState) {
+            getSelectionModel().restoreInstanceState(savedState);
         }
     }
 
 
-    /** An item can only be dragged left or right; no scaling or alpha.  */
-    private static class DefaultDragAnimator implements ItemDragAnimator {
+    /**
+     * An item can only be dragged left or right; no scaling or alpha.
+     *
+     * The item is drawn from a hardware layer while dragged, so moving it only recomposites the
+     * layer. On Lollipop the return animation drops the layer and runs on the RenderThread (which
+     * only happens for animations without listeners or actions, hence no withLayer() there);
+     * earlier platforms keep a layer for the duration of the animation.
+     */
+    private static class DefaultDragAnimator implements ItemDragAnimator, ItemDragAnimator.DragLifecycle {
+        private static final long RETURN_DURATION_MS = 250;
+        // stateless, so one instance serves every item
+        private static final Interpolator RETURN_INTERPOLATOR = new OvershootInterpolator();
+
+        @Override
+        public void onDragStart(ViewHolder holder) {
+            final View view = holder.itemView;
+            view.animate().cancel();
+            view.setLayerType(LAYER_TYPE_HARDWARE, null);
+        }
 
         @Override
         public void transformDraggingItem(ViewHolder holder, float deltaX, float deltaY) {
@@ -535,14 +1123,27 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
 
         @Override
         public void animateReturnToHome(ViewHolder holder) {
-            final ViewPropertyAnimator anim = holder.itemView.animate();
+            final View view = holder.itemView;
+            final ViewPropertyAnimator anim = view.animate();
             anim.cancel();
+            // withLayer() restores whatever layer type it finds, so it has to find none
+            view.setLayerType(LAYER_TYPE_NONE, null);
             anim.translationX(0);
-            anim.setDuration(250);
-            anim.setInterpolator(new OvershootInterpolator());
+            anim.setDuration(RETURN_DURATION_MS);
+            anim.setInterpolator(RETURN_INTERPOLATOR);
             anim.setStartDelay(0);
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+                anim.withLayer();
             anim.start();
         }
+
+        @Override
+        public void onItemRecycled(ViewHolder holder) {
+            final View view = holder.itemView;
+            view.animate().cancel();
+            view.setTranslationX(0);
+            view.setLayerType(LAYER_TYPE_NONE, null);
+        }
     }
 
     private static class DefaultMultiSelectAnimator implements ItemMultiSelectAnimator {
@@ -557,7 +1158,7 @@ public class DraggableAndMultiSelectableRecyclerView extends RecyclerView {
         }
 
         @Override
-        public void onActionModeReset(List<Integer> selectedPositions) {
+        public void onActionModeReset(SelectionModel.Cursor selectedPositions) {
             Log.e(TAG, "Stubbed DefaultMultiSelectAnimator has been called... why?");
         }
     }
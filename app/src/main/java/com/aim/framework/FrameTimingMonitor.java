@@ -0,0 +1,297 @@
+package com.aim.framework;
+
+import android.view.Choreographer;
+
+/**
+ * Measures frame-to-frame intervals with {@link Choreographer} while an interaction is under way,
+ * and reports a percentile summary per interaction once it ends.
+ *
+ * Nothing is posted to the Choreographer unless a {@link Listener} is set and an interaction is
+ * active, and recording a frame does not allocate. Main thread only.
+ */
+public class FrameTimingMonitor implements Choreographer.FrameCallback {
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 16666667L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    /** Frames of 1ms resolution up to this; anything slower lands in the last bucket. */
+    private static final int HISTOGRAM_MAX_MILLIS = 250;
+    private static final int OPEN_ENDED = -1;
+    private static final int INACTIVE = 0;
+
+    public enum Interaction {
+        /** The list is being flung or dragged vertically */
+        SCROLL,
+        /** An item is being swiped */
+        DRAG,
+        /** Items settling after a swipe: returning home or being removed */
+        ANIMATION,
+        /** Rows reacting to a selection change */
+        MULTI_SELECT
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread when an interaction ends, if any frames were recorded.
+         */
+        void onInteractionFinished(Summary summary);
+    }
+
+    public static class Summary {
+        private final Interaction mInteraction;
+        private final int mFrameCount;
+        private final int mJankCount;
+        private final int mDroppedFrames;
+        private final int mP50Millis;
+        private final int mP95Millis;
+        private final int mP99Millis;
+        private final int mMaxMillis;
+
+        private Summary(Interaction interaction, int frameCount, int jankCount, int droppedFrames,
+                        int p50Millis, int p95Millis, int p99Millis, int maxMillis) {
+            mInteraction = interaction;
+            mFrameCount = frameCount;
+            mJankCount = jankCount;
+            mDroppedFrames = droppedFrames;
+            mP50Millis = p50Millis;
+            mP95Millis = p95Millis;
+            mP99Millis = p99Millis;
+            mMaxMillis = maxMillis;
+        }
+
+        public Interaction getInteraction() {
+            return mInteraction;
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return frames that took more than one and a half frame intervals
+         */
+        public int getJankCount() {
+            return mJankCount;
+        }
+
+        /**
+         * @return vsyncs that passed without a frame
+         */
+        public int getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        public int getP50Millis() {
+            return mP50Millis;
+        }
+
+        public int getP95Millis() {
+            return mP95Millis;
+        }
+
+        public int getP99Millis() {
+            return mP99Millis;
+        }
+
+        /**
+         * @return the slowest frame, capped at the histogram range
+         */
+        public int getMaxMillis() {
+            return mMaxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{" + mInteraction
+                    + ", frames=" + mFrameCount
+                    + ", jank=" + mJankCount
+                    + ", dropped=" + mDroppedFrames
+                    + ", p50=" + mP50Millis + "ms"
+                    + ", p95=" + mP95Millis + "ms"
+                    + ", p99=" + mP99Millis + "ms"
+                    + ", max=" + mMaxMillis + "ms"
+                    + '}';
+        }
+    }
+
+    /**
+     * Frame durations in 1ms buckets.
+     */
+    private static class Histogram {
+        private final int[] mBuckets = new int[HISTOGRAM_MAX_MILLIS + 1];
+        private int mCount;
+        private int mJankCount;
+        private int mDroppedFrames;
+        private int mMaxMillis;
+
+        private void record(long durationNanos, long frameIntervalNanos) {
+            final int millis = (int) Math.min(durationNanos / NANOS_PER_MILLI, HISTOGRAM_MAX_MILLIS);
+            mBuckets[millis]++;
+            mCount++;
+            if (durationNanos * 2 > frameIntervalNanos * 3) {
+                mJankCount++;
+            }
+            mDroppedFrames += (int) Math.max(0, (durationNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1);
+            mMaxMillis = Math.max(mMaxMillis, millis);
+        }
+
+        private int percentile(int percent) {
+            final int rank = (int) Math.ceil(mCount * percent / 100.0);
+            int seen = 0;
+            for (int millis = 0; millis < mBuckets.length; millis++) {
+                seen += mBuckets[millis];
+                if (seen >= rank) {
+                    return millis;
+                }
+            }
+            return HISTOGRAM_MAX_MILLIS;
+        }
+
+        private Summary summarize(Interaction interaction) {
+            return new Summary(interaction, mCount, mJankCount, mDroppedFrames,
+                    percentile(50), percentile(95), percentile(99), mMaxMillis);
+        }
+
+        private void reset() {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = 0;
+            }
+            mCount = 0;
+            mJankCount = 0;
+            mDroppedFrames = 0;
+            mMaxMillis = 0;
+        }
+    }
+
+    private static final Interaction[] INTERACTIONS = Interaction.values();
+
+    private final Histogram[] mHistograms = new Histogram[INTERACTIONS.length];
+    /** Per interaction: INACTIVE, OPEN_ENDED, or the number of frames left to record. */
+    private final int[] mFramesLeft = new int[INTERACTIONS.length];
+
+    private Listener mListener;
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private long mLastFrameTimeNanos;
+    private boolean mFrameCallbackPosted;
+
+    public FrameTimingMonitor() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @param listener Set to null to stop monitoring; interactions in progress are dropped
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+        if (listener == null) {
+            for (int i = 0; i < INTERACTIONS.length; i++) {
+                mFramesLeft[i] = INACTIVE;
+                mHistograms[i].reset();
+            }
+        }
+    }
+
+    /**
+     * @param frameIntervalNanos the display's refresh interval, for counting jank and dropped frames
+     */
+    public void setFrameIntervalNanos(long frameIntervalNanos) {
+        if (frameIntervalNanos <= 0)
+            throw new IllegalArgumentException("frameIntervalNanos must be positive, but was " + frameIntervalNanos);
+        mFrameIntervalNanos = frameIntervalNanos;
+    }
+
+    /**
+     * Start recording frames for the interaction until {@link #end(Interaction)}.
+     */
+    public void begin(Interaction interaction) {
+        if (mListener == null) {
+            return;
+        }
+        mFramesLeft[interaction.ordinal()] = OPEN_ENDED;
+        ensureFrameCallback();
+    }
+
+    /**
+     * Record the next few frames for an interaction that has no well-defined end, such as an
+     * animation the monitor has no callback for. Extends a window that is already running.
+     */
+    public void beginForFrames(Interaction interaction, int frames) {
+        if (mListener == null) {
+            return;
+        }
+        final int index = interaction.ordinal();
+        if (mFramesLeft[index] != OPEN_ENDED) {
+            mFramesLeft[index] = Math.max(mFramesLeft[index], frames);
+            ensureFrameCallback();
+        }
+    }
+
+    public void end(Interaction interaction) {
+        final int index = interaction.ordinal();
+        if (mFramesLeft[index] == INACTIVE) {
+            return;
+        }
+        mFramesLeft[index] = INACTIVE;
+        final Histogram histogram = mHistograms[index];
+        if (histogram.mCount > 0 && mListener != null) {
+            mListener.onInteractionFinished(histogram.summarize(interaction));
+        }
+        histogram.reset();
+    }
+
+    /**
+     * End every interaction in progress, reporting what was recorded, and stop watching frames.
+     * Call this when whatever drives the interactions goes away, e.g. its view is detached, since
+     * an open-ended interaction would otherwise keep a frame callback posted forever.
+     */
+    public void stop() {
+        for (int i = 0; i < INTERACTIONS.length; i++) {
+            end(INTERACTIONS[i]);
+        }
+        if (mFrameCallbackPosted) {
+            mFrameCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        mLastFrameTimeNanos = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameCallbackPosted = false;
+        final long lastFrameTimeNanos = mLastFrameTimeNanos;
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        boolean anyActive = false;
+        for (int i = 0; i < INTERACTIONS.length; i++) {
+            final int framesLeft = mFramesLeft[i];
+            if (framesLeft == INACTIVE) {
+                continue;
+            }
+            // the first frame only gives us a starting point
+            if (lastFrameTimeNanos != 0) {
+                mHistograms[i].record(frameTimeNanos - lastFrameTimeNanos, mFrameIntervalNanos);
+            }
+            if (framesLeft == 1) {
+                end(INTERACTIONS[i]);
+            } else {
+                if (framesLeft != OPEN_ENDED) {
+                    mFramesLeft[i] = framesLeft - 1;
+                }
+                anyActive = true;
+            }
+        }
+
+        if (anyActive) {
+            ensureFrameCallback();
+        } else {
+            mLastFrameTimeNanos = 0;
+        }
+    }
+
+    private void ensureFrameCallback() {
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.aim.framework;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+/**
+ * Sets up the app-wide components through a {@link StartupPipeline}, so that only what the first
+ * frame needs is done before it, and that in parallel.
+ */
+public class FrameworkApplication extends Application {
+    private static final String COMPONENT_PREFERENCES = "preferences";
+    private static final String COMPONENT_CACHE = "cache";
+    private static final String COMPONENT_REQUEST_QUEUE = "request_queue";
+    private static final String COMPONENT_REQUEST_COALESCER = "request_coalescer";
+
+    private StartupPipeline mStartupPipeline;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mStartupPipeline = new StartupPipeline(this);
+
+        // the drawer reads the default preferences in onCreate; load them off the main thread
+        mStartupPipeline.add(new StartupComponent(COMPONENT_PREFERENCES, StartupComponent.Priority.CRITICAL) {
+            @Override
+            protected void initialize(Context context) {
+                // blocks until the file is loaded
+                PreferenceManager.getDefaultSharedPreferences(context).contains(COMPONENT_PREFERENCES);
+            }
+        });
+        // loads the cache's preferences file and the json parser
+        mStartupPipeline.add(new StartupComponent(COMPONENT_CACHE, StartupComponent.Priority.CRITICAL) {
+            @Override
+            protected void initialize(Context context) {
+                CacheManager.getCache(context);
+            }
+        });
+        mStartupPipeline.add(new StartupComponent(COMPONENT_REQUEST_QUEUE, StartupComponent.Priority.DEFERRED,
+                COMPONENT_CACHE) {
+            @Override
+            protected void initialize(Context context) {
+                NetworkManager.getRequestQueue(context);
+            }
+        });
+        mStartupPipeline.add(new StartupComponent(COMPONENT_REQUEST_COALESCER, StartupComponent.Priority.DEFERRED,
+                COMPONENT_REQUEST_QUEUE) {
+            @Override
+            public boolean runsOnMainThread() {
+                return true;
+            }
+
+            @Override
+            protected void initialize(Context context) {
+                NetworkManager.getRequestCoalescer(context);
+            }
+        });
+
+        mStartupPipeline.runCritical();
+        registerActivityLifecycleCallbacks(new FirstActivityCallbacks());
+    }
+
+    public StartupPipeline getStartupPipeline() {
+        return mStartupPipeline;
+    }
+
+    /**
+     * Hands the first activity to the pipeline, so deferred components start after its first frame.
+     */
+    private class FirstActivityCallbacks implements ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            unregisterActivityLifecycleCallbacks(this);
+            mStartupPipeline.runDeferredAfterFirstDraw(activity);
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.aim.framework;
+
+import android.os.Debug;
+
+/**
+ * Debug counters for the per-frame gesture handler: how long each frame spent in it and how many
+ * objects it allocated on the calling thread. Meant for catching regressions on the hot path, not
+ * for production; while enabled, the runtime counts every allocation, which has a cost of its own.
+ *
+ * Main thread only.
+ */
+public class GestureFrameStats {
+    private boolean mEnabled;
+
+    private long mFrameStartNanos;
+    private int mFrameStartAllocs;
+
+    private int mFrames;
+    private int mFramesWithAllocations;
+    private long mTotalAllocations;
+    private int mMaxAllocations;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @param enabled starts or stops allocation counting; counters are kept until {@link #reset()}
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled == mEnabled) {
+            return;
+        }
+        mEnabled = enabled;
+        if (enabled) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        mFrameStartAllocs = Debug.getThreadAllocCount();
+        mFrameStartNanos = System.nanoTime();
+    }
+
+    void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        final long nanos = System.nanoTime() - mFrameStartNanos;
+        final int allocations = Debug.getThreadAllocCount() - mFrameStartAllocs;
+        mFrames++;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        if (allocations > 0) {
+            mFramesWithAllocations++;
+            mTotalAllocations += allocations;
+            mMaxAllocations = Math.max(mMaxAllocations, allocations);
+        }
+    }
+
+    public void reset() {
+        mFrames = 0;
+        mFramesWithAllocations = 0;
+        mTotalAllocations = 0;
+        mMaxAllocations = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    public int getFrames() {
+        return mFrames;
+    }
+
+    public int getFramesWithAllocations() {
+        return mFramesWithAllocations;
+    }
+
+    public long getTotalAllocations() {
+        return mTotalAllocations;
+    }
+
+    public int getMaxAllocations() {
+        return mMaxAllocations;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "GestureFrameStats{frames=" + mFrames
+                + ", framesWithAllocations=" + mFramesWithAllocations
+                + ", totalAllocations=" + mTotalAllocations
+                + ", maxAllocations=" + mMaxAllocations
+                + ", avgMicros=" + (mFrames > 0 ? mTotalNanos / mFrames / 1000 : 0)
+                + ", maxMicros=" + mMaxNanos / 1000
+                + '}';
+    }
+}
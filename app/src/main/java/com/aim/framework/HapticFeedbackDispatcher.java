@@ -0,0 +1,238 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Vibrator;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Sends haptic feedback from a background thread, so the vibrator's binder calls stay out of the
+ * touch frame, and rate-limits it so jittery input does not turn into a buzz.
+ *
+ * Effects closer together than their minimum interval are not played back to back: the latest one
+ * is held until the interval has passed and then played, replacing any effect already held. The
+ * same effect requested again while held merges into it. An effect can also cut short a pattern
+ * that is still playing, see {@link Effect#interrupts}.
+ *
+ * Thread safe.
+ */
+public class HapticFeedbackDispatcher {
+    private static final String TAG = HapticFeedbackDispatcher.class.getSimpleName();
+
+    private static final long DEFAULT_MIN_INTERVAL_MS = 80;
+
+    private static final int MSG_PERFORM = 1;
+    private static final int MSG_PLAY_HELD = 2;
+    private static final int MSG_CANCEL = 3;
+
+    private static volatile HapticFeedbackDispatcher sInstance;
+
+    private final Vibrator mVibrator;
+    private final Handler mHandler;
+    private volatile long mMinIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+
+    // haptics thread only
+    private long mLastPlayedAt = Long.MIN_VALUE / 2;
+    private long mPlayingUntil;
+    private Effect mHeldEffect;
+
+    /**
+     * A single pulse or a pattern, in {@link Vibrator#vibrate(long[], int)} form: alternating
+     * off and on durations, starting with an off one.
+     */
+    public static class Effect {
+        /** The plain pulse used so far for every kind of feedback. */
+        public static final Effect DEFAULT = pulse(50);
+        /** A drag crossing an action threshold, which jittery fingers can cross many times a second. */
+        public static final Effect THRESHOLD_CROSSED = pulse(30).withMinInterval(150);
+        /** A long press picking something up or starting a selection. */
+        public static final Effect LONG_PRESS = pulse(50).interrupting();
+        /** Confirmation of a completed action. */
+        public static final Effect CONFIRM = pattern(0, 30, 80, 30).interrupting();
+
+        private final long[] mPattern;
+        private final long mDurationMs;
+        private final long mMinIntervalMs;
+        private final boolean mInterrupts;
+
+        private Effect(long[] pattern, long minIntervalMs, boolean interrupts) {
+            mPattern = pattern;
+            long duration = 0;
+            for (long part : pattern) {
+                duration += part;
+            }
+            mDurationMs = duration;
+            mMinIntervalMs = minIntervalMs;
+            mInterrupts = interrupts;
+        }
+
+        public static Effect pulse(long durationMs) {
+            return pattern(0, durationMs);
+        }
+
+        /**
+         * @param pattern alternating off and on durations in milliseconds, starting with off
+         * @return
+         */
+        public static Effect pattern(long... pattern) {
+            if (pattern.length < 2)
+                throw new IllegalArgumentException("A pattern needs at least one off and one on duration");
+            return new Effect(pattern.clone(), -1, false);
+        }
+
+        /**
+         * @param minIntervalMs how soon after the previous effect this one may play, overriding
+         *                      the dispatcher's default
+         * @return a copy of this effect with the interval
+         */
+        public Effect withMinInterval(long minIntervalMs) {
+            return new Effect(mPattern, minIntervalMs, mInterrupts);
+        }
+
+        /**
+         * @return a copy of this effect that stops a pattern still playing instead of waiting for it
+         */
+        public Effect interrupting() {
+            return new Effect(mPattern, mMinIntervalMs, true);
+        }
+
+        public boolean interrupts() {
+            return mInterrupts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Effect)) return false;
+            final Effect effect = (Effect) o;
+            return mMinIntervalMs == effect.mMinIntervalMs && mInterrupts == effect.mInterrupts
+                    && Arrays.equals(mPattern, effect.mPattern);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(mPattern) + (int) mMinIntervalMs;
+        }
+    }
+
+    private final Handler.Callback mCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_PERFORM:
+                    onPerform((Effect) msg.obj);
+                    return true;
+                case MSG_PLAY_HELD:
+                    final Effect held = mHeldEffect;
+                    mHeldEffect = null;
+                    if (held != null) {
+                        play(held);
+                    }
+                    return true;
+                case MSG_CANCEL:
+                    mHandler.removeMessages(MSG_PLAY_HELD);
+                    mHeldEffect = null;
+                    mPlayingUntil = 0;
+                    mVibrator.cancel();
+                    return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Get the dispatcher shared by the app.
+     * @param context
+     * @return
+     */
+    public static HapticFeedbackDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (HapticFeedbackDispatcher.class) {
+                if (sInstance == null) {
+                    sInstance = new HapticFeedbackDispatcher(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private HapticFeedbackDispatcher(Context context) {
+        mVibrator = (Vibrator) context.getApplicationContext().getSystemService(Context.VIBRATOR_SERVICE);
+        final HandlerThread thread = new HandlerThread("haptics", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), mCallback);
+    }
+
+    /**
+     * @param minIntervalMs how close together effects without their own interval may play
+     */
+    public void setMinIntervalMillis(long minIntervalMs) {
+        mMinIntervalMs = Math.max(0, minIntervalMs);
+    }
+
+    /**
+     * Play the effect, now or once the minimum interval since the previous one has passed.
+     * Returns right away.
+     *
+     * @param effect
+     */
+    public void perform(Effect effect) {
+        mHandler.obtainMessage(MSG_PERFORM, effect).sendToTarget();
+    }
+
+    /**
+     * Drop any held effect and stop whatever is playing.
+     */
+    public void cancel() {
+        mHandler.sendEmptyMessage(MSG_CANCEL);
+    }
+
+    // =-=-=-= HAPTICS THREAD
+
+    private void onPerform(Effect effect) {
+        if (mVibrator == null || !mVibrator.hasVibrator()) {
+            return;
+        }
+        if (effect.equals(mHeldEffect)) {
+            // merges into the one already waiting
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        final long minInterval = effect.mMinIntervalMs >= 0 ? effect.mMinIntervalMs : mMinIntervalMs;
+        // a pattern still playing counts as just played, unless this effect may cut it short
+        final long busyUntil = effect.interrupts() ? 0 : mPlayingUntil;
+        final long playAt = Math.max(mLastPlayedAt + minInterval, busyUntil);
+        if (playAt <= now) {
+            mHandler.removeMessages(MSG_PLAY_HELD);
+            mHeldEffect = null;
+            play(effect);
+            return;
+        }
+
+        // supersedes whatever was held
+        mHeldEffect = effect;
+        mHandler.removeMessages(MSG_PLAY_HELD);
+        mHandler.sendEmptyMessageAtTime(MSG_PLAY_HELD, playAt);
+    }
+
+    private void play(Effect effect) {
+        final long now = SystemClock.uptimeMillis();
+        if (effect.interrupts() && mPlayingUntil > now) {
+            mVibrator.cancel();
+        }
+        try {
+            mVibrator.vibrate(effect.mPattern, -1);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Unable to vibrate", e);
+        }
+        mLastPlayedAt = now;
+        mPlayingUntil = now + effect.mDurationMs;
+    }
+}
@@ -1,18 +1,21 @@
 package com.aim.framework;
 
 import android.content.Context;
-import android.os.Vibrator;
 
 /**
  * Created by Administrator on 2/18/15.
  */
 public class HapticFeedbackUtils {
-    private static Vibrator sVibrator;
 
+    /**
+     * Give the default pulse. Returns right away; see {@link HapticFeedbackDispatcher}.
+     * @param context
+     */
     public static void provideHapticFeedback(Context context) {
-        if (sVibrator == null)
-            sVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        provideHapticFeedback(context, HapticFeedbackDispatcher.Effect.DEFAULT);
+    }
 
-        sVibrator.vibrate(50);
+    public static void provideHapticFeedback(Context context, HapticFeedbackDispatcher.Effect effect) {
+        HapticFeedbackDispatcher.getInstance(context).perform(effect);
     }
 }
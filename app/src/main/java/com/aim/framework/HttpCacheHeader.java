@@ -0,0 +1,45 @@
+package com.aim.framework;
+
+import com.google.api.client.util.Key;
+
+import java.util.Map;
+
+/**
+ * Everything about a cached HTTP response except its body. {@link VolleyCacheAdapter} stores it at
+ * the head of the body's blob, so the two are always evicted together, and it can be read without
+ * the body, see {@link VolleyCacheAdapter#getHeader(String)}.
+ */
+public class HttpCacheHeader {
+
+    @Key
+    public String etag;
+
+    @Key
+    public long serverDate;
+
+    @Key
+    public long ttl;
+
+    @Key
+    public long softTtl;
+
+    @Key
+    public Map<String, String> responseHeaders;
+
+    /** Length of the body that follows the header, used to detect bodies that were cut short. */
+    @Key
+    public long dataLength;
+
+    public HttpCacheHeader() {
+    }
+
+    /** Same as Volley's Cache.Entry#isExpired(). */
+    public boolean isExpired() {
+        return ttl < System.currentTimeMillis();
+    }
+
+    /** Same as Volley's Cache.Entry#refreshNeeded(). */
+    public boolean refreshNeeded() {
+        return softTtl < System.currentTimeMillis();
+    }
+}
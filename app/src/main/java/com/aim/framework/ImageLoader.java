@@ -0,0 +1,316 @@
+package com.aim.framework;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Loads thumbnails into list rows.
+ *
+ * Bytes come through {@link NetworkManager}'s request queue, whose disk cache is our own cache
+ * storage (see {@link VolleyCacheAdapter}), and identical urls are coalesced. They are decoded one
+ * at a time on a background thread, downsampled to the target size and, where possible, into a
+ * bitmap from a {@link BitmapPool}. Decoded bitmaps are kept in a memory LRU bounded by bytes.
+ *
+ * A bitmap goes back to the pool only once it has left the memory cache and no view loaded through
+ * here shows it anymore, so reusing it can never corrupt a visible image. That relies on rows
+ * calling {@link #cancel(ImageView)} when they are recycled, as {@link ThumbnailViewHolder} does.
+ *
+ * Main thread only.
+ */
+public class ImageLoader {
+    private static final String TAG = ImageLoader.class.getSimpleName();
+
+    /** Fraction of the app's memory class given to the memory cache, and again to the pool. */
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+    private static final int BITMAP_POOL_DIVISOR = 16;
+    private static final int DECODE_EXECUTOR_CAPACITY = 64;
+
+    private static ImageLoader sInstance;
+
+    private final Context mContext;
+    private final BitmapPool mBitmapPool;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    /** One decode at a time, so a fast fling does not hold many full-size buffers at once. */
+    private final TaskScheduler.SerialExecutor mDecodeExecutor =
+            TaskScheduler.newSerialExecutor(TaskScheduler.Lane.USER_VISIBLE, DECODE_EXECUTOR_CAPACITY);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Loads only hold their view weakly, so a view that is never cancelled can still go. */
+    private final WeakHashMap<ImageView, Load> mLoadsByView = new WeakHashMap<>();
+    /** The memory cache's values, kept alongside it so release need not copy the cache. */
+    private final Set<Bitmap> mCachedBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    /** How many views loaded through here currently show each bitmap. */
+    private final IdentityHashMap<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<>();
+    private final WeakHashMap<ImageView, Bitmap> mDisplayedByView = new WeakHashMap<>();
+
+    private static final RequestCoalescer.ResponseParser<byte[]> BYTES_PARSER = new RequestCoalescer.ResponseParser<byte[]>() {
+        @Override
+        public byte[] parse(NetworkResponse response) {
+            return response.data;
+        }
+    };
+
+    /**
+     * One view's request for one image.
+     */
+    private class Load implements RequestCoalescer.Callback<byte[]> {
+        private final WeakReference<ImageView> mView;
+        private final String mCacheKey;
+        private final int mTargetWidth;
+        private final int mTargetHeight;
+        private RequestCoalescer.Ticket mTicket;
+        private TaskScheduler.Task mDecodeTask;
+        private volatile boolean mCancelled;
+
+        private Load(ImageView view, String cacheKey, int targetWidth, int targetHeight) {
+            mView = new WeakReference<>(view);
+            mCacheKey = cacheKey;
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+        }
+
+        private void cancel() {
+            mCancelled = true;
+            if (mTicket != null) {
+                mTicket.cancel();
+            }
+            if (mDecodeTask != null) {
+                mDecodeTask.cancel();
+            }
+        }
+
+        @Override
+        public void onResponse(final byte[] data) {
+            if (mCancelled) {
+                return;
+            }
+            if (mDecodeTask != null) {
+                // a refreshed response replaces the one still waiting to be decoded
+                mDecodeTask.cancel();
+            }
+            try {
+                mDecodeTask = mDecodeExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCancelled) {
+                            return;
+                        }
+                        final Bitmap bitmap = decode(data, mTargetWidth, mTargetHeight);
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onDecoded(Load.this, bitmap);
+                            }
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "Too many images waiting to be decoded, dropped " + mCacheKey, e);
+                finish();
+            }
+        }
+
+        @Override
+        public void onError(VolleyError error) {
+            Log.e(TAG, "Unable to load image " + mCacheKey, error);
+            finish();
+        }
+
+        /**
+         * Forget this load if its view is still waiting on it.
+         */
+        private void finish() {
+            final ImageView view = mView.get();
+            if (view != null && mLoadsByView.get(view) == this) {
+                mLoadsByView.remove(view);
+            }
+        }
+    }
+
+    /**
+     * Get the loader shared by the app.
+     * @param context
+     * @return
+     */
+    public static ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context);
+        }
+        return sInstance;
+    }
+
+    private ImageLoader(Context context) {
+        mContext = context.getApplicationContext();
+        final ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        final long appBytes = am.getMemoryClass() * 1024L * 1024L;
+        mBitmapPool = new BitmapPool(appBytes / BITMAP_POOL_DIVISOR);
+        mMemoryCache = new LruCache<String, Bitmap>((int) (appBytes / MEMORY_CACHE_DIVISOR)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapPool.getSize(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue == newValue) {
+                    return;
+                }
+                mCachedBitmaps.remove(oldValue);
+                if (!mDisplayCounts.containsKey(oldValue)) {
+                    mBitmapPool.put(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the image at the url in the view, replacing whatever this view was loading before.
+     *
+     * @param url
+     * @param view
+     * @param targetWidth size the image is shown at; it is downsampled to no less than this
+     * @param targetHeight
+     */
+    public void load(String url, ImageView view, int targetWidth, int targetHeight) {
+        cancel(view);
+        final String cacheKey = url + '@' + targetWidth + 'x' + targetHeight;
+        final Bitmap cached = mMemoryCache.get(cacheKey);
+        if (cached != null) {
+            display(view, cached);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        final Load load = new Load(view, cacheKey, targetWidth, targetHeight);
+        mLoadsByView.put(view, load);
+        load.mTicket = NetworkManager.getRequestCoalescer(mContext).get(url, BYTES_PARSER, load);
+    }
+
+    /**
+     * Stop loading into the view and release the bitmap it shows. Call when the row is recycled.
+     *
+     * @param view
+     */
+    public void cancel(ImageView view) {
+        final Load load = mLoadsByView.remove(view);
+        if (load != null) {
+            load.cancel();
+        }
+        release(view);
+    }
+
+    /**
+     * Drop the memory cache and the pool, e.g. from onTrimMemory.
+     */
+    public void clearMemory() {
+        mMemoryCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    private void onDecoded(Load load, Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        // displayed first, so caching it can never send it straight to the pool
+        final ImageView view = load.mView.get();
+        if (!load.mCancelled && view != null && mLoadsByView.get(view) == load) {
+            mLoadsByView.remove(view);
+            display(view, bitmap);
+        }
+        // tracked before it goes in, as a bitmap too large for the cache is evicted right away
+        mCachedBitmaps.add(bitmap);
+        mMemoryCache.put(load.mCacheKey, bitmap);
+    }
+
+    private void display(ImageView view, Bitmap bitmap) {
+        release(view);
+        view.setImageBitmap(bitmap);
+        mDisplayedByView.put(view, bitmap);
+        final Integer count = mDisplayCounts.get(bitmap);
+        mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    private void release(ImageView view) {
+        final Bitmap bitmap = mDisplayedByView.remove(view);
+        if (bitmap == null) {
+            return;
+        }
+        view.setImageDrawable(null);
+        final Integer count = mDisplayCounts.get(bitmap);
+        if (count != null && count > 1) {
+            mDisplayCounts.put(bitmap, count - 1);
+            return;
+        }
+        mDisplayCounts.remove(bitmap);
+        // still cached: it goes to the pool if and when it is evicted
+        if (!mCachedBitmaps.contains(bitmap)) {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    // =-=-=-= DECODE THREAD
+
+    private Bitmap decode(byte[] data, int targetWidth, int targetHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(TAG, "Unable to read image bounds");
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = mBitmapPool.get(
+                divideRoundingUp(options.outWidth, options.inSampleSize),
+                divideRoundingUp(options.outHeight, options.inSampleSize),
+                options.inSampleSize, options.inPreferredConfig);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap did not fit after all
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Largest power of two that keeps both sides at or above the target.
+     */
+    static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? (value + divisor - 1) / divisor
+                : value / divisor;
+    }
+}
@@ -19,4 +19,25 @@ public interface ItemDragAnimator {
      * @param holder
      */
     public void animateReturnToHome(DraggableAndMultiSelectableRecyclerView.ViewHolder holder);
+
+    /**
+     * Optional hooks for an {@link ItemDragAnimator} that keeps state on the item's view between
+     * frames, e.g. a hardware layer. The view only calls them on animators that implement this too.
+     */
+    public interface DragLifecycle {
+        /**
+         * Called once when a drag of the given item starts, before the first
+         * {@link ItemDragAnimator#transformDraggingItem}. A good place to promote the item to a hardware layer and to
+         * cancel a return animation that is still running.
+         * @param holder
+         */
+        public void onDragStart(DraggableAndMultiSelectableRecyclerView.ViewHolder holder);
+
+        /**
+         * Called when the item's view is recycled, possibly mid-animation or after a delete. Undo
+         * anything that would otherwise leak into the view's next binding (translation, layers, ...).
+         * @param holder
+         */
+        public void onItemRecycled(DraggableAndMultiSelectableRecyclerView.ViewHolder holder);
+    }
 }
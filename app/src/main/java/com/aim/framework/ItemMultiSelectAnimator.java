@@ -1,7 +1,5 @@
 package com.aim.framework;
 
-import java.util.List;
-
 /**
  * Created by dhull on /18/15.
  */
@@ -10,5 +8,9 @@ public interface ItemMultiSelectAnimator {
 
     public void animateItemUnchecked(DraggableAndMultiSelectableRecyclerView.ViewHolder holder);
 
-    public void onActionModeReset(List<Integer> selectedPositions);
+    /**
+     * @param selectedPositions positions that were still selected when action mode ended; the
+     *                          cursor is only valid for the duration of this call
+     */
+    public void onActionModeReset(SelectionModel.Cursor selectedPositions);
 }
@@ -0,0 +1,216 @@
+package com.aim.framework;
+
+import android.graphics.Canvas;
+import android.support.v7.widget.RecyclerView;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ * Long-press drag-to-reorder for {@link DraggableAndMultiSelectableRecyclerView}. The held row
+ * follows the finger; whenever its center crosses the middle of a neighbour the adapter moves the
+ * item (see {@link DraggableAndMultiSelectableRecyclerView.Adapter#onMoveItem}), so the list
+ * reflows while dragging. Near the top and bottom edges the list auto-scrolls, faster the closer
+ * the finger gets to the edge.
+ *
+ * Since every move is of the same item, the whole drag is reported once, on drop, as a single
+ * move from where the item started to where it ended up.
+ *
+ * Also an item decoration, so the row's offset is re-applied on every draw and wins over the item
+ * animator animating the row's own moves.
+ */
+class ItemReorderController extends RecyclerView.ItemDecoration implements Runnable {
+    private static final float AUTO_SCROLL_EDGE_DP = 64;
+    private static final float AUTO_SCROLL_MAX_DP_PER_FRAME = 20;
+    private static final long SETTLE_DURATION_MS = 150;
+
+    private final DraggableAndMultiSelectableRecyclerView mRecyclerView;
+    private final float mTouchSlop;
+    private final float mAutoScrollEdge;
+    private final float mAutoScrollMaxStep;
+
+    private DraggableAndMultiSelectableRecyclerView.ViewHolder mHolder;
+    private int mStartPosition;
+    private int mCurrentPosition;
+    private float mDownY;
+    private float mTouchY;
+    /** Distance from the row's top to the finger when it was picked up. */
+    private float mGrabOffsetY;
+    private boolean mMoved;
+    /** Set after a move until the next draw, since positions and tops are stale until relayout. */
+    private boolean mAwaitingLayout;
+    private boolean mAutoScrollPosted;
+
+    ItemReorderController(DraggableAndMultiSelectableRecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+        mTouchSlop = ViewConfiguration.get(recyclerView.getContext()).getScaledTouchSlop();
+        final float density = recyclerView.getResources().getDisplayMetrics().density;
+        mAutoScrollEdge = AUTO_SCROLL_EDGE_DP * density;
+        mAutoScrollMaxStep = AUTO_SCROLL_MAX_DP_PER_FRAME * density;
+    }
+
+    boolean isActive() {
+        return mHolder != null;
+    }
+
+    /**
+     * Pick up the given row.
+     *
+     * @return false if the row has no position to move from
+     */
+    boolean start(DraggableAndMultiSelectableRecyclerView.ViewHolder holder, MotionEvent e) {
+        final int position = holder.getPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return false;
+        }
+        mHolder = holder;
+        mStartPosition = position;
+        mCurrentPosition = position;
+        mDownY = e.getY();
+        mTouchY = mDownY;
+        mGrabOffsetY = mDownY - holder.itemView.getTop();
+        mMoved = false;
+        mAwaitingLayout = false;
+
+        holder.itemView.animate().cancel();
+        // the row travels with the finger, so it must not be recycled when its old spot scrolls away
+        holder.setIsRecyclable(false);
+        mRecyclerView.setCardState(holder, DraggableAndMultiSelectableRecyclerView.CardState.HOLDING);
+        return true;
+    }
+
+    void onTouchEvent(MotionEvent e) {
+        if (mHolder == null) {
+            return;
+        }
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_MOVE:
+                mTouchY = e.getY();
+                if (!mMoved && Math.abs(mTouchY - mDownY) > mTouchSlop) {
+                    mMoved = true;
+                    mRecyclerView.setCardState(mHolder, DraggableAndMultiSelectableRecyclerView.CardState.SWIPING);
+                }
+                if (mMoved) {
+                    update();
+                    if (!mAutoScrollPosted && getAutoScrollStep() != 0) {
+                        mAutoScrollPosted = true;
+                        mRecyclerView.postOnAnimation(this);
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                finish(e.getActionMasked() == MotionEvent.ACTION_UP);
+                break;
+        }
+    }
+
+    /** Auto-scroll frame. */
+    @Override
+    public void run() {
+        mAutoScrollPosted = false;
+        if (mHolder == null) {
+            return;
+        }
+        final int step = getAutoScrollStep();
+        if (step == 0) {
+            return;
+        }
+        mRecyclerView.scrollBy(0, step);
+        update();
+        mAutoScrollPosted = true;
+        mRecyclerView.postOnAnimation(this);
+    }
+
+    @Override
+    public void onDraw(Canvas c, RecyclerView parent) {
+        mAwaitingLayout = false;
+        if (mHolder != null && mMoved) {
+            applyTranslation();
+        }
+    }
+
+    private void update() {
+        applyTranslation();
+        if (!mAwaitingLayout) {
+            moveIfCrossedNeighbour();
+        }
+    }
+
+    private void applyTranslation() {
+        final View view = mHolder.itemView;
+        final float maxTop = mRecyclerView.getHeight() - view.getHeight();
+        final float top = Math.max(0, Math.min(maxTop, mTouchY - mGrabOffsetY));
+        view.setTranslationY(top - view.getTop());
+    }
+
+    /**
+     * Move the item past the neighbour whose middle the dragged row's center has crossed, if any.
+     */
+    private void moveIfCrossedNeighbour() {
+        final View dragged = mHolder.itemView;
+        final float center = dragged.getTop() + dragged.getTranslationY() + dragged.getHeight() / 2f;
+        int target = RecyclerView.NO_POSITION;
+        for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+            final View child = mRecyclerView.getChildAt(i);
+            if (child == dragged) {
+                continue;
+            }
+            final int position = mRecyclerView.getChildPosition(child);
+            if (position == RecyclerView.NO_POSITION) {
+                continue;
+            }
+            final float middle = (child.getTop() + child.getBottom()) / 2f;
+            // furthest crossed neighbour in the direction of travel
+            if (position > mCurrentPosition && center > middle && (target == RecyclerView.NO_POSITION || position > target)) {
+                target = position;
+            } else if (position < mCurrentPosition && center < middle && (target == RecyclerView.NO_POSITION || position < target)) {
+                target = position;
+            }
+        }
+        if (target == RecyclerView.NO_POSITION) {
+            return;
+        }
+        final DraggableAndMultiSelectableRecyclerView.Adapter<?> adapter =
+                (DraggableAndMultiSelectableRecyclerView.Adapter<?>) mRecyclerView.getAdapter();
+        if (adapter.onMoveItem(mCurrentPosition, target)) {
+            mCurrentPosition = target;
+            mAwaitingLayout = true;
+        }
+    }
+
+    /**
+     * @return pixels to scroll this frame: negative near the top edge, positive near the bottom
+     */
+    private int getAutoScrollStep() {
+        final float height = mRecyclerView.getHeight();
+        if (mTouchY < mAutoScrollEdge) {
+            final float depth = Math.min(1f, (mAutoScrollEdge - mTouchY) / mAutoScrollEdge);
+            return -(int) Math.ceil(depth * mAutoScrollMaxStep);
+        } else if (mTouchY > height - mAutoScrollEdge) {
+            final float depth = Math.min(1f, (mTouchY - (height - mAutoScrollEdge)) / mAutoScrollEdge);
+            return (int) Math.ceil(depth * mAutoScrollMaxStep);
+        }
+        return 0;
+    }
+
+    private void finish(boolean released) {
+        final DraggableAndMultiSelectableRecyclerView.ViewHolder holder = mHolder;
+        mHolder = null;
+        mRecyclerView.removeCallbacks(this);
+        mAutoScrollPosted = false;
+
+        holder.itemView.animate().translationY(0).setDuration(SETTLE_DURATION_MS).start();
+        holder.setIsRecyclable(true);
+        mRecyclerView.setCardState(holder, DraggableAndMultiSelectableRecyclerView.CardState.IDLE);
+
+        if (!mMoved) {
+            // a long press that never moved is still a long press
+            if (released) {
+                mRecyclerView.onLongPressWithoutReorder(holder.itemView);
+            }
+        } else if (mCurrentPosition != mStartPosition) {
+            mRecyclerView.onItemReordered(mStartPosition, mCurrentPosition);
+        }
+    }
+}
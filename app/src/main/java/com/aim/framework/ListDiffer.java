@@ -0,0 +1,336 @@
+package com.aim.framework;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Computes the adapter notifications that turn one list into another, so that only the rows that
+ * actually changed are rebound and item animations keep running.
+ *
+ * Items are matched by id with Myers' O((N+M)D) algorithm after trimming the common prefix and
+ * suffix. Items that are present in both lists but fall outside the longest common subsequence are
+ * reported as moves; matched items whose contents differ are reported as changes. Consecutive
+ * operations of the same kind are coalesced into ranges.
+ *
+ * Meant to run off the main thread: it only reads the two lists and the {@link ItemCallback}.
+ */
+public class ListDiffer {
+
+    /**
+     * Beyond this many edits the O(D^2) trace gets too large and a full refresh is cheaper anyway.
+     */
+    private static final int MAX_EDIT_DISTANCE = 1000;
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_CHANGE = 3;
+
+    public interface ItemCallback<E> {
+        /**
+         * @return an id that identifies the item across lists (and doubles as its stable id)
+         */
+        long getItemId(E item);
+
+        /**
+         * @return false if a row showing oldItem needs to be rebound to show newItem
+         */
+        boolean areContentsTheSame(E oldItem, E newItem);
+    }
+
+    /**
+     * The notifications for one diff, in the order they must be dispatched.
+     */
+    public static class Result {
+        private final int[] mOps;
+        private final int mOpCount;
+        private final boolean mFullRefresh;
+
+        private Result(int[] ops, int opCount, boolean fullRefresh) {
+            mOps = ops;
+            mOpCount = opCount;
+            mFullRefresh = fullRefresh;
+        }
+
+        /**
+         * @return true if the lists were too different to diff and a full refresh will be sent
+         */
+        public boolean isFullRefresh() {
+            return mFullRefresh;
+        }
+
+        /**
+         * Must be called on the main thread, right after the adapter switched to the new list.
+         *
+         * @param adapter
+         */
+        public void dispatchTo(RecyclerView.Adapter<?> adapter) {
+            if (mFullRefresh) {
+                adapter.notifyDataSetChanged();
+                return;
+            }
+            for (int i = 0; i < mOpCount; i += 3) {
+                final int a = mOps[i + 1];
+                final int b = mOps[i + 2];
+                switch (mOps[i]) {
+                    case OP_REMOVE:
+                        adapter.notifyItemRangeRemoved(a, b);
+                        break;
+                    case OP_INSERT:
+                        adapter.notifyItemRangeInserted(a, b);
+                        break;
+                    case OP_MOVE:
+                        adapter.notifyItemMoved(a, b);
+                        break;
+                    case OP_CHANGE:
+                        adapter.notifyItemRangeChanged(a, b);
+                        break;
+                }
+            }
+        }
+    }
+
+    public static <E> Result diff(List<E> oldList, List<E> newList, ItemCallback<E> callback) {
+        final int oldSize = oldList.size();
+        final int newSize = newList.size();
+        final long[] oldIds = new long[oldSize];
+        final long[] newIds = new long[newSize];
+        for (int i = 0; i < oldSize; i++) {
+            oldIds[i] = callback.getItemId(oldList.get(i));
+        }
+        for (int i = 0; i < newSize; i++) {
+            newIds[i] = callback.getItemId(newList.get(i));
+        }
+
+        // oldToNew[i] is the new index of old item i, or -1 if it was removed; newToOld likewise
+        final int[] oldToNew = new int[oldSize];
+        final int[] newToOld = new int[newSize];
+        for (int i = 0; i < oldSize; i++) {
+            oldToNew[i] = -1;
+        }
+        for (int i = 0; i < newSize; i++) {
+            newToOld[i] = -1;
+        }
+
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && oldIds[prefix] == newIds[prefix]) {
+            oldToNew[prefix] = prefix;
+            newToOld[prefix] = prefix;
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && oldIds[oldSize - 1 - suffix] == newIds[newSize - 1 - suffix]) {
+            oldToNew[oldSize - 1 - suffix] = newSize - 1 - suffix;
+            newToOld[newSize - 1 - suffix] = oldSize - 1 - suffix;
+            suffix++;
+        }
+
+        if (!matchMiddle(oldIds, newIds, prefix, oldSize - suffix, prefix, newSize - suffix, oldToNew, newToOld)) {
+            return new Result(null, 0, true);
+        }
+        pairMoves(oldIds, newIds, oldToNew, newToOld);
+
+        final OpBuffer ops = new OpBuffer();
+
+        // removals back to front, so earlier positions stay valid
+        final int[] shadow = new int[oldSize + newSize];
+        int shadowSize = 0;
+        for (int i = oldSize - 1; i >= 0; i--) {
+            if (oldToNew[i] == -1) {
+                ops.addCoalescedRemove(i);
+            }
+        }
+        for (int i = 0; i < oldSize; i++) {
+            if (oldToNew[i] != -1) {
+                shadow[shadowSize++] = i;
+            }
+        }
+
+        // then walk the new list front to back: everything before j is already in its place
+        for (int j = 0; j < newSize; j++) {
+            final int oldIndex = newToOld[j];
+            if (oldIndex == -1) {
+                System.arraycopy(shadow, j, shadow, j + 1, shadowSize - j);
+                shadow[j] = -1;
+                shadowSize++;
+                ops.addCoalescedInsert(j);
+                continue;
+            }
+            int from = j;
+            while (shadow[from] != oldIndex) {
+                from++;
+            }
+            if (from != j) {
+                System.arraycopy(shadow, j, shadow, j + 1, from - j);
+                shadow[j] = oldIndex;
+                ops.add(OP_MOVE, from, j);
+            }
+        }
+
+        // changes last, when positions are final
+        for (int j = 0; j < newSize; j++) {
+            final int oldIndex = newToOld[j];
+            if (oldIndex != -1 && !callback.areContentsTheSame(oldList.get(oldIndex), newList.get(j))) {
+                ops.addCoalescedChange(j);
+            }
+        }
+
+        return new Result(ops.mOps, ops.mCount, false);
+    }
+
+    /**
+     * Myers' greedy forward search over old[oldStart, oldEnd) and new[newStart, newEnd), then a
+     * backtrack through the saved frontiers to mark the matched diagonals.
+     *
+     * @return false if the edit distance exceeds {@link #MAX_EDIT_DISTANCE}
+     */
+    private static boolean matchMiddle(long[] oldIds, long[] newIds, int oldStart, int oldEnd,
+                                       int newStart, int newEnd, int[] oldToNew, int[] newToOld) {
+        final int n = oldEnd - oldStart;
+        final int m = newEnd - newStart;
+        if (n == 0 || m == 0) {
+            return true;
+        }
+        final int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+        final int offset = max + 1;
+        final int[] v = new int[2 * max + 3];
+        final int[][] trace = new int[max + 1][];
+
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            // frontier as it was before this round, covering k in [-d-1, d+1]
+            final int[] snapshot = new int[2 * d + 3];
+            System.arraycopy(v, offset - d - 1, snapshot, 0, snapshot.length);
+            trace[d] = snapshot;
+
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && oldIds[oldStart + x] == newIds[newStart + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+
+        int x = n;
+        int y = m;
+        for (int d = found; d >= 0; d--) {
+            final int[] frontier = trace[d];
+            final int k = x - y;
+            final int prevK;
+            if (k == -d || (k != d && frontier[k - 1 + d + 1] < frontier[k + 1 + d + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            final int prevX = frontier[prevK + d + 1];
+            final int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                oldToNew[oldStart + x] = newStart + y;
+                newToOld[newStart + y] = oldStart + x;
+            }
+            if (d > 0) {
+                x = prevX;
+                y = prevY;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pair up unmatched items that appear in both lists; those moved rather than being removed
+     * and re-inserted.
+     */
+    private static void pairMoves(long[] oldIds, long[] newIds, int[] oldToNew, int[] newToOld) {
+        HashMap<Long, Integer> unmatchedOld = null;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldToNew[i] == -1) {
+                if (unmatchedOld == null) {
+                    unmatchedOld = new HashMap<>();
+                }
+                unmatchedOld.put(oldIds[i], i);
+            }
+        }
+        if (unmatchedOld == null) {
+            return;
+        }
+        for (int j = 0; j < newIds.length; j++) {
+            if (newToOld[j] == -1) {
+                final Integer oldIndex = unmatchedOld.remove(newIds[j]);
+                if (oldIndex != null) {
+                    oldToNew[oldIndex] = j;
+                    newToOld[j] = oldIndex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Growable array of (op, a, b) triples.
+     */
+    private static class OpBuffer {
+        private int[] mOps = new int[48];
+        private int mCount;
+
+        private void add(int op, int a, int b) {
+            if (mCount + 3 > mOps.length) {
+                final int[] grown = new int[mOps.length * 2];
+                System.arraycopy(mOps, 0, grown, 0, mCount);
+                mOps = grown;
+            }
+            mOps[mCount] = op;
+            mOps[mCount + 1] = a;
+            mOps[mCount + 2] = b;
+            mCount += 3;
+        }
+
+        private boolean lastIs(int op) {
+            return mCount > 0 && mOps[mCount - 3] == op;
+        }
+
+        /** Removals arrive back to front; extend the last range downwards. */
+        private void addCoalescedRemove(int position) {
+            if (lastIs(OP_REMOVE) && mOps[mCount - 2] == position + 1) {
+                mOps[mCount - 2] = position;
+                mOps[mCount - 1]++;
+            } else {
+                add(OP_REMOVE, position, 1);
+            }
+        }
+
+        private void addCoalescedInsert(int position) {
+            if (lastIs(OP_INSERT) && mOps[mCount - 2] + mOps[mCount - 1] == position) {
+                mOps[mCount - 1]++;
+            } else {
+                add(OP_INSERT, position, 1);
+            }
+        }
+
+        private void addCoalescedChange(int position) {
+            if (lastIs(OP_CHANGE) && mOps[mCount - 2] + mOps[mCount - 1] == position) {
+                mOps[mCount - 1]++;
+            } else {
+                add(OP_CHANGE, position, 1);
+            }
+        }
+    }
+}
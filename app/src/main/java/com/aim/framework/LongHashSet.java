@@ -0,0 +1,166 @@
+package com.aim.framework;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive longs (linear probing, backward-shift removal), so large
+ * id sets cost neither boxing nor per-entry objects. Not thread safe.
+ */
+public class LongHashSet {
+    private static final long FREE = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] mKeys;
+    private int mMask;
+    private int mResizeAt;
+    /** Entries in mKeys, not counting the free marker value itself. */
+    private int mSize;
+    /** The free marker can't live in the table, so it is tracked on the side. */
+    private boolean mContainsFreeKey;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return mSize + (mContainsFreeKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(long key) {
+        if (key == FREE) {
+            return mContainsFreeKey;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mMask) {
+            final long k = mKeys[i];
+            if (k == FREE) {
+                return false;
+            }
+            if (k == key) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the key was not already present
+     */
+    public boolean add(long key) {
+        if (key == FREE) {
+            final boolean added = !mContainsFreeKey;
+            mContainsFreeKey = true;
+            return added;
+        }
+        int i = slot(key);
+        for (long k = mKeys[i]; k != FREE; i = (i + 1) & mMask, k = mKeys[i]) {
+            if (k == key) {
+                return false;
+            }
+        }
+        mKeys[i] = key;
+        if (++mSize >= mResizeAt) {
+            rehash(mKeys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the key was present
+     */
+    public boolean remove(long key) {
+        if (key == FREE) {
+            final boolean removed = mContainsFreeKey;
+            mContainsFreeKey = false;
+            return removed;
+        }
+        int gap = slot(key);
+        for (long k = mKeys[gap]; k != key; gap = (gap + 1) & mMask, k = mKeys[gap]) {
+            if (k == FREE) {
+                return false;
+            }
+        }
+
+        // shift later members of the probe run back so lookups never stop at the hole early
+        for (int j = (gap + 1) & mMask; mKeys[j] != FREE; j = (j + 1) & mMask) {
+            final int ideal = slot(mKeys[j]);
+            final boolean reachableWithoutGap = gap <= j
+                    ? (gap < ideal && ideal <= j)
+                    : (gap < ideal || ideal <= j);
+            if (!reachableWithoutGap) {
+                mKeys[gap] = mKeys[j];
+                gap = j;
+            }
+        }
+        mKeys[gap] = FREE;
+        mSize--;
+        return true;
+    }
+
+    public void clear() {
+        if (mSize > 0) {
+            Arrays.fill(mKeys, FREE);
+        }
+        mSize = 0;
+        mContainsFreeKey = false;
+    }
+
+    /**
+     * @return a new array holding every key, in no particular order
+     */
+    public long[] toArray() {
+        final long[] result = new long[size()];
+        int n = 0;
+        if (mContainsFreeKey) {
+            result[n++] = FREE;
+        }
+        for (long k : mKeys) {
+            if (k != FREE) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    private int slot(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mMask;
+    }
+
+    private void rehash(int newCapacity) {
+        final long[] old = mKeys;
+        allocate(newCapacity);
+        mSize = 0;
+        for (long k : old) {
+            if (k != FREE) {
+                int i = slot(k);
+                while (mKeys[i] != FREE) {
+                    i = (i + 1) & mMask;
+                }
+                mKeys[i] = k;
+                mSize++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mMask = capacity - 1;
+        mResizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR <= expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -8,8 +8,17 @@ import java.util.List;
 public interface MultiSelectAdapter {
     boolean isPositionSelected(int position);
     boolean toggleSelection(int position);
+    void setRangeSelected(int start, int count, boolean selected);
+    void selectAll();
+    void invertSelection();
     void clearSelections();
     int getSelectedItemCount();
+
+    /**
+     * Boxes every selected position into a new list; prefer {@link #getSelectionModel()}'s cursor
+     * for large selections.
+     */
     List<Integer> getSelectedPositions();
-}
 
+    SelectionModel getSelectionModel();
+}
@@ -0,0 +1,61 @@
+package com.aim.framework;
+
+import com.google.api.client.util.Key;
+
+/**
+ * A single user change waiting to be sent to the server, as stored in a {@link MutationLog}.
+ * Payloads are expected to be full snapshots of the entity, so a later update can simply replace
+ * an earlier one. Immutable once made, since a mutation may sit in a batch being sent while the
+ * queue is compacted.
+ */
+public class Mutation implements CacheComposite {
+
+    public enum Operation {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    @Key
+    private long sequence;
+
+    @Key
+    private String entityKey;
+
+    @Key
+    private String operation;
+
+    @Key
+    private String payload;
+
+    public Mutation() {
+    }
+
+    Mutation(long sequence, String entityKey, Operation operation, String payload) {
+        this.sequence = sequence;
+        this.entityKey = entityKey;
+        this.operation = operation.name();
+        this.payload = payload;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getEntityKey() {
+        return entityKey;
+    }
+
+    public Operation getOperation() {
+        return Operation.valueOf(operation);
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "Mutation{" + sequence + ", " + operation + " " + entityKey + "}";
+    }
+}
@@ -0,0 +1,21 @@
+package com.aim.framework;
+
+import com.google.api.client.util.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisted form of a {@link MutationQueue}: pending mutations in the order they were made.
+ */
+public class MutationLog implements CacheComposite {
+
+    @Key
+    public List<Mutation> mutations = new ArrayList<>();
+
+    @Key
+    public long nextSequence;
+
+    public MutationLog() {
+    }
+}
@@ -0,0 +1,399 @@
+package com.aim.framework;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Durable log of user changes (e.g. swipe-to-delete) that still have to reach the server.
+ *
+ * {@link #enqueue} only appends to memory and leaves the write to a background lane, so it is cheap
+ * enough for the UI path. While started, the queue replays the log through a {@link MutationSender}
+ * whenever there is a connection: oldest first, in batches, one batch at a time so that mutations
+ * of the same entity are applied in order. Failed batches are retried with exponential backoff.
+ * Before each batch, redundant mutations of the same entity are compacted (an update followed by a
+ * delete only sends the delete, a create followed by a delete sends nothing).
+ *
+ * The log is stored in the session partition of the cache, so signing out discards whatever was
+ * not sent yet. That is deliberate: replaying a signed-out user's changes under the next user's
+ * session would be worse than losing them.
+ */
+public class MutationQueue {
+    private static final String TAG = MutationQueue.class.getSimpleName();
+
+    private static final String CACHE_KEY_PREFIX = "mutation_queue:";
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long REPLAY_DELAY_MS = 1000;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    private static final long NOT_YET_NUMBERED = -1;
+
+    private final Context mContext;
+    private final String mCacheKey;
+    private final MutationSender mSender;
+    private final BlobCache mCache;
+    /**
+     * Unbounded: persists and replays are coalesced, so few tasks ever wait, and dropping one
+     * would leave the log unsaved or unsent.
+     */
+    private final TaskScheduler.SerialExecutor mExecutor =
+            TaskScheduler.newSerialExecutor(TaskScheduler.Lane.BACKGROUND, TaskScheduler.UNBOUNDED_CAPACITY);
+
+    private final Object mLock = new Object();
+    // guarded by mLock
+    private final List<Mutation> mPending = new ArrayList<>();
+    private long mNextSequence;
+    private boolean mLoaded;
+    private boolean mPersistScheduled;
+    private TaskScheduler.Task mScheduledReplay;
+    /** A batch failed and the scheduled replay is its retry, which new mutations must not hurry. */
+    private boolean mBackingOff;
+    private boolean mStarted;
+
+    // executor only
+    private long mBackoffMs = INITIAL_BACKOFF_MS;
+
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isConnected()) {
+                // a new connection is a better signal than whatever backoff we were in
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBackoffMs = INITIAL_BACKOFF_MS;
+                    }
+                });
+                synchronized (mLock) {
+                    mBackingOff = false;
+                }
+                scheduleReplay(0);
+            }
+        }
+    };
+
+    private final Runnable mPersistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            persist();
+        }
+    };
+
+    private final Runnable mReplayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    /**
+     * Maps the items a producer works on to the entities their mutations are about.
+     */
+    public interface EntityKeys<E> {
+        String getEntityKey(E item);
+    }
+
+    /**
+     * @param context
+     * @param name distinguishes this queue's log from other queues' in the cache
+     * @param sender
+     */
+    public MutationQueue(Context context, String name, MutationSender sender) {
+        this(context, name, sender, CacheManager.getCache(context));
+    }
+
+    /**
+     * @param context
+     * @param name distinguishes this queue's log from other queues' in the cache
+     * @param sender
+     * @param cache where the log is kept
+     */
+    MutationQueue(Context context, String name, MutationSender sender, BlobCache cache) {
+        mContext = context.getApplicationContext();
+        mCacheKey = CACHE_KEY_PREFIX + name;
+        mSender = sender;
+        mCache = cache;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    public void setBatchSize(int batchSize) {
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Record a mutation. Safe to call from any thread; does no I/O on the calling thread.
+     *
+     * @param entityKey identifies the entity being changed
+     * @param operation
+     * @param payload full snapshot of the entity, may be null for deletes
+     */
+    public void enqueue(String entityKey, Mutation.Operation operation, String payload) {
+        final boolean replay;
+        synchronized (mLock) {
+            final long sequence = mLoaded ? mNextSequence++ : NOT_YET_NUMBERED;
+            mPending.add(new Mutation(sequence, entityKey, operation, payload));
+            schedulePersistLocked();
+            // while backing off, the retry picks this up too
+            replay = mStarted && !mBackingOff;
+        }
+        if (replay) {
+            scheduleReplay(REPLAY_DELAY_MS);
+        }
+    }
+
+    /**
+     * A {@link DeferredDeleteController.Committer} that records each committed deletion here, in
+     * the order the rows were deleted, so swipe-to-delete reaches the server through this queue.
+     *
+     * @param keys
+     * @return
+     */
+    public <E> DeferredDeleteController.Committer<E> newDeleteCommitter(final EntityKeys<E> keys) {
+        return new DeferredDeleteController.Committer<E>() {
+            @Override
+            public void commitDeletes(List<E> items) {
+                for (E item : items) {
+                    enqueue(keys.getEntityKey(item), Mutation.Operation.DELETE, null);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the number of mutations not yet acknowledged by the server
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Start replaying the log whenever a connection is available.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+        }
+        mContext.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        scheduleReplay(0);
+    }
+
+    /**
+     * Stop replaying. Mutations keep being recorded and persisted.
+     */
+    public void stop() {
+        synchronized (mLock) {
+            if (!mStarted) {
+                return;
+            }
+            mStarted = false;
+            if (mScheduledReplay != null) {
+                mScheduledReplay.cancel();
+                mScheduledReplay = null;
+            }
+        }
+        mContext.unregisterReceiver(mConnectivityReceiver);
+    }
+
+    private void schedulePersistLocked() {
+        if (mLoaded && !mPersistScheduled) {
+            mPersistScheduled = true;
+            mExecutor.execute(mPersistRunnable);
+        }
+    }
+
+    /**
+     * Schedule a replay, keeping whichever of the new and the existing schedule is sooner.
+     */
+    private void scheduleReplay(long delayMs) {
+        synchronized (mLock) {
+            if (!mStarted) {
+                return;
+            }
+            if (mScheduledReplay != null && !mScheduledReplay.isDone()) {
+                if (mScheduledReplay.getDelayMillis() <= delayMs) {
+                    return;
+                }
+                mScheduledReplay.cancel();
+            }
+            mScheduledReplay = mExecutor.schedule(mReplayRunnable, delayMs);
+        }
+    }
+
+    // =-=-=-= EXECUTOR
+
+    private void load() {
+        final MutationLog log = mCache.get(mCacheKey, MutationLog.class);
+        synchronized (mLock) {
+            final List<Mutation> early = new ArrayList<>(mPending);
+            mPending.clear();
+            mNextSequence = 0;
+            if (log != null && log.mutations != null) {
+                mPending.addAll(log.mutations);
+                mNextSequence = log.nextSequence;
+            }
+            // anything enqueued before we got here goes after what was already on disk
+            for (Mutation mutation : early) {
+                mPending.add(new Mutation(mNextSequence++, mutation.getEntityKey(),
+                        mutation.getOperation(), mutation.getPayload()));
+            }
+            mLoaded = true;
+            if (!early.isEmpty()) {
+                schedulePersistLocked();
+            }
+        }
+    }
+
+    private void persist() {
+        final MutationLog log = new MutationLog();
+        synchronized (mLock) {
+            mPersistScheduled = false;
+            log.mutations.addAll(mPending);
+            log.nextSequence = mNextSequence;
+        }
+        mCache.put(mCacheKey, log);
+    }
+
+    private void replay() {
+        synchronized (mLock) {
+            // this run is under way, so a replay asked for from here on (the retry of a failed
+            // batch, or a mutation enqueued after the log looked empty) needs a task of its own
+            mScheduledReplay = null;
+        }
+        while (isConnected()) {
+            final List<Mutation> batch;
+            synchronized (mLock) {
+                if (!mLoaded || !mStarted) {
+                    return;
+                }
+                if (compactLocked()) {
+                    schedulePersistLocked();
+                }
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(mPending.subList(0, Math.min(mBatchSize, mPending.size())));
+            }
+
+            try {
+                mSender.sendBatch(batch);
+            } catch (IOException | RuntimeException e) {
+                // a sender bug must not end replay for good, retry it like any failure
+                Log.e(TAG, "Unable to send " + batch.size() + " mutations, retrying in " + mBackoffMs + "ms", e);
+                synchronized (mLock) {
+                    mBackingOff = true;
+                }
+                scheduleReplay(mBackoffMs);
+                mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+                return;
+            }
+            mBackoffMs = INITIAL_BACKOFF_MS;
+
+            synchronized (mLock) {
+                mBackingOff = false;
+                // only appends happen outside this thread, so the batch is still at the head
+                mPending.subList(0, batch.size()).clear();
+            }
+            persist();
+        }
+    }
+
+    /**
+     * @return true if compaction changed anything
+     */
+    private boolean compactLocked() {
+        final List<Mutation> compacted = compact(mPending);
+        if (compacted.size() == mPending.size()) {
+            return false;
+        }
+        mPending.clear();
+        mPending.addAll(compacted);
+        return true;
+    }
+
+    /**
+     * Collapse mutations of the same entity. A merged mutation takes the place of the later of the
+     * two, so it is never sent before anything it followed. Merges make new mutations rather than
+     * change existing ones, which may still be part of a batch or a log being written.
+     *
+     * @param pending oldest first
+     * @return the compacted mutations, oldest first; never longer than pending
+     */
+    static List<Mutation> compact(List<Mutation> pending) {
+        final int size = pending.size();
+        final List<Mutation> compacted = new ArrayList<>(size);
+        final HashMap<String, Integer> lastIndexByKey = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            final Mutation next = pending.get(i);
+            final Integer previousIndex = lastIndexByKey.get(next.getEntityKey());
+            if (previousIndex == null) {
+                lastIndexByKey.put(next.getEntityKey(), compacted.size());
+                compacted.add(next);
+                continue;
+            }
+
+            final Mutation previous = compacted.get(previousIndex);
+            final Mutation.Operation previousOp = previous.getOperation();
+            final Mutation.Operation nextOp = next.getOperation();
+
+            if (previousOp == Mutation.Operation.CREATE && nextOp == Mutation.Operation.DELETE) {
+                // never existed as far as the server is concerned
+                compacted.set(previousIndex, null);
+                lastIndexByKey.remove(next.getEntityKey());
+            } else if (previousOp == Mutation.Operation.CREATE && nextOp == Mutation.Operation.UPDATE) {
+                compacted.set(previousIndex, null);
+                lastIndexByKey.put(next.getEntityKey(), compacted.size());
+                compacted.add(new Mutation(next.getSequence(), next.getEntityKey(),
+                        Mutation.Operation.CREATE, next.getPayload()));
+            } else if (previousOp != Mutation.Operation.DELETE && nextOp != Mutation.Operation.CREATE) {
+                // update+update, update+delete: the later one wins
+                compacted.set(previousIndex, null);
+                lastIndexByKey.put(next.getEntityKey(), compacted.size());
+                compacted.add(next);
+            } else if (previousOp == Mutation.Operation.DELETE && nextOp == Mutation.Operation.DELETE) {
+                compacted.set(previousIndex, null);
+                lastIndexByKey.put(next.getEntityKey(), compacted.size());
+                compacted.add(next);
+            } else {
+                // e.g. delete then re-create; order matters, keep both
+                lastIndexByKey.put(next.getEntityKey(), compacted.size());
+                compacted.add(next);
+            }
+        }
+
+        final List<Mutation> result = new ArrayList<>(compacted.size());
+        for (Mutation mutation : compacted) {
+            if (mutation != null) {
+                result.add(mutation);
+            }
+        }
+        return result;
+    }
+
+    private boolean isConnected() {
+        final ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+}
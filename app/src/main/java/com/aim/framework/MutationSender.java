@@ -0,0 +1,21 @@
+package com.aim.framework;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delivers mutations to the server for a {@link MutationQueue}.
+ */
+public interface MutationSender {
+    /**
+     * Send a batch of mutations as one request. Called on the queue's worker thread, so blocking is
+     * fine. Mutations for the same entity appear in the order they must be applied.
+     *
+     * Throwing marks the whole batch for a retry. Mutations the server rejects for good should be
+     * dealt with here and not thrown, or they will be retried forever.
+     *
+     * @param batch
+     * @throws IOException if the batch should be retried later
+     */
+    void sendBatch(List<Mutation> batch) throws IOException;
+}
@@ -1,10 +1,8 @@
 package com.aim.framework;
 
-import android.app.Activity;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.app.ActionBar;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.FragmentManager;
 import android.content.Context;
 import android.os.Build;
 import android.os.Bundle;
@@ -20,7 +18,12 @@ import android.widget.TextView;
 
 
 public class NavigationActivity extends ActionBarActivity
-        implements NavigationDrawerFragment.NavigationDrawerCallbacks {
+        implements NavigationDrawerFragment.NavigationDrawerCallbacks, SectionHost.SectionFactory {
+
+    /**
+     * How many sections keep their fragment alive; older ones are rebuilt from saved state.
+     */
+    private static final int MAX_LIVE_SECTIONS = 2;
 
     /**
      * Fragment managing the behaviors, interactions and presentation of the navigation drawer.
@@ -32,8 +35,17 @@ public class NavigationActivity extends ActionBarActivity
      */
     private CharSequence mTitle;
 
+    /**
+     * Keeps recently visited sections alive so switching back to them does not rebuild them.
+     */
+    private SectionHost mSectionHost;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // the drawer selects a section as soon as it is created, which on restore is within
+        // super.onCreate
+        mSectionHost = new SectionHost(getSupportFragmentManager(), R.id.container, MAX_LIVE_SECTIONS, this);
+        mSectionHost.onRestoreInstanceState(savedInstanceState);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_navigation);
 
@@ -47,13 +59,22 @@ public class NavigationActivity extends ActionBarActivity
                 (DrawerLayout) findViewById(R.id.drawer_layout));
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        mSectionHost.onSaveInstanceState(outState);
+    }
+
     @Override
     public void onNavigationDrawerItemSelected(int position) {
-        // update the main content by replacing fragments
-        FragmentManager fragmentManager = getSupportFragmentManager();
-        fragmentManager.beginTransaction()
-                .replace(R.id.container, PlaceholderFragment.newInstance(position + 1))
-                .commit();
+        // update the main content by switching to the section's fragment
+        mSectionHost.showSection(position + 1);
+        onSectionAttached(position + 1);
+    }
+
+    @Override
+    public Fragment createSection(int section) {
+        return PlaceholderFragment.newInstance(section);
     }
 
     public void onSectionAttached(int number) {
@@ -137,13 +158,6 @@ public class NavigationActivity extends ActionBarActivity
             View rootView = inflater.inflate(R.layout.fragment_navigation, container, false);
             return rootView;
         }
-
-        @Override
-        public void onAttach(Activity activity) {
-            super.onAttach(activity);
-            ((NavigationActivity) activity).onSectionAttached(
-                    getArguments().getInt(ARG_SECTION_NUMBER));
-        }
     }
 
 }
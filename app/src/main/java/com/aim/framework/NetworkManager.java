@@ -0,0 +1,50 @@
+package com.aim.framework;
+
+import android.content.Context;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+
+/**
+ * Owns the single Volley {@link RequestQueue} shared by the app. Responses are cached through
+ * {@link CacheManager}'s cache rather than Volley's own disk cache.
+ */
+public class NetworkManager {
+
+    private static volatile RequestQueue sRequestQueue;
+    private static RequestCoalescer sRequestCoalescer;
+
+    /**
+     * Safely get the shared request queue
+     * @param context
+     * @return
+     */
+    public static RequestQueue getRequestQueue(Context context) {
+        if(sRequestQueue == null) {
+            synchronized (NetworkManager.class) {
+                if(sRequestQueue == null) {
+                    final RequestQueue queue = new RequestQueue(
+                            new VolleyCacheAdapter(CacheManager.getCache(context)),
+                            new BasicNetwork(new HurlStack()));
+                    queue.start();
+                    sRequestQueue = queue;
+                }
+            }
+        }
+        return sRequestQueue;
+    }
+
+    /**
+     * Get the coalescer shared by all screens so that their identical GETs are collapsed. Like the
+     * coalescer itself, this must be called from the main thread.
+     * @param context
+     * @return
+     */
+    public static RequestCoalescer getRequestCoalescer(Context context) {
+        if(sRequestCoalescer == null) {
+            sRequestCoalescer = new RequestCoalescer(getRequestQueue(context));
+        }
+        return sRequestCoalescer;
+    }
+}
@@ -0,0 +1,21 @@
+package com.aim.framework;
+
+import java.util.List;
+
+/**
+ * Supplies a large list one page at a time, for {@link PagedAdapter}. Both methods are called on a
+ * background thread.
+ */
+public interface PageSource<E> {
+    /**
+     * @return the total number of items, loaded or not
+     */
+    int getCount() throws Exception;
+
+    /**
+     * @param pageIndex
+     * @param pageSize
+     * @return the items of the page; may be shorter than pageSize only for the last page
+     */
+    List<E> loadPage(int pageIndex, int pageSize) throws Exception;
+}
@@ -0,0 +1,341 @@
+package com.aim.framework;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link DraggableAndMultiSelectableRecyclerView.Adapter} that streams a list of any size from a
+ * {@link PageSource}, keeping only the pages near the viewport in memory.
+ *
+ * Subclasses bind rows in {@link #onBindItem}, which gets null for rows whose page is not loaded
+ * yet; those bind as placeholders. Binding a row is what moves the window of loaded pages: pages
+ * are loaded on a background thread, up to a prefetch distance ahead in the direction the list is
+ * being scrolled, and rebound once they arrive. Pages further than the resident limit from the
+ * last bound row are dropped, so memory stays flat however long the list is. {@link #getItem(int)}
+ * has no such effect, so click handlers and the like may call it freely. A page that fails to load
+ * is retried with backoff while it is still near the viewport, and each failure is reported to
+ * {@link #onPageLoadFailed(int, Exception)}.
+ *
+ * Main thread only.
+ */
+public abstract class PagedAdapter<E, T extends DraggableAndMultiSelectableRecyclerView.ViewHolder>
+        extends DraggableAndMultiSelectableRecyclerView.Adapter<T> {
+    private static final String TAG = PagedAdapter.class.getSimpleName();
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_MAX_RESIDENT_PAGES = 8;
+
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final int MAX_RETRY_DELAY_SHIFT = 5;
+
+    private static final int PAGE_EXECUTOR_CAPACITY = 128;
+
+    /** Page sources need not be thread safe, so their loads never overlap. */
+    private static final TaskScheduler.SerialExecutor sPageExecutor =
+            TaskScheduler.newSerialExecutor(TaskScheduler.Lane.USER_VISIBLE, PAGE_EXECUTOR_CAPACITY);
+
+    private final PageSource<E> mSource;
+    private final int mPageSize;
+    private final Executor mPageExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final SparseArray<List<E>> mPages = new SparseArray<>();
+    /** Pages being loaded or waiting to be retried. */
+    private final SparseBooleanArray mLoadingPages = new SparseBooleanArray();
+    /** Consecutive failures per page, for the retry backoff. */
+    private final SparseIntArray mFailedAttempts = new SparseIntArray();
+    private int mCount;
+    /** Bumped by {@link #refresh()}, so loads started before it are dropped. */
+    private int mGeneration;
+
+    private int mPrefetchDistance;
+    private int mMaxResidentPages = DEFAULT_MAX_RESIDENT_PAGES;
+    private int mLastPosition;
+    /** Taken from the list's scrolling, see {@link #onListScrolled}. */
+    private boolean mScrollingForward = true;
+
+    protected PagedAdapter(PageSource<E> source) {
+        this(source, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param source
+     * @param pageSize items per page; also the default prefetch distance
+     */
+    protected PagedAdapter(PageSource<E> source, int pageSize) {
+        this(source, pageSize, sPageExecutor);
+    }
+
+    /**
+     * @param source
+     * @param pageSize items per page; also the default prefetch distance
+     * @param pageExecutor loads counts and pages, one at a time
+     */
+    PagedAdapter(PageSource<E> source, int pageSize, Executor pageExecutor) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize must be positive, but was " + pageSize);
+        mSource = source;
+        mPageSize = pageSize;
+        mPageExecutor = pageExecutor;
+        mPrefetchDistance = pageSize;
+        refresh();
+    }
+
+    /**
+     * @param prefetchDistance how many items past the last bound row, in the direction of the
+     *                         scroll, should be loaded ahead of time
+     */
+    public void setPrefetchDistance(int prefetchDistance) {
+        mPrefetchDistance = Math.max(0, prefetchDistance);
+    }
+
+    /**
+     * @param maxResidentPages how many pages to keep in memory; must cover a screenful plus the
+     *                         prefetch distance or pages will be dropped while still needed
+     */
+    public void setMaxResidentPages(int maxResidentPages) {
+        if (maxResidentPages < 2)
+            throw new IllegalArgumentException("maxResidentPages must be at least 2, but was " + maxResidentPages);
+        mMaxResidentPages = maxResidentPages;
+    }
+
+    /**
+     * Drop every loaded page and re-read the count, e.g. after the source's data changed.
+     */
+    public void refresh() {
+        final int generation = ++mGeneration;
+        mPages.clear();
+        mLoadingPages.clear();
+        mFailedAttempts.clear();
+        loadCount(generation);
+    }
+
+    private void loadCount(final int generation) {
+        try {
+            mPageExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int count;
+                    try {
+                        count = mSource.getCount();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Unable to count items of " + mSource, e);
+                        return;
+                    }
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) {
+                                mCount = count;
+                                notifyDataSetChanged();
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Too many page loads waiting, counting " + mSource + " later", e);
+            mMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation == mGeneration) {
+                        loadCount(generation);
+                    }
+                }
+            }, INITIAL_RETRY_DELAY_MS);
+        }
+    }
+
+    /**
+     * Has no effect on which pages are loaded, see {@link #onBindViewHolder}.
+     *
+     * @param position
+     * @return the item, or null if its page is not loaded yet
+     */
+    public E getItem(int position) {
+        final List<E> page = mPages.get(position / mPageSize);
+        final int indexInPage = position % mPageSize;
+        return page != null && indexInPage < page.size() ? page.get(indexInPage) : null;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCount;
+    }
+
+    /**
+     * Moves the window of loaded pages to the row, then binds it with {@link #onBindItem}.
+     * Partial binds do not move the window.
+     */
+    @Override
+    public void onBindViewHolder(T holder, int position) {
+        onPositionAccessed(position);
+        onBindItem(holder, position, getItem(position));
+    }
+
+    /**
+     * @param holder
+     * @param position
+     * @param item null if its page is not loaded yet: bind a placeholder, the row is rebound
+     *             when the page arrives
+     */
+    protected abstract void onBindItem(T holder, int position, E item);
+
+    /**
+     * Follow the direction the user scrolls in. Bind order is no guide: rows of a page that just
+     * arrived are rebound in the layout manager's fill order, which runs both ways from its anchor.
+     */
+    @Override
+    public void onListScrolled(int dx, int dy) {
+        if (dy != 0) {
+            mScrollingForward = dy > 0;
+        }
+    }
+
+    /**
+     * Load the row's page and the pages within the prefetch distance in the direction of travel,
+     * and drop pages that are now too far away.
+     *
+     * @param position the row being bound
+     */
+    void onPositionAccessed(int position) {
+        mLastPosition = position;
+
+        final int pageIndex = position / mPageSize;
+        ensurePageLoaded(pageIndex);
+
+        final int prefetchEnd = mScrollingForward
+                ? Math.min(position + mPrefetchDistance, mCount - 1)
+                : Math.max(position - mPrefetchDistance, 0);
+        final int prefetchPage = prefetchEnd / mPageSize;
+        final int step = mScrollingForward ? 1 : -1;
+        for (int page = pageIndex + step; page * step <= prefetchPage * step; page += step) {
+            ensurePageLoaded(page);
+        }
+
+        evictFarPages(pageIndex);
+    }
+
+    private void ensurePageLoaded(final int pageIndex) {
+        if (pageIndex < 0 || mPages.get(pageIndex) != null || mLoadingPages.get(pageIndex)) {
+            return;
+        }
+        mLoadingPages.put(pageIndex, true);
+        final int generation = mGeneration;
+        try {
+            loadPage(generation, pageIndex);
+        } catch (RejectedExecutionException e) {
+            // retried with backoff like a failed load
+            onPageFailed(generation, pageIndex, e);
+        }
+    }
+
+    private void loadPage(final int generation, final int pageIndex) {
+        mPageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<E> items = null;
+                Exception error = null;
+                try {
+                    items = mSource.loadPage(pageIndex, mPageSize);
+                } catch (Exception e) {
+                    Log.e(TAG, "Unable to load page " + pageIndex + " of " + mSource, e);
+                    error = e;
+                }
+                final List<E> loaded = items;
+                final Exception failure = error;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure != null) {
+                            onPageFailed(generation, pageIndex, failure);
+                        } else {
+                            onPageLoaded(generation, pageIndex, loaded);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int generation, int pageIndex, List<E> items) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mLoadingPages.delete(pageIndex);
+        mFailedAttempts.delete(pageIndex);
+        mPages.put(pageIndex, items);
+        final int start = pageIndex * mPageSize;
+        final int count = Math.min(mPageSize, mCount - start);
+        if (count > 0) {
+            notifyItemRangeChanged(start, count);
+        }
+        // the page may have arrived after the list moved on
+        evictFarPages(mLastPosition / mPageSize);
+    }
+
+    /**
+     * Keep the page marked as loading, so binds do not hammer a failing source, and load it again
+     * after a delay that doubles with every consecutive failure.
+     */
+    private void onPageFailed(final int generation, final int pageIndex, Exception e) {
+        if (generation != mGeneration) {
+            return;
+        }
+        final int attempts = mFailedAttempts.get(pageIndex) + 1;
+        mFailedAttempts.put(pageIndex, attempts);
+        onPageLoadFailed(pageIndex, e);
+
+        final long delayMs = INITIAL_RETRY_DELAY_MS << Math.min(attempts - 1, MAX_RETRY_DELAY_SHIFT);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mLoadingPages.delete(pageIndex);
+                // a page the list has moved away from is loaded again when it is next bound
+                if (Math.abs(pageIndex - mLastPosition / mPageSize) <= mMaxResidentPages / 2) {
+                    ensurePageLoaded(pageIndex);
+                }
+            }
+        }, delayMs);
+    }
+
+    /**
+     * Called on the main thread every time a page fails to load, e.g. to show an error row. The
+     * page is retried on its own.
+     *
+     * @param pageIndex
+     * @param e what the page source threw
+     */
+    protected void onPageLoadFailed(int pageIndex, Exception e) {
+    }
+
+    /**
+     * Keep the resident pages centered on the current page, biased towards the scroll direction.
+     */
+    private void evictFarPages(int currentPage) {
+        if (mPages.size() <= mMaxResidentPages) {
+            return;
+        }
+        final int ahead = mMaxResidentPages / 2;
+        final int behind = mMaxResidentPages - 1 - ahead;
+        final int first = mScrollingForward ? currentPage - behind : currentPage - ahead;
+        final int last = first + mMaxResidentPages - 1;
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            final int page = mPages.keyAt(i);
+            if (page < first || page > last) {
+                mPages.removeAt(i);
+            }
+        }
+    }
+}
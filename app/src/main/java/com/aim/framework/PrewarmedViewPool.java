@@ -0,0 +1,312 @@
+package com.aim.framework;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link RecyclerView.RecycledViewPool} shared by every list in an activity, that gets row views
+ * ready before they are needed so the first scroll does not stall on inflation.
+ *
+ * Declared view types are inflated on a background thread ahead of time; adapters pick those views
+ * up by inflating through {@link #obtainView(int, ViewGroup)} in onCreateViewHolder. Once a list is
+ * handed to {@link #prewarm(RecyclerView)}, holders are created from them while the main thread is
+ * idle, one per idle pass, and parked in the pool. Since the pool outlives any one list, holders
+ * survive navigating between fragments showing the same kinds of rows. A pool from
+ * {@link #forActivity(Activity)} is released when its activity is destroyed.
+ *
+ * Main thread only.
+ */
+public class PrewarmedViewPool extends RecyclerView.RecycledViewPool {
+    private static final String TAG = PrewarmedViewPool.class.getSimpleName();
+
+    private static final int INFLATE_EXECUTOR_CAPACITY = 64;
+
+    /** Serial, since every pool's background inflater is used from it. */
+    private static final TaskScheduler.SerialExecutor sInflateExecutor =
+            TaskScheduler.newSerialExecutor(TaskScheduler.Lane.UI_CRITICAL, INFLATE_EXECUTOR_CAPACITY);
+    /** Pools hold their activity through views and inflaters, so they are dropped on destroy. */
+    private static final HashMap<Activity, PrewarmedViewPool> sPools = new HashMap<>();
+    private static boolean sReleaseCallbacksRegistered;
+
+    private final Executor mInflateExecutor;
+    private final LayoutInflater mInflater;
+    /** LayoutInflater is not thread safe, so the inflate thread gets its own. */
+    private final LayoutInflater mBackgroundInflater;
+    private final SparseArray<ViewTypeSpec> mSpecs = new SparseArray<>();
+    /** Views inflated ahead of time, by layout resource. Filled from the inflate thread. */
+    private final SparseArray<ConcurrentLinkedQueue<View>> mInflatedViews = new SparseArray<>();
+
+    private RecyclerView mPrewarmTarget;
+    private boolean mIdleHandlerAdded;
+    /** Read from the inflate thread, so views inflated after release are not kept. */
+    private volatile boolean mReleased;
+
+    private static class ViewTypeSpec {
+        private final int mViewType;
+        private final int mLayoutResId;
+        private final int mPrewarmCount;
+        private int mPrewarmed;
+
+        private ViewTypeSpec(int viewType, int layoutResId, int prewarmCount) {
+            mViewType = viewType;
+            mLayoutResId = layoutResId;
+            mPrewarmCount = prewarmCount;
+        }
+    }
+
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            final boolean more = prewarmOne();
+            mIdleHandlerAdded = more;
+            return more;
+        }
+    };
+
+    /**
+     * @param activity
+     * @return the pool shared by every list in this activity
+     */
+    public static PrewarmedViewPool forActivity(Activity activity) {
+        PrewarmedViewPool pool = sPools.get(activity);
+        if (pool == null) {
+            if (!sReleaseCallbacksRegistered) {
+                sReleaseCallbacksRegistered = true;
+                activity.getApplication().registerActivityLifecycleCallbacks(new ReleaseOnDestroyCallbacks());
+            }
+            pool = new PrewarmedViewPool(activity);
+            sPools.put(activity, pool);
+        }
+        return pool;
+    }
+
+    public PrewarmedViewPool(Context context) {
+        this(context, sInflateExecutor);
+    }
+
+    /**
+     * @param context
+     * @param inflateExecutor inflates declared layouts ahead of time, one at a time
+     */
+    PrewarmedViewPool(Context context, Executor inflateExecutor) {
+        mInflateExecutor = inflateExecutor;
+        mInflater = LayoutInflater.from(context);
+        mBackgroundInflater = mInflater.cloneInContext(context);
+    }
+
+    /**
+     * Declare a row type. Its layout is inflated in the background once a list is prewarmed.
+     *
+     * @param viewType the adapter's view type
+     * @param layoutResId the layout onCreateViewHolder inflates for it
+     * @param maxRecycled how many unused holders of this type the pool keeps
+     * @param prewarmCount how many holders to have ready before the list first scrolls, typically
+     *                     a screenful plus a couple
+     */
+    public void declareViewType(int viewType, int layoutResId, int maxRecycled, int prewarmCount) {
+        if (prewarmCount > maxRecycled)
+            throw new IllegalArgumentException("Cannot prewarm more holders (" + prewarmCount + ") than the pool keeps (" + maxRecycled + ")");
+        setMaxRecycledViews(viewType, maxRecycled);
+        final ViewTypeSpec previous = mSpecs.get(viewType);
+        final ViewTypeSpec spec = new ViewTypeSpec(viewType, layoutResId, prewarmCount);
+        // declared again by the next list showing these rows: the holders made so far are still pooled
+        if (previous != null && previous.mLayoutResId == layoutResId) {
+            spec.mPrewarmed = Math.min(previous.mPrewarmed, prewarmCount);
+        }
+        mSpecs.put(viewType, spec);
+        if (mInflatedViews.get(layoutResId) == null) {
+            mInflatedViews.put(layoutResId, new ConcurrentLinkedQueue<View>());
+        }
+    }
+
+    /**
+     * Inflate a row, taking a view inflated ahead of time if one is ready. Use in place of
+     * LayoutInflater.inflate(layoutResId, parent, false) in onCreateViewHolder.
+     *
+     * @param layoutResId
+     * @param parent
+     * @return
+     */
+    public View obtainView(int layoutResId, ViewGroup parent) {
+        final ConcurrentLinkedQueue<View> ready = mInflatedViews.get(layoutResId);
+        final View view = ready != null ? ready.poll() : null;
+        if (view == null) {
+            return mInflater.inflate(layoutResId, parent, false);
+        }
+        // inflated against a stand-in parent; convert to the list's own layout params here
+        if (parent instanceof RecyclerView && ((RecyclerView) parent).getLayoutManager() != null) {
+            view.setLayoutParams(((RecyclerView) parent).getLayoutManager().generateLayoutParams(view.getLayoutParams()));
+        }
+        return view;
+    }
+
+    /**
+     * @param layoutResId
+     * @return how many views of the layout are inflated and waiting for {@link #obtainView}
+     */
+    int getReadyViewCount(int layoutResId) {
+        final ConcurrentLinkedQueue<View> ready = mInflatedViews.get(layoutResId);
+        return ready != null ? ready.size() : 0;
+    }
+
+    /**
+     * Use this pool for the given list and fill it with the declared number of holders per type
+     * while the main thread is idle. The list's adapter must already be set.
+     *
+     * @param recyclerView
+     */
+    public void prewarm(RecyclerView recyclerView) {
+        recyclerView.setRecycledViewPool(this);
+        mPrewarmTarget = recyclerView;
+
+        for (int i = 0; i < mSpecs.size(); i++) {
+            final ViewTypeSpec spec = mSpecs.valueAt(i);
+            final int missing = spec.mPrewarmCount - spec.mPrewarmed - mInflatedViews.get(spec.mLayoutResId).size();
+            for (int j = 0; j < missing; j++) {
+                if (!inflateInBackground(spec.mLayoutResId)) {
+                    break;
+                }
+            }
+        }
+        if (!mIdleHandlerAdded) {
+            mIdleHandlerAdded = true;
+            Looper.myQueue().addIdleHandler(mIdleHandler);
+        }
+    }
+
+    /**
+     * Hand a list's rows back to the pool before the list goes away, e.g. in onDestroyView, so
+     * the next list showing the same rows picks them up instead of inflating its own. Unlike
+     * setAdapter(null), this keeps the pool's holders even when no other list uses it.
+     *
+     * @param recyclerView a list prewarmed from this pool; its adapter is removed
+     */
+    public void returnViews(RecyclerView recyclerView) {
+        if (mPrewarmTarget == recyclerView) {
+            mPrewarmTarget = null;
+        }
+        if (recyclerView.getRecycledViewPool() == this) {
+            recyclerView.swapAdapter(null, true);
+        }
+    }
+
+    /**
+     * Drop every holder and prewarmed view, and stop prewarming. Called for pools from
+     * {@link #forActivity(Activity)} when the activity is destroyed; call it yourself for a pool
+     * created directly once its lists are gone.
+     */
+    public void release() {
+        mReleased = true;
+        if (mIdleHandlerAdded) {
+            mIdleHandlerAdded = false;
+            Looper.myQueue().removeIdleHandler(mIdleHandler);
+        }
+        mPrewarmTarget = null;
+        for (int i = 0; i < mInflatedViews.size(); i++) {
+            mInflatedViews.valueAt(i).clear();
+        }
+        clear();
+    }
+
+    /**
+     * @return false if the inflate thread is backed up, in which case views are inflated on demand
+     */
+    private boolean inflateInBackground(final int layoutResId) {
+        final ConcurrentLinkedQueue<View> ready = mInflatedViews.get(layoutResId);
+        try {
+            mInflateExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mReleased) {
+                        return;
+                    }
+                    try {
+                        // the list itself must not be touched off the main thread, so a detached
+                        // stand-in parent picks up the row's layout attributes
+                        final ViewGroup parent = new FrameLayout(mBackgroundInflater.getContext());
+                        ready.add(mBackgroundInflater.inflate(layoutResId, parent, false));
+                    } catch (RuntimeException e) {
+                        // some views can only be built on a looper thread; they get inflated on demand
+                        Log.e(TAG, "Unable to inflate layout " + layoutResId + " in the background", e);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Too many layouts waiting to be inflated, skipped " + layoutResId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Create one holder for the first view type that still needs some.
+     *
+     * @return true if there is more to do
+     */
+    boolean prewarmOne() {
+        final RecyclerView recyclerView = mPrewarmTarget;
+        if (recyclerView == null || recyclerView.getAdapter() == null) {
+            return false;
+        }
+        for (int i = 0; i < mSpecs.size(); i++) {
+            final ViewTypeSpec spec = mSpecs.valueAt(i);
+            if (spec.mPrewarmed < spec.mPrewarmCount) {
+                putRecycledView(recyclerView.getAdapter().createViewHolder(recyclerView, spec.mViewType));
+                spec.mPrewarmed++;
+                return true;
+            }
+        }
+        mPrewarmTarget = null;
+        return false;
+    }
+
+    private static class ReleaseOnDestroyCallbacks implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            final PrewarmedViewPool pool = sPools.remove(activity);
+            if (pool != null) {
+                pool.release();
+            }
+        }
+    }
+}
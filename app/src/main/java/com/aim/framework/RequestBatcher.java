@@ -0,0 +1,227 @@
+package com.aim.framework;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gathers per-item fetches made within a short window (e.g. every row binding at once) into batch
+ * requests, then hands each caller its own item. The shape of the batch call is up to the supplied
+ * {@link BatchEndpoint}. Ids that are already part of a batch in flight are not requested again.
+ *
+ * Batches go out through a {@link RequestCoalescer} with one parser per batcher, so identical batch
+ * urls of the same batcher are shared too.
+ * Not thread safe, call it from the main thread.
+ */
+public class RequestBatcher<T> {
+    private static final long DEFAULT_WINDOW_MS = 20;
+
+    private final RequestCoalescer mCoalescer;
+    private final BatchEndpoint<T> mEndpoint;
+    private final long mWindowMs;
+    private final BatchParser<T> mParser;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Ids waiting for the window to close, in request order. */
+    private final LinkedHashMap<String, List<RequestCoalescer.Callback<T>>> mPending = new LinkedHashMap<>();
+    /** Ids that are part of a batch on the wire. */
+    private final HashMap<String, List<RequestCoalescer.Callback<T>>> mInFlight = new HashMap<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Knows how to ask the server for several items at once.
+     */
+    public interface BatchEndpoint<T> {
+        /**
+         * @param ids never more than {@link #getMaxBatchSize()}
+         * @return the url that fetches all the given items
+         */
+        String getBatchUrl(List<String> ids);
+
+        /**
+         * Split a batch response into items. Called on a network thread. Ids missing from the
+         * result are reported to their callers as errors.
+         *
+         * @param response
+         * @return items keyed by id
+         * @throws IOException
+         */
+        Map<String, T> parseBatchResponse(NetworkResponse response) throws IOException;
+
+        int getMaxBatchSize();
+    }
+
+    public RequestBatcher(RequestCoalescer coalescer, BatchEndpoint<T> endpoint) {
+        this(coalescer, endpoint, DEFAULT_WINDOW_MS);
+    }
+
+    public RequestBatcher(RequestCoalescer coalescer, BatchEndpoint<T> endpoint, long windowMs) {
+        mCoalescer = coalescer;
+        mEndpoint = endpoint;
+        mWindowMs = windowMs;
+        mParser = new BatchParser<>(endpoint);
+    }
+
+    /**
+     * Fetch a single item as part of the next batch.
+     *
+     * @param id
+     * @param callback
+     * @return
+     */
+    public RequestCoalescer.Ticket fetch(final String id, final RequestCoalescer.Callback<T> callback) {
+        final List<RequestCoalescer.Callback<T>> inFlight = mInFlight.get(id);
+        if (inFlight != null) {
+            inFlight.add(callback);
+            return new ItemTicket(id, callback);
+        }
+
+        List<RequestCoalescer.Callback<T>> callbacks = mPending.get(id);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>(1);
+            mPending.put(id, callbacks);
+        }
+        callbacks.add(callback);
+
+        if (mPending.size() >= mEndpoint.getMaxBatchSize()) {
+            flush();
+        } else if (mPending.size() == 1) {
+            mHandler.postDelayed(mFlushRunnable, mWindowMs);
+        }
+        return new ItemTicket(id, callback);
+    }
+
+    /**
+     * Send everything that is pending right away instead of waiting for the window to close.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        final int maxBatchSize = Math.max(1, mEndpoint.getMaxBatchSize());
+
+        final Iterator<Map.Entry<String, List<RequestCoalescer.Callback<T>>>> it = mPending.entrySet().iterator();
+        while (it.hasNext()) {
+            final List<String> ids = new ArrayList<>(Math.min(maxBatchSize, mPending.size()));
+            while (it.hasNext() && ids.size() < maxBatchSize) {
+                final Map.Entry<String, List<RequestCoalescer.Callback<T>>> entry = it.next();
+                ids.add(entry.getKey());
+                mInFlight.put(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+            mCoalescer.get(mEndpoint.getBatchUrl(ids), mParser, new BatchCallback(ids));
+        }
+    }
+
+    private class BatchCallback implements RequestCoalescer.Callback<Map<String, T>> {
+        private final List<String> mIds;
+        private final long mStartNanos = System.nanoTime();
+        private boolean mTraced;
+
+        private BatchCallback(List<String> ids) {
+            mIds = ids;
+        }
+
+        /**
+         * From the batch going out to its callers being served. Only the first delivery serves
+         * them, so later ones are not traced.
+         */
+        private void traceBatch() {
+            if (!mTraced && Tracer.isEnabled()) {
+                mTraced = true;
+                Tracer.recordSpan("RequestBatcher batch of " + mIds.size(), mStartNanos, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void onResponse(Map<String, T> response) {
+            traceBatch();
+            for (String id : mIds) {
+                final List<RequestCoalescer.Callback<T>> callbacks = mInFlight.remove(id);
+                if (callbacks == null) {
+                    continue;
+                }
+                final T item = response.get(id);
+                for (RequestCoalescer.Callback<T> callback : callbacks) {
+                    if (item != null) {
+                        callback.onResponse(item);
+                    } else {
+                        callback.onError(new VolleyError("No result for " + id));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onError(VolleyError error) {
+            traceBatch();
+            for (String id : mIds) {
+                final List<RequestCoalescer.Callback<T>> callbacks = mInFlight.remove(id);
+                if (callbacks == null) {
+                    continue;
+                }
+                for (RequestCoalescer.Callback<T> callback : callbacks) {
+                    callback.onError(error);
+                }
+            }
+        }
+    }
+
+    private class ItemTicket implements RequestCoalescer.Ticket {
+        private final String mId;
+        private final RequestCoalescer.Callback<T> mCallback;
+
+        private ItemTicket(String id, RequestCoalescer.Callback<T> callback) {
+            mId = id;
+            mCallback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            final List<RequestCoalescer.Callback<T>> pending = mPending.get(mId);
+            if (pending != null && pending.remove(mCallback) && pending.isEmpty()) {
+                mPending.remove(mId);
+                if (mPending.isEmpty()) {
+                    mHandler.removeCallbacks(mFlushRunnable);
+                }
+                return;
+            }
+            // already on the wire; the batch still goes out for the other ids
+            final List<RequestCoalescer.Callback<T>> inFlight = mInFlight.get(mId);
+            if (inFlight != null) {
+                inFlight.remove(mCallback);
+            }
+        }
+    }
+
+    /**
+     * One per batcher. The coalescer only shares requests made with the same parser instance, so
+     * batchers never receive each other's results even if their endpoints build the same url.
+     */
+    private static class BatchParser<T> implements RequestCoalescer.ResponseParser<Map<String, T>> {
+        private final BatchEndpoint<T> mEndpoint;
+
+        private BatchParser(BatchEndpoint<T> endpoint) {
+            mEndpoint = endpoint;
+        }
+
+        @Override
+        public Map<String, T> parse(NetworkResponse response) throws IOException {
+            return mEndpoint.parseBatchResponse(response);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.aim.framework;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Front for the shared {@link RequestQueue} that collapses identical GETs: while a request for a
+ * url is in flight, further callers for the same url and parser instance are attached to it
+ * instead of going to the network again, and the parsed result is fanned out to all of them.
+ * Callers that want to share requests should therefore share parsers, e.g. as constants.
+ *
+ * Not thread safe, call it from the main thread (which is where Volley delivers results too).
+ */
+public class RequestCoalescer {
+
+    private final RequestQueue mRequestQueue;
+    private final HashMap<RequestKey, CoalescedRequest<?>> mInFlight = new HashMap<>();
+
+    /**
+     * Turns a raw response into a result. Called on a network thread.
+     */
+    public interface ResponseParser<T> {
+        T parse(NetworkResponse response) throws IOException;
+    }
+
+    /**
+     * Receives a result on the main thread. As with plain Volley requests, onResponse may be
+     * called twice when a soft-expired cache entry is served before the refreshed one.
+     */
+    public interface Callback<T> {
+        void onResponse(T response);
+
+        void onError(VolleyError error);
+    }
+
+    /**
+     * Handle for one caller's interest in a result.
+     */
+    public interface Ticket {
+        /**
+         * Stop delivering to this caller. The underlying request is only cancelled once nobody is
+         * waiting for it anymore.
+         */
+        void cancel();
+    }
+
+    public RequestCoalescer(RequestQueue requestQueue) {
+        mRequestQueue = requestQueue;
+    }
+
+    /**
+     * GET the url, sharing the request with any identical one already in flight. Requests are
+     * considered identical when the url matches and they use the same parser instance; parsers of
+     * one class may be configured differently, so an equal class is not enough.
+     *
+     * @param url
+     * @param parser
+     * @param callback
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Ticket get(String url, ResponseParser<T> parser, Callback<T> callback) {
+        final RequestKey key = new RequestKey(url, parser);
+        CoalescedRequest<T> request = (CoalescedRequest<T>) mInFlight.get(key);
+        if (request == null) {
+            request = new CoalescedRequest<>(key, url, parser);
+            mInFlight.put(key, request);
+            mRequestQueue.add(request);
+        }
+        request.mCallbacks.add(callback);
+        return new CallbackTicket<>(request, callback);
+    }
+
+    /**
+     * @return the number of distinct requests currently in flight
+     */
+    public int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    private void onRequestFinished(CoalescedRequest<?> request) {
+        // a newer request may have taken the slot after this one was cancelled
+        if (mInFlight.get(request.mKey) == request) {
+            mInFlight.remove(request.mKey);
+        }
+    }
+
+    private static class RequestKey {
+        private final String mUrl;
+        private final ResponseParser<?> mParser;
+
+        private RequestKey(String url, ResponseParser<?> parser) {
+            mUrl = url;
+            mParser = parser;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestKey)) {
+                return false;
+            }
+            final RequestKey other = (RequestKey) o;
+            return mParser == other.mParser && mUrl.equals(other.mUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mUrl.hashCode() + System.identityHashCode(mParser);
+        }
+    }
+
+    private class CallbackTicket<T> implements Ticket {
+        private final CoalescedRequest<T> mRequest;
+        private final Callback<T> mCallback;
+
+        private CallbackTicket(CoalescedRequest<T> request, Callback<T> callback) {
+            mRequest = request;
+            mCallback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            mRequest.mCallbacks.remove(mCallback);
+            if (mRequest.mCallbacks.isEmpty() && !mRequest.isCanceled()) {
+                mRequest.cancel();
+                onRequestFinished(mRequest);
+            }
+        }
+    }
+
+    private class CoalescedRequest<T> extends Request<T> {
+        private final RequestKey mKey;
+        private final ResponseParser<T> mParser;
+        private final List<Callback<T>> mCallbacks = new ArrayList<>(2);
+        private final long mStartNanos = System.nanoTime();
+        /** A soft-expired cache hit is delivered again once refreshed, but traced only once. */
+        private boolean mTraced;
+
+        private CoalescedRequest(RequestKey key, String url, ResponseParser<T> parser) {
+            super(Method.GET, url, null);
+            mKey = key;
+            mParser = parser;
+        }
+
+        @Override
+        protected Response<T> parseNetworkResponse(NetworkResponse response) {
+            Tracer.beginSection("RequestCoalescer.parse");
+            try {
+                return Response.success(mParser.parse(response), HttpHeaderParser.parseCacheHeaders(response));
+            } catch (IOException e) {
+                return Response.error(new ParseError(e));
+            } finally {
+                Tracer.endSection();
+            }
+        }
+
+        @Override
+        protected void deliverResponse(T response) {
+            onRequestFinished(this);
+            traceRequest();
+            // callbacks may cancel their tickets while we iterate
+            final List<Callback<T>> callbacks = new ArrayList<>(mCallbacks);
+            for (Callback<T> callback : callbacks) {
+                callback.onResponse(response);
+            }
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            onRequestFinished(this);
+            traceRequest();
+            final List<Callback<T>> callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+            for (Callback<T> callback : callbacks) {
+                callback.onError(error);
+            }
+        }
+
+        /**
+         * The request as a whole, from being queued to its first delivery, across threads. A
+         * refresh that comes back 304 after a soft-expired hit is never delivered, so the first
+         * delivery is the only end every request has.
+         */
+        private void traceRequest() {
+            if (!mTraced && Tracer.isEnabled()) {
+                mTraced = true;
+                Tracer.recordSpan("GET " + getUrl(), mStartNanos, System.nanoTime());
+            }
+        }
+    }
+}
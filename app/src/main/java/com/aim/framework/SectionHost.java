@@ -0,0 +1,199 @@
+package com.aim.framework;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Hosts one fragment per top-level section in a single container, keeping the most recently used
+ * ones alive so switching back to them is instant.
+ *
+ * Switching hides the current section and shows the target, so live sections keep their views and
+ * data. Past the cap, the least recently used section is removed after saving its state with
+ * {@link FragmentManager#saveFragmentInstanceState(Fragment)}; when it is shown again it is
+ * recreated from that state, as if it had been through a configuration change.
+ *
+ * The fragments themselves are restored by the FragmentManager across configuration changes; call
+ * {@link #onSaveInstanceState(Bundle)} and {@link #onRestoreInstanceState(Bundle)} so the host
+ * finds them again and keeps the state of evicted ones.
+ */
+public class SectionHost {
+    private static final String TAG_PREFIX = "section:";
+    private static final String STATE_LIVE_SECTIONS = "SectionHost.liveSections";
+    private static final String STATE_SAVED_SECTIONS = "SectionHost.savedSections";
+    private static final String STATE_CURRENT_SECTION = "SectionHost.currentSection";
+
+    private static final int NO_SECTION = -1;
+
+    private final FragmentManager mFragmentManager;
+    private final int mContainerId;
+    private final int mMaxLiveSections;
+    private final SectionFactory mFactory;
+
+    /** Live sections, least recently used first. */
+    private final ArrayList<Integer> mLiveSections = new ArrayList<>();
+    /** Fragments of live sections, including ones whose add is still pending. */
+    private final SparseArray<Fragment> mLiveFragments = new SparseArray<>();
+    /** State of evicted sections, by section. */
+    private final SparseArray<Fragment.SavedState> mSavedSections = new SparseArray<>();
+    private int mCurrentSection = NO_SECTION;
+    /** Set on restore, since the FragmentManager brings back hidden fragments as shown. */
+    private boolean mHideRestored;
+
+    /**
+     * Creates the fragment for a section the first time it is shown.
+     */
+    public interface SectionFactory {
+        Fragment createSection(int section);
+    }
+
+    /**
+     * @param fragmentManager
+     * @param containerId view the sections are added to
+     * @param maxLiveSections how many sections, the current one included, keep their fragment
+     * @param factory
+     */
+    public SectionHost(FragmentManager fragmentManager, int containerId, int maxLiveSections, SectionFactory factory) {
+        if (maxLiveSections < 1)
+            throw new IllegalArgumentException("maxLiveSections must be at least 1, but was " + maxLiveSections);
+        mFragmentManager = fragmentManager;
+        mContainerId = containerId;
+        mMaxLiveSections = maxLiveSections;
+        mFactory = factory;
+    }
+
+    /**
+     * Show the given section, creating or restoring its fragment if it is not live.
+     *
+     * @param section
+     */
+    public void showSection(int section) {
+        Fragment target = getLiveFragment(section);
+        if (section == mCurrentSection && target != null && !mHideRestored) {
+            return;
+        }
+
+        final FragmentTransaction transaction = mFragmentManager.beginTransaction();
+        final Fragment current = mCurrentSection == NO_SECTION ? null : getLiveFragment(mCurrentSection);
+        if (current != null && current != target) {
+            transaction.hide(current);
+        }
+        if (mHideRestored) {
+            mHideRestored = false;
+            for (int live : mLiveSections) {
+                final Fragment fragment = getLiveFragment(live);
+                if (live != section && fragment != null && fragment != current) {
+                    transaction.hide(fragment);
+                }
+            }
+        }
+
+        if (target != null) {
+            transaction.show(target);
+        } else {
+            target = mFactory.createSection(section);
+            final Fragment.SavedState savedState = mSavedSections.get(section);
+            if (savedState != null) {
+                target.setInitialSavedState(savedState);
+                mSavedSections.remove(section);
+            }
+            transaction.add(mContainerId, target, getTag(section));
+            mLiveFragments.put(section, target);
+        }
+
+        mLiveSections.remove(Integer.valueOf(section));
+        mLiveSections.add(section);
+        mCurrentSection = section;
+        evictLeastRecentlyUsed(transaction);
+        transaction.commit();
+    }
+
+    /**
+     * @return the section shown last, or -1 if none was
+     */
+    public int getCurrentSection() {
+        return mCurrentSection;
+    }
+
+    public void onSaveInstanceState(Bundle outState) {
+        final int[] liveSections = new int[mLiveSections.size()];
+        for (int i = 0; i < liveSections.length; i++) {
+            liveSections[i] = mLiveSections.get(i);
+        }
+        outState.putIntArray(STATE_LIVE_SECTIONS, liveSections);
+        final SparseArray<Parcelable> savedSections = new SparseArray<>(mSavedSections.size());
+        for (int i = 0; i < mSavedSections.size(); i++) {
+            savedSections.put(mSavedSections.keyAt(i), mSavedSections.valueAt(i));
+        }
+        outState.putSparseParcelableArray(STATE_SAVED_SECTIONS, savedSections);
+        outState.putInt(STATE_CURRENT_SECTION, mCurrentSection);
+    }
+
+    /**
+     * @param savedInstanceState may be null
+     */
+    public void onRestoreInstanceState(Bundle savedInstanceState) {
+        if (savedInstanceState == null) {
+            return;
+        }
+        mLiveSections.clear();
+        mLiveFragments.clear();
+        final int[] liveSections = savedInstanceState.getIntArray(STATE_LIVE_SECTIONS);
+        if (liveSections != null) {
+            for (int section : liveSections) {
+                mLiveSections.add(section);
+            }
+        }
+        mSavedSections.clear();
+        final SparseArray<Parcelable> savedSections = savedInstanceState.getSparseParcelableArray(STATE_SAVED_SECTIONS);
+        if (savedSections != null) {
+            for (int i = 0; i < savedSections.size(); i++) {
+                mSavedSections.put(savedSections.keyAt(i), (Fragment.SavedState) savedSections.valueAt(i));
+            }
+        }
+        mCurrentSection = savedInstanceState.getInt(STATE_CURRENT_SECTION, NO_SECTION);
+        mHideRestored = true;
+    }
+
+    private void evictLeastRecentlyUsed(FragmentTransaction transaction) {
+        while (mLiveSections.size() > mMaxLiveSections) {
+            final int section = mLiveSections.remove(0);
+            final Fragment fragment = getLiveFragment(section);
+            mLiveFragments.remove(section);
+            if (fragment == null) {
+                continue;
+            }
+            // a fragment whose add is still pending has no state yet
+            if (fragment.isAdded()) {
+                final Fragment.SavedState savedState = mFragmentManager.saveFragmentInstanceState(fragment);
+                if (savedState != null) {
+                    mSavedSections.put(section, savedState);
+                }
+            }
+            transaction.remove(fragment);
+        }
+    }
+
+    /**
+     * Fragments restored by the FragmentManager are found by tag the first time they are needed.
+     */
+    private Fragment getLiveFragment(int section) {
+        Fragment fragment = mLiveFragments.get(section);
+        if (fragment == null) {
+            fragment = mFragmentManager.findFragmentByTag(getTag(section));
+            if (fragment != null) {
+                mLiveFragments.put(section, fragment);
+            }
+        }
+        return fragment;
+    }
+
+    private static String getTag(int section) {
+        return TAG_PREFIX + section;
+    }
+}
@@ -0,0 +1,84 @@
+package com.aim.framework;
+
+import android.os.Bundle;
+
+/**
+ * Holds which items of a {@link DraggableAndMultiSelectableRecyclerView.Adapter} are selected.
+ * Implementations are swappable through
+ * {@link DraggableAndMultiSelectableRecyclerView.Adapter#setSelectionModel(SelectionModel)}.
+ *
+ * Select-all and invert are expected to be cheap flag flips rather than a pass over every item, so
+ * they stay usable on very long lists.
+ */
+public interface SelectionModel {
+
+    /**
+     * Walks selected positions in ascending order without allocating.
+     */
+    interface Cursor {
+        int NO_POSITION = -1;
+
+        /**
+         * @return the next selected position, or {@link #NO_POSITION} when done
+         */
+        int next();
+    }
+
+    boolean isSelected(int position);
+
+    /**
+     * @param position
+     * @return whether the position is selected afterwards
+     */
+    boolean toggle(int position);
+
+    void setSelected(int position, boolean selected);
+
+    /**
+     * Select or deselect positions [start, start + count).
+     *
+     * @param start
+     * @param count
+     * @param selected
+     */
+    void setRangeSelected(int start, int count, boolean selected);
+
+    void selectAll();
+
+    /**
+     * Swap selected and unselected positions.
+     */
+    void invert();
+
+    void clear();
+
+    int getSelectedCount();
+
+    /**
+     * The returned cursor is reused: calling this again restarts it, so only one iteration may be
+     * in progress at a time.
+     *
+     * @return a cursor positioned before the first selected position
+     */
+    Cursor cursor();
+
+    /**
+     * Write the selection into the bundle in a compact form (primitive arrays, no per-item entries).
+     *
+     * @param outState
+     */
+    void saveInstanceState(Bundle outState);
+
+    /**
+     * Replace the current selection with one written by {@link #saveInstanceState(Bundle)}.
+     *
+     * @param savedState may be null or hold no selection, in which case nothing changes
+     */
+    void restoreInstanceState(Bundle savedState);
+
+    /**
+     * Stop listening to the adapter. Called when the adapter replaces this model; the model is not
+     * used afterwards.
+     */
+    void detach();
+}
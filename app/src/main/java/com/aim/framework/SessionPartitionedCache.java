@@ -0,0 +1,217 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Partitions another cache by user session. Every key is prefixed with the current session
+ * generation, so signing out is a single generation bump: the previous session's items simply
+ * stop being reachable. They are then removed from the underlying cache (memory included) on a
+ * background thread.
+ *
+ * The same cleanup also runs once at every startup. It removes anything under an older generation
+ * that a previous process did not get to, or that was put while a new session was being started,
+ * as well as unprefixed keys written before the cache was partitioned.
+ */
+public class SessionPartitionedCache implements BlobCache {
+    private static final String PREF_GENERATION = "generation";
+    private static final long NO_GENERATION = -1;
+
+    private final BlobCache mCache;
+    private final SharedPreferences mSessionPrefs;
+    private final Executor mReclaimExecutor;
+
+    private volatile long mGeneration;
+    private volatile String mPrefix;
+
+    private final Runnable mReclaimRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reclaimPreviousSessions();
+        }
+    };
+
+    /**
+     * @param context
+     * @param cache the cache to partition
+     * @param sessionPrefKey shared preferences file holding the generation counter
+     */
+    public SessionPartitionedCache(Context context, BlobCache cache, String sessionPrefKey) {
+        // unbounded, so signing out on the main thread can never be rejected
+        this(context, cache, sessionPrefKey,
+                TaskScheduler.newSerialExecutor(TaskScheduler.Lane.IDLE, TaskScheduler.UNBOUNDED_CAPACITY));
+    }
+
+    /**
+     * @param context
+     * @param cache the cache to partition
+     * @param sessionPrefKey shared preferences file holding the generation counter
+     * @param reclaimExecutor runs the cleanup of previous sessions, one at a time
+     */
+    SessionPartitionedCache(Context context, BlobCache cache, String sessionPrefKey, Executor reclaimExecutor) {
+        mCache = cache;
+        mReclaimExecutor = reclaimExecutor;
+        mSessionPrefs = context.getApplicationContext().getSharedPreferences(sessionPrefKey, Context.MODE_PRIVATE);
+        mGeneration = mSessionPrefs.getLong(PREF_GENERATION, 0);
+        mPrefix = toPrefix(mGeneration);
+
+        mReclaimExecutor.execute(mReclaimRunnable);
+    }
+
+    /**
+     * Make everything cached so far unreachable and start an empty partition. Constant time; the
+     * old partition is cleaned up in the background.
+     *
+     * The new generation is committed to disk before the partition changes, so once this returns
+     * true a restart cannot read the previous session back. That is one small synchronous write;
+     * see {@link CacheManager#onSignOutSessionAsync} to keep it off the main thread.
+     *
+     * @return false if the generation could not be persisted, in which case the current session
+     * is left as it was
+     */
+    public synchronized boolean startNewSession() {
+        final long generation = mGeneration + 1;
+        // commit, not apply: an apply still in memory when the process dies leaves sign-out undone
+        if (!mSessionPrefs.edit().putLong(PREF_GENERATION, generation).commit()) {
+            return false;
+        }
+        mGeneration = generation;
+        mPrefix = toPrefix(generation);
+        mReclaimExecutor.execute(mReclaimRunnable);
+        return true;
+    }
+
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    @Override
+    public CacheComposite put(String key, CacheComposite item) {
+        return mCache.put(mPrefix + key, item);
+    }
+
+    @Override
+    public TaskScheduler.Task putAsync(String key, CacheComposite item, TaskScheduler.Lane lane) {
+        return mCache.putAsync(mPrefix + key, item, lane);
+    }
+
+    @Override
+    public void putAll(Map<String, ? extends CacheComposite> items) {
+        final String prefix = mPrefix;
+        final Map<String, CacheComposite> prefixed = new HashMap<>(items.size() * 2);
+        for (Map.Entry<String, ? extends CacheComposite> entry : items.entrySet()) {
+            prefixed.put(prefix + entry.getKey(), entry.getValue());
+        }
+        mCache.putAll(prefixed);
+    }
+
+    @Override
+    public CacheComposite get(String key) {
+        return mCache.get(mPrefix + key);
+    }
+
+    @Override
+    public <T extends CacheComposite> T get(String key, Class<T> type) {
+        return mCache.get(mPrefix + key, type);
+    }
+
+    @Override
+    public void remove(String key) {
+        mCache.remove(mPrefix + key);
+    }
+
+    /**
+     * Wipes every partition, not just the current one.
+     */
+    @Override
+    public void clearAll() {
+        mCache.clearAll();
+    }
+
+    @Override
+    public OutputStream openBlobOutputStream(String key) throws IOException {
+        return mCache.openBlobOutputStream(mPrefix + key);
+    }
+
+    @Override
+    public InputStream openBlobInputStream(String key) throws IOException {
+        return mCache.openBlobInputStream(mPrefix + key);
+    }
+
+    @Override
+    public long getBlobLength(String key) {
+        return mCache.getBlobLength(mPrefix + key);
+    }
+
+    @Override
+    public void removeBlob(String key) {
+        mCache.removeBlob(mPrefix + key);
+    }
+
+    @Override
+    public void removeAllWithPrefix(String prefix) {
+        mCache.removeAllWithPrefix(mPrefix + prefix);
+    }
+
+    @Override
+    public void removeAll(final KeyFilter filter) {
+        final String prefix = mPrefix;
+        mCache.removeAll(new KeyFilter() {
+            @Override
+            public boolean accept(String key) {
+                return key.startsWith(prefix) && filter.accept(key.substring(prefix.length()));
+            }
+        });
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return mCache.getStats();
+    }
+
+    /**
+     * Remove everything under a generation older than the current one, and everything from before
+     * keys had a generation.
+     */
+    private void reclaimPreviousSessions() {
+        final long current = mGeneration;
+        mCache.removeAll(new KeyFilter() {
+            @Override
+            public boolean accept(String key) {
+                return parseGeneration(key) < current;
+            }
+        });
+    }
+
+    /**
+     * @return the generation the key was put under, or {@link #NO_GENERATION} for unprefixed keys
+     */
+    private static long parseGeneration(String key) {
+        if (key.length() < 3 || key.charAt(0) != 's') {
+            return NO_GENERATION;
+        }
+        long generation = 0;
+        for (int i = 1; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c == ':') {
+                return i > 1 ? generation : NO_GENERATION;
+            }
+            if (c < '0' || c > '9' || generation > (Long.MAX_VALUE - 9) / 10) {
+                return NO_GENERATION;
+            }
+            generation = generation * 10 + (c - '0');
+        }
+        return NO_GENERATION;
+    }
+
+    private static String toPrefix(long generation) {
+        return "s" + generation + ":";
+    }
+}
@@ -1,6 +1,7 @@
 package com.aim.framework;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -9,99 +10,791 @@ import com.google.api.client.json.JsonParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.gson.Gson;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Caching mechanism built on top of shared preferences.
  *
+ * Structured items are serialized into the preferences file. Blobs (e.g. HTTP bodies) are streamed
+ * to files in a directory next to it so that they never have to be held in memory or pulled into
+ * the preferences XML. Both share one {@link CacheStats}, and blobs are held to a byte budget with
+ * least-recently-used eviction.
+ *
  * Created by gcole on 8/11/14.
  */
-public class SharedPreferenceCache implements Cache {
+public class SharedPreferenceCache implements BlobCache {
 
     private static final String TAG = SharedPreferenceCache.class.getName();
 
+    private static final long DEFAULT_MAX_BLOB_BYTES = 10 * 1024 * 1024;
+    private static final String BLOB_DIR_SUFFIX = "-blobs";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int MAX_BLOB_FILE_NAME_PREFIX = 80;
+
     private final Context mContext;
     private final String mSharedPrefKey;
     private final Jsonizer mJsonizer;
-    private final HashMap<String, Object> mNonSerializedObjectCache;
+    private final ConcurrentHashMap<String, Object> mNonSerializedObjectCache;
+    private final CacheStats mStats;
+    /**
+     * Orders writes: each one updates memory and takes a ticket under it, then commits to the
+     * preferences file in ticket order outside it, see {@link #commitInTurn}. Never held across
+     * serialization or I/O, so a get never waits on a write. Writes do wait on each other: a put,
+     * putAll or remove blocks in commitInTurn until every earlier ticket has committed, so one on
+     * the main thread can wait out a background write that took its ticket first.
+     */
+    private final Object mWriteLock = new Object();
+    /** Guarded by mWriteLock. */
+    private long mNextTicket;
+    /** Ticket of the latest write of each key. Guarded by mWriteLock. */
+    private final HashMap<String, Long> mKeyTickets = new HashMap<>();
+    /** Ticket of the latest clearAll or removeAll, which may have touched any key. Guarded by mWriteLock. */
+    private long mBulkTicket = -1;
+    private final Object mCommitLock = new Object();
+    /** Every ticket below this has committed. Written under mCommitLock. */
+    private volatile long mCommittedTickets;
+    /**
+     * Serialized items waiting for their {@link #putAsync} write, by key. Replaced by a newer
+     * putAsync and dropped by any other write of the key, under mWriteLock, so a write that runs
+     * late never overwrites a newer value.
+     */
+    private final ConcurrentHashMap<String, String> mPendingWrites = new ConcurrentHashMap<>();
+
+    private final File mBlobDir;
+    /** Blob file name to size, in access order. Guarded by itself. */
+    private final LinkedHashMap<String, Long> mBlobSizes;
+    private boolean mBlobIndexLoaded;
+    private long mTotalBlobBytes;
+    private long mMaxBlobBytes = DEFAULT_MAX_BLOB_BYTES;
 
     public SharedPreferenceCache(Context context, String sharedPrefKey) {
         mContext = context.getApplicationContext();
         mSharedPrefKey = sharedPrefKey;
         mJsonizer = new Jacksonizer();
-        mNonSerializedObjectCache = new HashMap<>();
+        mNonSerializedObjectCache = new ConcurrentHashMap<>();
+        mStats = new CacheStats();
+        mBlobDir = new File(mContext.getCacheDir(), sharedPrefKey + BLOB_DIR_SUFFIX);
+        mBlobSizes = new LinkedHashMap<>(16, 0.75f, true);
     }
 
     @Override
     public CacheComposite put(String key, CacheComposite item) {
-        mNonSerializedObjectCache.put(key, item);
-        String serializedData;
+        Tracer.beginSection("SharedPreferenceCache.put");
+        try {
+            if (item == null) {
+                remove(key);
+                return null;
+            }
+
+            String serializedData;
+            try {
+                serializedData = safeSerialize(item);
 
+            } catch(JsonizeException e) {
+                Log.e(TAG, "Unable to save to shared prefs: [" + key + ", " + item + "]", e);
+                serializedData = null;
+            }
+
+            final SharedPreferences.Editor editor = mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).edit();
+            final long ticket;
+            synchronized (mWriteLock) {
+                mNonSerializedObjectCache.put(key, item);
+                mPendingWrites.remove(key);
+                if (serializedData == null) {
+                    return item;
+                }
+                ticket = takeTicket(key);
+            }
+            commitInTurn(ticket, editor.putString(key, serializedData));
+            mStats.recordWrite();
+
+            return item;
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+    @Override
+    public TaskScheduler.Task putAsync(final String key, CacheComposite item, TaskScheduler.Lane lane) {
+        if (item == null) {
+            remove(key);
+            return null;
+        }
+        final String serializedData;
         try {
             serializedData = safeSerialize(item);
-
-        } catch(JsonizeException e) {
+        } catch (JsonizeException e) {
             Log.e(TAG, "Unable to save to shared prefs: [" + key + ", " + item + "]", e);
-            return item;
+            return null;
+        }
+        synchronized (mWriteLock) {
+            mNonSerializedObjectCache.put(key, item);
+            if (serializedData == null) {
+                mPendingWrites.remove(key);
+                return null;
+            }
+            mPendingWrites.put(key, serializedData);
         }
 
-        if (serializedData != null) {
-            saveToPrefs(key, serializedData);
+        final Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                writePending(key, serializedData);
+            }
+        };
+        try {
+            return TaskScheduler.execute(lane, write);
+        } catch (RejectedExecutionException e) {
+            // the lane is backed up; a late write is worse than a slow one
+            write.run();
+            return null;
         }
+    }
 
-        return item;
+    /**
+     * Like {@link #get(String, Class)}, but reads and deserializes on the given lane.
+     *
+     * @param key
+     * @param type
+     * @param lane
+     * @param callback gets the item, or null, on the main thread
+     * @return a handle to cancel the read with
+     * @throws java.util.concurrent.RejectedExecutionException on the main thread, if the lane is full
+     */
+    public <T extends CacheComposite> TaskScheduler.Task getAsync(final String key, final Class<T> type,
+            TaskScheduler.Lane lane, final TaskScheduler.Callback<T> callback) {
+        return TaskScheduler.submit(lane, new TaskScheduler.BackgroundTask<T>() {
+            @Override
+            protected T doInBackground(TaskScheduler.Task task) {
+                return get(key, type);
+            }
+
+            @Override
+            protected void onResult(T result) {
+                callback.onResult(result);
+            }
+        });
     }
 
     @Override
-    public CacheComposite get(String key) {
-        if(mNonSerializedObjectCache.containsKey(key)) {
-            return (CacheComposite) mNonSerializedObjectCache.get(key);
+    public void putAll(Map<String, ? extends CacheComposite> items) {
+        Tracer.beginSection("SharedPreferenceCache.putAll");
+        try {
+            if (items.isEmpty()) {
+                return;
+            }
+            final SharedPreferences.Editor editor = mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).edit();
+            int writes = 0;
+            for (Map.Entry<String, ? extends CacheComposite> entry : items.entrySet()) {
+                final String key = entry.getKey();
+                final CacheComposite item = entry.getValue();
+                if (item == null) {
+                    editor.remove(key);
+                    continue;
+                }
+                try {
+                    final String serializedData = safeSerialize(item);
+                    if (serializedData != null) {
+                        editor.putString(key, serializedData);
+                        writes++;
+                    }
+                } catch (JsonizeException e) {
+                    Log.e(TAG, "Unable to save to shared prefs: [" + key + ", " + item + "]", e);
+                }
+            }
+
+            final long ticket;
+            synchronized (mWriteLock) {
+                ticket = mNextTicket++;
+                for (Map.Entry<String, ? extends CacheComposite> entry : items.entrySet()) {
+                    final String key = entry.getKey();
+                    mPendingWrites.remove(key);
+                    mKeyTickets.put(key, ticket);
+                    if (entry.getValue() == null) {
+                        mNonSerializedObjectCache.remove(key);
+                    } else {
+                        mNonSerializedObjectCache.put(key, entry.getValue());
+                    }
+                }
+            }
+            commitInTurn(ticket, editor);
+            for (int i = 0; i < writes; i++) {
+                mStats.recordWrite();
+            }
+        } finally {
+            Tracer.endSection();
         }
+    }
 
-        // otherwise fetch it from the SharedPrefs
-        String serializedData = readFromPrefs(key);
+    @Override
+    public CacheComposite get(String key) {
+        Tracer.beginSection("SharedPreferenceCache.get");
         try {
-            CacheComposite data = safeDeserialize(serializedData, CacheComposite.class);
+            final long committed = mCommittedTickets;
+            Object cached = mNonSerializedObjectCache.get(key);
+            if(cached != null) {
+                mStats.recordMemoryHit();
+                return (CacheComposite) cached;
+            }
+
+            // otherwise fetch it from the SharedPrefs
+            String serializedData = readFromPrefs(key);
+            try {
+                CacheComposite data = safeDeserialize(serializedData, CacheComposite.class);
+
+                // store to memory cache
+                if(data != null) {
+                    keepInMemory(key, data, committed);
+                    mStats.recordDiskHit();
+                } else {
+                    mStats.recordMiss();
+                }
+                return data;
+
+            } catch(JsonizeException e) {
+                Log.e(TAG, "Unable to get from shared prefs: [" + key + ", " + CacheComposite.class + "]", e);
+                mStats.recordMiss();
+                return null;
+            }
+        } finally {
+            Tracer.endSection();
+        }
+    }
 
-            // store to memory cache
-            mNonSerializedObjectCache.put(key, data);
-            return data;
+    @Override
+    public <T extends CacheComposite> T get(String key, Class<T> type) {
+        Tracer.beginSection("SharedPreferenceCache.get");
+        try {
+            final long committed = mCommittedTickets;
+            Object cached = mNonSerializedObjectCache.get(key);
+            if(cached != null) {
+                mStats.recordMemoryHit();
+                return type.isInstance(cached) ? type.cast(cached) : null;
+            }
 
-        } catch(JsonizeException e) {
-            Log.e(TAG, "Unable to get from shared prefs: [" + key + ", " + CacheComposite.class + "]", e);
-            return null;
+            String serializedData = readFromPrefs(key);
+            try {
+                T data = safeDeserialize(serializedData, type);
+
+                // store to memory cache
+                if(data != null) {
+                    keepInMemory(key, data, committed);
+                    mStats.recordDiskHit();
+                } else {
+                    mStats.recordMiss();
+                }
+                return data;
+
+            } catch(JsonizeException e) {
+                Log.e(TAG, "Unable to get from shared prefs: [" + key + ", " + type + "]", e);
+                mStats.recordMiss();
+                return null;
+            }
+        } finally {
+            Tracer.endSection();
         }
     }
 
     @Override
     public void remove(String key) {
-        mNonSerializedObjectCache.remove(key);
-        mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE)
-                .edit()
-                .remove(key)
-                .commit();
+        final SharedPreferences.Editor editor = mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).edit();
+        final long ticket;
+        synchronized (mWriteLock) {
+            mNonSerializedObjectCache.remove(key);
+            mPendingWrites.remove(key);
+            ticket = takeTicket(key);
+        }
+        commitInTurn(ticket, editor.remove(key));
     }
 
     @Override
     public void clearAll() {
-        mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE)
-                .edit()
-                .clear()
-                .commit();
+        final SharedPreferences.Editor editor = mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).edit();
+        final long ticket;
+        synchronized (mWriteLock) {
+            mNonSerializedObjectCache.clear();
+            mPendingWrites.clear();
+            // older tickets no longer matter; the bulk ticket covers every key
+            mKeyTickets.clear();
+            ticket = mNextTicket++;
+            mBulkTicket = ticket;
+        }
+        commitInTurn(ticket, editor.clear());
+        clearBlobs();
+    }
+
+    // region BLOBS
+
+    @Override
+    public OutputStream openBlobOutputStream(String key) throws IOException {
+        ensureBlobIndexLoaded();
+        if (!mBlobDir.exists() && !mBlobDir.mkdirs() && !mBlobDir.exists()) {
+            throw new IOException("Unable to create blob directory " + mBlobDir);
+        }
+        final File target = getBlobFile(key);
+        // unique, so concurrent writers of one key (e.g. two fetches of a URL) never share a file;
+        // blob names have no '.', so a temp name never collides with one
+        final File temp = File.createTempFile(target.getName() + ".part", TEMP_FILE_SUFFIX, mBlobDir);
+        return new BlobOutputStream(target, temp);
+    }
+
+    @Override
+    public InputStream openBlobInputStream(String key) throws IOException {
+        ensureBlobIndexLoaded();
+        final File file = getBlobFile(key);
+        synchronized (mBlobSizes) {
+            if (mBlobSizes.get(file.getName()) == null) {
+                mStats.recordBlobMiss();
+                return null;
+            }
+        }
+        try {
+            final InputStream in = new BufferedInputStream(new FileInputStream(file));
+            mStats.recordBlobHit();
+            return in;
+        } catch (FileNotFoundException e) {
+            // deleted behind our back
+            onBlobRemoved(file.getName());
+            mStats.recordBlobMiss();
+            return null;
+        }
+    }
+
+    @Override
+    public long getBlobLength(String key) {
+        ensureBlobIndexLoaded();
+        synchronized (mBlobSizes) {
+            final Long size = mBlobSizes.get(getBlobFile(key).getName());
+            return size == null ? -1 : size;
+        }
+    }
+
+    @Override
+    public void removeBlob(String key) {
+        ensureBlobIndexLoaded();
+        final File file = getBlobFile(key);
+        synchronized (mBlobSizes) {
+            file.delete();
+            onBlobRemoved(file.getName());
+        }
+    }
+
+    @Override
+    public void removeAllWithPrefix(final String prefix) {
+        removeItems(new KeyFilter() {
+            @Override
+            public boolean accept(String key) {
+                return key.startsWith(prefix);
+            }
+        });
+
+        // file names are prefix-preserving up to their hashed tail; past that we may drop a few
+        // extra blobs, which is harmless for a cache
+        ensureBlobIndexLoaded();
+        String filePrefix = toBlobFileName(prefix);
+        if (filePrefix.length() > MAX_BLOB_FILE_NAME_PREFIX) {
+            filePrefix = filePrefix.substring(0, MAX_BLOB_FILE_NAME_PREFIX);
+        }
+        synchronized (mBlobSizes) {
+            for (Iterator<Map.Entry<String, Long>> it = mBlobSizes.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, Long> entry = it.next();
+                if (entry.getKey().startsWith(filePrefix)) {
+                    new File(mBlobDir, entry.getKey()).delete();
+                    mTotalBlobBytes -= entry.getValue();
+                    it.remove();
+                }
+            }
+            mStats.setBlobBytes(mTotalBlobBytes);
+        }
+    }
+
+    @Override
+    public void removeAll(KeyFilter filter) {
+        removeItems(filter);
+
+        ensureBlobIndexLoaded();
+        synchronized (mBlobSizes) {
+            for (Iterator<Map.Entry<String, Long>> it = mBlobSizes.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, Long> entry = it.next();
+                if (filter.accept(fromBlobFileName(entry.getKey()))) {
+                    new File(mBlobDir, entry.getKey()).delete();
+                    mTotalBlobBytes -= entry.getValue();
+                    it.remove();
+                }
+            }
+            mStats.setBlobBytes(mTotalBlobBytes);
+        }
     }
 
     /**
-     * Save this json blob to prefs, can be null
-     * @param key
-     * @param data
+     * Remove the items, not the blobs, under every key the filter accepts. The preferences file is
+     * scanned before taking mWriteLock, so a long scan on the idle lane holds up no other write;
+     * keys put since are found in memory.
+     */
+    private void removeItems(KeyFilter filter) {
+        final SharedPreferences prefs = mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE);
+        final SharedPreferences.Editor editor = prefs.edit();
+        boolean changed = false;
+        for (String key : prefs.getAll().keySet()) {
+            if (filter.accept(key)) {
+                editor.remove(key);
+                changed = true;
+            }
+        }
+
+        final long ticket;
+        synchronized (mWriteLock) {
+            for (Iterator<String> it = mNonSerializedObjectCache.keySet().iterator(); it.hasNext(); ) {
+                final String key = it.next();
+                if (filter.accept(key)) {
+                    it.remove();
+                    editor.remove(key);
+                    changed = true;
+                }
+            }
+            for (Iterator<String> it = mPendingWrites.keySet().iterator(); it.hasNext(); ) {
+                if (filter.accept(it.next())) {
+                    it.remove();
+                }
+            }
+            ticket = mNextTicket++;
+            mBulkTicket = ticket;
+        }
+        commitInTurn(ticket, changed ? editor : null);
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Blobs beyond this many bytes are evicted, least recently used first.
+     *
+     * @param maxBlobBytes
+     */
+    public void setMaxBlobBytes(long maxBlobBytes) {
+        synchronized (mBlobSizes) {
+            mMaxBlobBytes = maxBlobBytes;
+            trimBlobsToSize();
+        }
+    }
+
+    private void clearBlobs() {
+        synchronized (mBlobSizes) {
+            final File[] files = mBlobDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            mBlobSizes.clear();
+            mTotalBlobBytes = 0;
+            mBlobIndexLoaded = true;
+            mStats.setBlobBytes(0);
+        }
+    }
+
+    /**
+     * Build the in-memory size index from disk the first time blobs are touched, oldest first so
+     * that eviction order survives restarts. Leftover temp files are from writes that never
+     * finished and are dropped.
+     */
+    private void ensureBlobIndexLoaded() {
+        synchronized (mBlobSizes) {
+            if (mBlobIndexLoaded) {
+                return;
+            }
+            mBlobIndexLoaded = true;
+
+            final File[] files = mBlobDir.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    final long l = lhs.lastModified();
+                    final long r = rhs.lastModified();
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                final long length = file.length();
+                mBlobSizes.put(file.getName(), length);
+                mTotalBlobBytes += length;
+            }
+            mStats.setBlobBytes(mTotalBlobBytes);
+        }
+    }
+
+    private void onBlobWritten(String fileName, long length) {
+        synchronized (mBlobSizes) {
+            final Long previous = mBlobSizes.put(fileName, length);
+            if (previous != null) {
+                mTotalBlobBytes -= previous;
+            }
+            mTotalBlobBytes += length;
+            mStats.recordBlobWrite(length);
+            trimBlobsToSize();
+        }
+    }
+
+    private void onBlobRemoved(String fileName) {
+        synchronized (mBlobSizes) {
+            final Long previous = mBlobSizes.remove(fileName);
+            if (previous != null) {
+                mTotalBlobBytes -= previous;
+                mStats.setBlobBytes(mTotalBlobBytes);
+            }
+        }
+    }
+
+    private void trimBlobsToSize() {
+        for (Iterator<Map.Entry<String, Long>> it = mBlobSizes.entrySet().iterator();
+                mTotalBlobBytes > mMaxBlobBytes && it.hasNext(); ) {
+            final Map.Entry<String, Long> eldest = it.next();
+            new File(mBlobDir, eldest.getKey()).delete();
+            mTotalBlobBytes -= eldest.getValue();
+            it.remove();
+            mStats.recordBlobEviction();
+        }
+        mStats.setBlobBytes(mTotalBlobBytes);
+    }
+
+    private File getBlobFile(String key) {
+        return new File(mBlobDir, toBlobFileName(key));
+    }
+
+    /**
+     * Escape the key into a file name. The escaping keeps prefixes intact so that
+     * {@link #removeAllWithPrefix(String)} can match on file names; overly long keys keep a
+     * readable head and get a hashed tail.
+     */
+    private static String toBlobFileName(String key) {
+        final StringBuilder sb = new StringBuilder(key.length() + 16);
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('%');
+                final String hex = Integer.toHexString(c);
+                for (int pad = hex.length(); pad < 4; pad++) {
+                    sb.append('0');
+                }
+                sb.append(hex);
+            }
+        }
+        if (sb.length() > MAX_BLOB_FILE_NAME_PREFIX) {
+            final int half = key.length() / 2;
+            sb.setLength(MAX_BLOB_FILE_NAME_PREFIX);
+            sb.append('~')
+                    .append(Integer.toHexString(key.substring(0, half).hashCode()))
+                    .append(Integer.toHexString(key.substring(half).hashCode()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Undo {@link #toBlobFileName(String)}. Of an overly long key only the readable head comes
+     * back.
+     */
+    private static String fromBlobFileName(String fileName) {
+        final StringBuilder sb = new StringBuilder(fileName.length());
+        for (int i = 0; i < fileName.length(); i++) {
+            final char c = fileName.charAt(i);
+            if (c == '~') {
+                break;
+            }
+            if (c == '%' && i + 4 < fileName.length()) {
+                try {
+                    sb.append((char) Integer.parseInt(fileName.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    continue;
+                } catch (NumberFormatException ignored) {
+                    // not one of ours, keep it as is
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes to a temp file and only moves it into place on a clean close, so readers never see a
+     * partially written blob.
+     */
+    private class BlobOutputStream extends FilterOutputStream {
+        private final File mTarget;
+        private final File mTemp;
+        private long mLength;
+        private boolean mFailed;
+        private boolean mClosed;
+
+        private BlobOutputStream(File target, File temp) throws FileNotFoundException {
+            super(new BufferedOutputStream(new FileOutputStream(temp)));
+            mTarget = target;
+            mTemp = temp;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            try {
+                out.write(oneByte);
+                mLength++;
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                out.write(buffer, offset, length);
+                mLength += length;
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                super.close();
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            } finally {
+                if (mFailed) {
+                    mTemp.delete();
+                } else {
+                    // moved and indexed in one step, so the index has the size of whichever
+                    // concurrent writer of the key moved its blob into place last
+                    synchronized (mBlobSizes) {
+                        if (mTemp.renameTo(mTarget)) {
+                            onBlobWritten(mTarget.getName(), mLength);
+                        } else {
+                            mTemp.delete();
+                            Log.e(TAG, "Unable to move blob into place: " + mTarget);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // endregion
+
+    /**
+     * Write a {@link #putAsync} snapshot, unless the key was written or removed since. The ticket is
+     * only taken now, so a newer write of the key always commits after this one.
      */
-    private void saveToPrefs(String key, String data) {
-        mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE)
-                .edit()
-                .putString(key, data)
-                .commit();
+    private void writePending(String key, String serializedData) {
+        final SharedPreferences.Editor editor = mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).edit();
+        final long ticket;
+        synchronized (mWriteLock) {
+            if (!mPendingWrites.remove(key, serializedData)) {
+                return;
+            }
+            ticket = takeTicket(key);
+        }
+        commitInTurn(ticket, editor.putString(key, serializedData));
+        mStats.recordWrite();
+    }
+
+    /**
+     * Keep an item read from disk in memory, unless a write of its key had not committed before the
+     * read started: the item could then be older than what the write left, and would shadow it.
+     * Writes of other keys do not matter.
+     *
+     * @param committed {@link #mCommittedTickets} from before the read
+     */
+    private void keepInMemory(String key, Object item, long committed) {
+        synchronized (mWriteLock) {
+            final Long ticket = mKeyTickets.get(key);
+            if (mBulkTicket < committed && (ticket == null || ticket < committed)) {
+                // a put since keeps its own item in memory
+                mNonSerializedObjectCache.putIfAbsent(key, item);
+            }
+        }
+    }
+
+    /**
+     * Take the next ticket for a write of the key. Call under mWriteLock, then hand the ticket to
+     * {@link #commitInTurn} without fail.
+     */
+    private long takeTicket(String key) {
+        final long ticket = mNextTicket++;
+        mKeyTickets.put(key, ticket);
+        return ticket;
+    }
+
+    /**
+     * Commit once every earlier ticket has, so the preferences file sees writes in the order they
+     * updated memory. Every ticket must come through here, or the writes after it wait forever.
+     *
+     * @param ticket
+     * @param editor null if there is nothing to write
+     */
+    private void commitInTurn(long ticket, SharedPreferences.Editor editor) {
+        boolean interrupted = false;
+        synchronized (mCommitLock) {
+            while (mCommittedTickets != ticket) {
+                try {
+                    mCommitLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        try {
+            if (editor != null) {
+                Tracer.beginSection("SharedPreferenceCache.write");
+                try {
+                    editor.commit();
+                } finally {
+                    Tracer.endSection();
+                }
+            }
+        } finally {
+            synchronized (mCommitLock) {
+                mCommittedTickets = ticket + 1;
+                mCommitLock.notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
@@ -111,7 +804,12 @@ public class SharedPreferenceCache implements Cache {
      * @return
      */
     private String readFromPrefs(String key) {
-        return mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).getString(key, null);
+        Tracer.beginSection("SharedPreferenceCache.read");
+        try {
+            return mContext.getSharedPreferences(mSharedPrefKey, Context.MODE_PRIVATE).getString(key, null);
+        } finally {
+            Tracer.endSection();
+        }
     }
 
     /**
@@ -127,7 +825,12 @@ public class SharedPreferenceCache implements Cache {
             return null;
         }
 
-        return mJsonizer.deserialize(raw, itemClazz);
+        Tracer.beginSection("SharedPreferenceCache.deserialize");
+        try {
+            return mJsonizer.deserialize(raw, itemClazz);
+        } finally {
+            Tracer.endSection();
+        }
     }
 
     /**
@@ -143,7 +846,12 @@ public class SharedPreferenceCache implements Cache {
             return null;
         }
 
-        return mJsonizer.deserialize(raw, type);
+        Tracer.beginSection("SharedPreferenceCache.deserialize");
+        try {
+            return mJsonizer.deserialize(raw, type);
+        } finally {
+            Tracer.endSection();
+        }
     }
 
     /**
@@ -156,8 +864,12 @@ public class SharedPreferenceCache implements Cache {
             return null;
         }
 
-
-        return mJsonizer.serialize(o);
+        Tracer.beginSection("SharedPreferenceCache.serialize");
+        try {
+            return mJsonizer.serialize(o);
+        } finally {
+            Tracer.endSection();
+        }
     }
 
     /**
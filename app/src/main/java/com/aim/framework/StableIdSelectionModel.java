@@ -0,0 +1,172 @@
+package com.aim.framework;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * {@link SelectionModel} keyed by stable item ids instead of positions, so inserts, removals and
+ * moves never shift the selection onto other items. Positions are mapped to ids through
+ * {@link RecyclerView.Adapter#getItemId(int)}, which the adapter must answer in O(1).
+ *
+ * Ids of items that leave the list stay in the set; that keeps an undone delete selected and is
+ * otherwise harmless since they no longer map to a position.
+ */
+public class StableIdSelectionModel implements SelectionModel {
+    private static final String STATE_IDS = "StableIdSelectionModel.ids";
+    private static final String STATE_INVERTED = "StableIdSelectionModel.inverted";
+    private static final int UNKNOWN_COUNT = -1;
+
+    private final RecyclerView.Adapter<?> mAdapter;
+    private final LongHashSet mIds = new LongHashSet();
+    private final PositionCursor mCursor = new PositionCursor();
+    private final RecyclerView.AdapterDataObserver mObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            mSelectedCount = UNKNOWN_COUNT;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mSelectedCount = UNKNOWN_COUNT;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mSelectedCount = UNKNOWN_COUNT;
+        }
+    };
+
+    /** While inverted, mIds holds the unselected items. */
+    private boolean mInverted;
+    /** Selected items currently in the list, recounted lazily after the data changes. */
+    private int mSelectedCount;
+
+    /**
+     * @param adapter must have stable ids
+     */
+    public StableIdSelectionModel(RecyclerView.Adapter<?> adapter) {
+        if (!adapter.hasStableIds())
+            throw new IllegalArgumentException("StableIdSelectionModel requires an adapter with stable ids, but was given " + adapter);
+        mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mObserver);
+    }
+
+    @Override
+    public boolean isSelected(int position) {
+        return position >= 0 && position < mAdapter.getItemCount()
+                && mIds.contains(mAdapter.getItemId(position)) != mInverted;
+    }
+
+    @Override
+    public boolean toggle(int position) {
+        final boolean selected = !isSelected(position);
+        setSelected(position, selected);
+        return selected;
+    }
+
+    @Override
+    public void setSelected(int position, boolean selected) {
+        if (position < 0 || position >= mAdapter.getItemCount()) {
+            return;
+        }
+        final long id = mAdapter.getItemId(position);
+        final boolean changed = (selected != mInverted) ? mIds.add(id) : mIds.remove(id);
+        if (changed && mSelectedCount != UNKNOWN_COUNT) {
+            mSelectedCount += selected ? 1 : -1;
+        }
+    }
+
+    @Override
+    public void setRangeSelected(int start, int count, boolean selected) {
+        final int end = Math.min(start + count, mAdapter.getItemCount());
+        for (int position = Math.max(start, 0); position < end; position++) {
+            setSelected(position, selected);
+        }
+    }
+
+    @Override
+    public void selectAll() {
+        mIds.clear();
+        mInverted = true;
+        mSelectedCount = mAdapter.getItemCount();
+    }
+
+    @Override
+    public void invert() {
+        mInverted = !mInverted;
+        if (mSelectedCount != UNKNOWN_COUNT) {
+            mSelectedCount = mAdapter.getItemCount() - mSelectedCount;
+        }
+    }
+
+    @Override
+    public void clear() {
+        mIds.clear();
+        mInverted = false;
+        mSelectedCount = 0;
+    }
+
+    @Override
+    public int getSelectedCount() {
+        if (mSelectedCount == UNKNOWN_COUNT) {
+            int count = 0;
+            final int itemCount = mAdapter.getItemCount();
+            for (int position = 0; position < itemCount; position++) {
+                if (mIds.contains(mAdapter.getItemId(position)) != mInverted) {
+                    count++;
+                }
+            }
+            mSelectedCount = count;
+        }
+        return mSelectedCount;
+    }
+
+    @Override
+    public Cursor cursor() {
+        mCursor.mNext = 0;
+        return mCursor;
+    }
+
+    @Override
+    public void saveInstanceState(Bundle outState) {
+        outState.putLongArray(STATE_IDS, mIds.toArray());
+        outState.putBoolean(STATE_INVERTED, mInverted);
+    }
+
+    @Override
+    public void restoreInstanceState(Bundle savedState) {
+        if (savedState == null || !savedState.containsKey(STATE_IDS)) {
+            return;
+        }
+        mIds.clear();
+        final long[] ids = savedState.getLongArray(STATE_IDS);
+        if (ids != null) {
+            for (long id : ids) {
+                mIds.add(id);
+            }
+        }
+        mInverted = savedState.getBoolean(STATE_INVERTED);
+        mSelectedCount = UNKNOWN_COUNT;
+    }
+
+    @Override
+    public void detach() {
+        mAdapter.unregisterAdapterDataObserver(mObserver);
+    }
+
+    private class PositionCursor implements Cursor {
+        private int mNext;
+
+        @Override
+        public int next() {
+            final int itemCount = mAdapter.getItemCount();
+            while (mNext < itemCount) {
+                final int position = mNext++;
+                if (mIds.contains(mAdapter.getItemId(position)) != mInverted) {
+                    return position;
+                }
+            }
+            return NO_POSITION;
+        }
+    }
+}
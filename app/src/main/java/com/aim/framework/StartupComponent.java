@@ -0,0 +1,69 @@
+package com.aim.framework;
+
+import android.content.Context;
+
+/**
+ * A piece of app-wide setup run by {@link StartupPipeline}.
+ *
+ * Components name the components they depend on and only start once those have finished. Critical
+ * ones run before the first activity is created; everything else waits until the first frame has
+ * been drawn.
+ */
+public abstract class StartupComponent {
+
+    public enum Priority {
+        /** Needed to draw the first frame. Runs in parallel with other critical components. */
+        CRITICAL,
+        /** Needed soon, but not to draw the first frame. */
+        DEFERRED
+    }
+
+    private final String mName;
+    private final Priority mPriority;
+    private final String[] mDependencies;
+
+    /**
+     * @param name unique within the pipeline
+     * @param priority
+     * @param dependencies names of components that must finish first; a critical component can
+     *                     only depend on critical ones
+     */
+    protected StartupComponent(String name, Priority priority, String... dependencies) {
+        mName = name;
+        mPriority = priority;
+        mDependencies = dependencies;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    public String[] getDependencies() {
+        return mDependencies;
+    }
+
+    /**
+     * @return true if {@link #initialize(Context)} must run on the main thread. Deferred main thread
+     * components run while the main thread is idle.
+     */
+    public boolean runsOnMainThread() {
+        return false;
+    }
+
+    /**
+     * Do the work. Components that depend on this one start once it returns, even if it throws.
+     *
+     * @param context the application context
+     * @throws Exception
+     */
+    protected abstract void initialize(Context context) throws Exception;
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
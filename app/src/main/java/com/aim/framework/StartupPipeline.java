@@ -0,0 +1,401 @@
+package com.aim.framework;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the app's {@link StartupComponent}s in dependency order, as parallel as their dependencies
+ * allow.
+ *
+ * {@link #runCritical()} runs the critical components on the UI-critical lane from
+ * Application.onCreate and returns once they are done, so the first activity finds them ready.
+ * Deferred components are held back until the first activity has drawn its first frame (see
+ * {@link #runDeferredAfterFirstDraw(Activity)}) and then run on the background lane, or one per
+ * idle pass for those that need the main thread.
+ *
+ * Every component is timed: when it became ready, when it started, how long it ran and on which
+ * thread. Once everything has run the timings are logged against the startup budget, and they are
+ * available from {@link #getTimings()}.
+ */
+public class StartupPipeline {
+    private static final String TAG = StartupPipeline.class.getSimpleName();
+
+    private static final long DEFAULT_BUDGET_MS = 200;
+    /** Give up waiting for critical components, rather than never showing anything. */
+    private static final long CRITICAL_TIMEOUT_MS = 5000;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Node> mNodes = new LinkedHashMap<>();
+    /**
+     * Main thread critical components, run by the main thread while it waits in runCritical. Once
+     * it stops waiting they are posted to the main thread instead.
+     */
+    private final LinkedBlockingQueue<Runnable> mCriticalMainQueue = new LinkedBlockingQueue<>();
+    /** Main thread deferred components, run one per idle pass. */
+    private final ConcurrentLinkedQueue<Node> mIdleQueue = new ConcurrentLinkedQueue<>();
+
+    private long mBudgetMillis = DEFAULT_BUDGET_MS;
+    private long mStartNanos;
+    private long mCriticalEndNanos;
+    /** Guarded by this. */
+    private int mCriticalRemaining;
+    /** Guarded by this. */
+    private boolean mCriticalWaitOver;
+    private int mRemaining;
+    private boolean mDeferredStarted;
+    private boolean mIdleHandlerAdded;
+
+    /**
+     * How one component's initialization went. Times are in milliseconds since the pipeline started.
+     */
+    public static class Timing {
+        public final String name;
+        public final StartupComponent.Priority priority;
+        public final String thread;
+        /** When its dependencies had all finished and, if deferred, the first frame was drawn. */
+        public final long readyMillis;
+        public final long startMillis;
+        public final long durationMillis;
+        public final boolean failed;
+
+        private Timing(Node node, long pipelineStartNanos) {
+            name = node.mComponent.getName();
+            priority = node.mComponent.getPriority();
+            thread = node.mThread;
+            readyMillis = TimeUnit.NANOSECONDS.toMillis(node.mReadyNanos - pipelineStartNanos);
+            startMillis = TimeUnit.NANOSECONDS.toMillis(node.mStartNanos - pipelineStartNanos);
+            durationMillis = TimeUnit.NANOSECONDS.toMillis(node.mEndNanos - node.mStartNanos);
+            failed = node.mFailed;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + priority + ") ran " + durationMillis + "ms on " + thread
+                    + ", started at " + startMillis + "ms after waiting " + (startMillis - readyMillis) + "ms"
+                    + (failed ? ", failed" : "");
+        }
+    }
+
+    private class Node implements Runnable {
+        private final StartupComponent mComponent;
+        private final List<Node> mDependents = new ArrayList<>();
+        private int mPendingDependencies;
+        private volatile long mReadyNanos;
+        private volatile long mStartNanos;
+        private volatile long mEndNanos;
+        private volatile String mThread;
+        private volatile boolean mFailed;
+
+        private Node(StartupComponent component) {
+            mComponent = component;
+        }
+
+        private boolean isCritical() {
+            return mComponent.getPriority() == StartupComponent.Priority.CRITICAL;
+        }
+
+        @Override
+        public void run() {
+            mThread = Thread.currentThread().getName();
+            mStartNanos = System.nanoTime();
+            try {
+                mComponent.initialize(mContext);
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to initialize " + mComponent, e);
+                mFailed = true;
+            }
+            mEndNanos = System.nanoTime();
+            onFinished(this);
+        }
+    }
+
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            final Node node = mIdleQueue.poll();
+            if (node != null) {
+                node.run();
+            }
+            mIdleHandlerAdded = !mIdleQueue.isEmpty();
+            return mIdleHandlerAdded;
+        }
+    };
+
+    private final Runnable mAddIdleHandler = new Runnable() {
+        @Override
+        public void run() {
+            if (!mIdleHandlerAdded && !mIdleQueue.isEmpty()) {
+                mIdleHandlerAdded = true;
+                Looper.myQueue().addIdleHandler(mIdleHandler);
+            }
+        }
+    };
+
+    public StartupPipeline(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * @param budgetMillis how long startup should take, to put each component's time in proportion
+     */
+    public void setBudgetMillis(long budgetMillis) {
+        mBudgetMillis = budgetMillis;
+    }
+
+    /**
+     * Add a component. All components must be added before {@link #runCritical()}.
+     *
+     * @param component
+     */
+    public void add(StartupComponent component) {
+        if (mStartNanos != 0)
+            throw new IllegalStateException("Cannot add " + component + " after the pipeline started");
+        if (mNodes.containsKey(component.getName()))
+            throw new IllegalArgumentException("Duplicate startup component " + component);
+        mNodes.put(component.getName(), new Node(component));
+    }
+
+    /**
+     * Run the critical components and wait for them. Main thread only, typically from
+     * Application.onCreate.
+     */
+    public void runCritical() {
+        mStartNanos = System.nanoTime();
+        link();
+        final List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            for (Node node : mNodes.values()) {
+                if (node.isCritical() && node.mPendingDependencies == 0) {
+                    ready.add(node);
+                }
+            }
+        }
+        for (Node node : ready) {
+            dispatch(node);
+        }
+
+        final long deadline = SystemClock.uptimeMillis() + CRITICAL_TIMEOUT_MS;
+        while (getCriticalRemaining() > 0) {
+            final long timeout = deadline - SystemClock.uptimeMillis();
+            if (timeout <= 0) {
+                Log.e(TAG, "Critical startup components still running after " + CRITICAL_TIMEOUT_MS + "ms");
+                break;
+            }
+            try {
+                final Runnable task = mCriticalMainQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        mCriticalEndNanos = System.nanoTime();
+
+        // after a timeout, main thread components queued now or later still have to run, or
+        // nothing depending on them would and the timings would never be logged
+        synchronized (this) {
+            mCriticalWaitOver = true;
+            Runnable task;
+            while ((task = mCriticalMainQueue.poll()) != null) {
+                mMainHandler.post(task);
+            }
+        }
+    }
+
+    /**
+     * Start the deferred components once the activity has drawn its first frame.
+     *
+     * @param activity the first activity
+     */
+    public void runDeferredAfterFirstDraw(Activity activity) {
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // posted from pre-draw, so it runs once this frame is drawn
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startDeferred();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return timings of the components that have finished so far, by start time
+     */
+    public List<Timing> getTimings() {
+        final List<Timing> timings = new ArrayList<>();
+        for (Node node : mNodes.values()) {
+            if (node.mEndNanos != 0) {
+                timings.add(new Timing(node, mStartNanos));
+            }
+        }
+        Collections.sort(timings, new Comparator<Timing>() {
+            @Override
+            public int compare(Timing lhs, Timing rhs) {
+                return lhs.startMillis < rhs.startMillis ? -1 : (lhs.startMillis == rhs.startMillis ? 0 : 1);
+            }
+        });
+        return timings;
+    }
+
+    private void startDeferred() {
+        final List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            if (mDeferredStarted) {
+                return;
+            }
+            mDeferredStarted = true;
+            for (Node node : mNodes.values()) {
+                if (!node.isCritical() && node.mPendingDependencies == 0) {
+                    ready.add(node);
+                }
+            }
+        }
+        for (Node node : ready) {
+            dispatch(node);
+        }
+    }
+
+    /**
+     * Resolve dependencies, rejecting unknown names, critical components waiting on deferred ones
+     * and cycles.
+     */
+    private void link() {
+        for (Node node : mNodes.values()) {
+            for (String name : node.mComponent.getDependencies()) {
+                final Node dependency = mNodes.get(name);
+                if (dependency == null)
+                    throw new IllegalArgumentException(node.mComponent + " depends on unknown component " + name);
+                if (node.isCritical() && !dependency.isCritical())
+                    throw new IllegalArgumentException("Critical " + node.mComponent + " cannot depend on deferred " + name);
+                dependency.mDependents.add(node);
+                node.mPendingDependencies++;
+            }
+            if (node.isCritical()) {
+                mCriticalRemaining++;
+            }
+        }
+        mRemaining = mNodes.size();
+
+        // Kahn's algorithm: anything never reaching zero dependencies is on a cycle
+        final HashMap<Node, Integer> pending = new HashMap<>();
+        final List<Node> ready = new ArrayList<>();
+        for (Node node : mNodes.values()) {
+            pending.put(node, node.mPendingDependencies);
+            if (node.mPendingDependencies == 0) {
+                ready.add(node);
+            }
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            final Node node = ready.remove(ready.size() - 1);
+            visited++;
+            for (Node dependent : node.mDependents) {
+                final int left = pending.get(dependent) - 1;
+                pending.put(dependent, left);
+                if (left == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (visited != mNodes.size())
+            throw new IllegalArgumentException("Startup components have a dependency cycle");
+    }
+
+    private void dispatch(Node node) {
+        node.mReadyNanos = System.nanoTime();
+        if (!node.mComponent.runsOnMainThread()) {
+            try {
+                TaskScheduler.execute(node.isCritical() ? TaskScheduler.Lane.UI_CRITICAL : TaskScheduler.Lane.BACKGROUND, node);
+            } catch (RejectedExecutionException e) {
+                // the lane is full; nothing may be left out, so run it here
+                node.run();
+            }
+        } else if (node.isCritical()) {
+            synchronized (this) {
+                if (mCriticalWaitOver) {
+                    mMainHandler.post(node);
+                } else {
+                    mCriticalMainQueue.add(node);
+                }
+            }
+        } else {
+            mIdleQueue.add(node);
+            mMainHandler.post(mAddIdleHandler);
+        }
+    }
+
+    private synchronized int getCriticalRemaining() {
+        return mCriticalRemaining;
+    }
+
+    private synchronized boolean isCriticalWaitOver() {
+        return mCriticalWaitOver;
+    }
+
+    private void onFinished(Node node) {
+        final List<Node> ready = new ArrayList<>();
+        final boolean done;
+        synchronized (this) {
+            for (Node dependent : node.mDependents) {
+                dependent.mPendingDependencies--;
+                if (dependent.mPendingDependencies == 0 && (dependent.isCritical() || mDeferredStarted)) {
+                    ready.add(dependent);
+                }
+            }
+            if (node.isCritical()) {
+                mCriticalRemaining--;
+            }
+            done = --mRemaining == 0;
+        }
+        for (Node dependent : ready) {
+            dispatch(dependent);
+        }
+        if (node.isCritical() && !isCriticalWaitOver()) {
+            // wake up runCritical so it sees the count change
+            mCriticalMainQueue.add(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        if (done) {
+            logTimings();
+        }
+    }
+
+    private void logTimings() {
+        final long criticalMillis = TimeUnit.NANOSECONDS.toMillis(mCriticalEndNanos - mStartNanos);
+        Log.d(TAG, "Critical startup took " + criticalMillis + "ms of a " + mBudgetMillis + "ms budget");
+        for (Timing timing : getTimings()) {
+            Log.d(TAG, timing + ", " + (timing.durationMillis * 100 / Math.max(1, mBudgetMillis)) + "% of the budget");
+        }
+    }
+}
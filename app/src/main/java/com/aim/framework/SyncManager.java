@@ -0,0 +1,317 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps {@link SyncableDAO}s up to date using stale-while-revalidate: whatever is in the cache is
+ * served right away, then the server is asked whether it changed using the validators from the
+ * last full response (If-None-Match / If-Modified-Since).
+ *
+ * A 304 only refreshes the DAO's {@link SyncMetadata}. A 200 is parsed on the network thread,
+ * merged into the DAO on the main thread and saved through the cache. Loading DAOs from cache and
+ * saving them back both happen on {@link TaskScheduler} lanes, never on the main thread.
+ *
+ * Main thread only.
+ */
+public class SyncManager {
+    private static final String TAG = SyncManager.class.getSimpleName();
+
+    private static final long DEFAULT_MIN_REVALIDATE_INTERVAL_MS = 60 * 1000;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final RequestQueue mRequestQueue;
+    private long mMinRevalidateIntervalMs = DEFAULT_MIN_REVALIDATE_INTERVAL_MS;
+    /** DAOs being loaded from cache, with the listeners of every sync waiting on the load. */
+    private final IdentityHashMap<SyncableDAO, PendingLoad> mPendingLoads = new IdentityHashMap<>();
+
+    public interface SyncListener {
+        /**
+         * Called on the main thread when the DAO has cached data to show: right from {@link #sync}
+         * if it was already loaded, otherwise once it has been loaded from cache.
+         */
+        void onCachedDataAvailable(SyncableDAO dao);
+
+        /**
+         * Called on the main thread once revalidation finished.
+         *
+         * @param dataChanged false if the server answered 304 or the DAO was fresh enough that no
+         *                    request was made
+         */
+        void onSyncComplete(SyncableDAO dao, boolean dataChanged);
+
+        void onSyncFailed(SyncableDAO dao, VolleyError error);
+    }
+
+    public SyncManager(Context context) {
+        this(NetworkManager.getRequestQueue(context));
+    }
+
+    public SyncManager(RequestQueue requestQueue) {
+        mRequestQueue = requestQueue;
+    }
+
+    /**
+     * DAOs validated more recently than this are served from cache without a request.
+     *
+     * @param minRevalidateIntervalMs 0 to always revalidate
+     */
+    public void setMinRevalidateInterval(long minRevalidateIntervalMs) {
+        mMinRevalidateIntervalMs = minRevalidateIntervalMs;
+    }
+
+    /**
+     * Load the DAO from cache if necessary, hand it to the listener and revalidate it in the
+     * background.
+     *
+     * @param dao
+     * @param listener may be null
+     * @return the request that was queued, or null if the cached copy is still fresh or the DAO
+     * first has to be loaded from cache, in which case the request is queued once it is
+     */
+    public Request<?> sync(final SyncableDAO dao, SyncListener listener) {
+        if (dao.hasBeenInited()) {
+            return revalidate(dao, listener);
+        }
+
+        PendingLoad load = mPendingLoads.get(dao);
+        if (load != null) {
+            load.listeners.add(listener);
+            return null;
+        }
+
+        load = new PendingLoad();
+        load.listeners.add(listener);
+        // registered before the load is submitted, so onLoaded finds it however soon the load ends
+        mPendingLoads.put(dao, load);
+        try {
+            load.task = dao.initializeFromCacheAsync(TaskScheduler.Lane.USER_VISIBLE, new Runnable() {
+                @Override
+                public void run() {
+                    onLoaded(dao);
+                }
+            });
+            return null;
+        } catch (RejectedExecutionException e) {
+            mPendingLoads.remove(dao);
+            // the lane is backed up, loading inline beats not syncing at all
+            loadInline(dao);
+        } catch (IllegalAccessException e) {
+            mPendingLoads.remove(dao);
+            Log.e(TAG, "Unable to load " + dao + " from cache", e);
+        }
+        return revalidate(dao, listener);
+    }
+
+    /**
+     * Cancel any revalidation in flight for the given DAO, and any load from cache it is waiting
+     * on.
+     *
+     * @param dao
+     */
+    public void cancel(SyncableDAO dao) {
+        final PendingLoad load = mPendingLoads.remove(dao);
+        if (load != null && load.task != null) {
+            load.task.cancel();
+        }
+        mRequestQueue.cancelAll(dao);
+    }
+
+    private static void loadInline(SyncableDAO dao) {
+        try {
+            dao.initializeFromCache();
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "Unable to load " + dao + " from cache", e);
+        }
+    }
+
+    private void onLoaded(SyncableDAO dao) {
+        final PendingLoad load = mPendingLoads.remove(dao);
+        if (load == null) {
+            return;
+        }
+        for (SyncListener listener : load.listeners) {
+            revalidate(dao, listener);
+        }
+    }
+
+    /**
+     * Serve whatever the DAO holds and queue a conditional request if it is stale.
+     */
+    private Request<?> revalidate(SyncableDAO dao, SyncListener listener) {
+        final boolean hasCachedData = dao.hasBeenInited();
+        if (hasCachedData && listener != null) {
+            listener.onCachedDataAvailable(dao);
+        }
+
+        final SyncMetadata metadata = dao.getSyncMetadata();
+        if (hasCachedData && !metadata.isStale(System.currentTimeMillis(), mMinRevalidateIntervalMs)) {
+            if (listener != null) {
+                listener.onSyncComplete(dao, false);
+            }
+            return null;
+        }
+
+        final ConditionalRequest request = new ConditionalRequest(dao, hasCachedData, listener);
+        request.setTag(dao);
+        return mRequestQueue.add(request);
+    }
+
+    /**
+     * Header names keep whatever case the server sent, so look them up ignoring case.
+     */
+    private static String getHeader(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        final String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static class PendingLoad {
+        private TaskScheduler.Task task;
+        private final ArrayList<SyncListener> listeners = new ArrayList<>();
+    }
+
+    /**
+     * Outcome of a conditional request. data is null on a 304.
+     */
+    private static class SyncResult {
+        private final CacheComposite data;
+        private final String etag;
+        private final String lastModified;
+
+        private SyncResult(CacheComposite data, String etag, String lastModified) {
+            this.data = data;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * GET carrying the DAO's validators. It bypasses Volley's own cache, the DAO's cache entry is
+     * the cached copy.
+     */
+    private static class ConditionalRequest extends Request<SyncResult> {
+        private final SyncableDAO mDao;
+        private final SyncListener mListener;
+        private final Map<String, String> mHeaders;
+        private final long mStartNanos = System.nanoTime();
+
+        private ConditionalRequest(final SyncableDAO dao, boolean hasCachedData, final SyncListener listener) {
+            super(Method.GET, dao.getSyncUrl(), new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    Log.e(TAG, "Unable to sync " + dao.getSyncUrl(), error);
+                    if (listener != null) {
+                        listener.onSyncFailed(dao, error);
+                    }
+                }
+            });
+            mDao = dao;
+            mListener = listener;
+            mHeaders = new HashMap<>();
+
+            // without cached data a 304 would leave us with nothing to show
+            final SyncMetadata metadata = dao.getSyncMetadata();
+            if (hasCachedData && metadata.hasValidators()) {
+                if (!StringUtils.isNullOrEmpty(metadata.getEtag())) {
+                    mHeaders.put(HEADER_IF_NONE_MATCH, metadata.getEtag());
+                }
+                if (!StringUtils.isNullOrEmpty(metadata.getLastModified())) {
+                    mHeaders.put(HEADER_IF_MODIFIED_SINCE, metadata.getLastModified());
+                }
+            }
+
+            // no cache entry either: BasicNetwork then answers a 304 with the response's own headers and null data
+            setShouldCache(false);
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            return mHeaders;
+        }
+
+        @Override
+        protected Response<SyncResult> parseNetworkResponse(NetworkResponse response) {
+            final String etag = getHeader(response.headers, HEADER_ETAG);
+            final String lastModified = getHeader(response.headers, HEADER_LAST_MODIFIED);
+
+            if (response.notModified || response.data == null) {
+                return Response.success(new SyncResult(null, etag, lastModified), null);
+            }
+
+            try {
+                final CacheComposite data = mDao.parseNetworkData(response.data, response.headers);
+                return Response.success(new SyncResult(data, etag, lastModified), null);
+            } catch (IOException e) {
+                return Response.error(new ParseError(e));
+            }
+        }
+
+        @Override
+        protected void deliverResponse(SyncResult result) {
+            traceRequest();
+            final boolean dataChanged = result.data != null;
+            if (dataChanged) {
+                mDao.mergeNetworkData(result.data);
+                mDao.saveToCacheAsync(TaskScheduler.Lane.BACKGROUND);
+            }
+
+            final SyncMetadata metadata = mDao.getSyncMetadata();
+            if (dataChanged) {
+                metadata.onRefreshed(result.etag, result.lastModified, System.currentTimeMillis());
+            } else {
+                metadata.onNotModified(result.etag, result.lastModified, System.currentTimeMillis());
+            }
+            mDao.saveSyncMetadataToCacheAsync(TaskScheduler.Lane.BACKGROUND);
+
+            if (mListener != null) {
+                mListener.onSyncComplete(mDao, dataChanged);
+            }
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            traceRequest();
+            super.deliverError(error);
+        }
+
+        /**
+         * The sync as a whole, from being queued to delivery. It skips Volley's cache, so it is
+         * delivered exactly once.
+         */
+        private void traceRequest() {
+            if (Tracer.isEnabled()) {
+                Tracer.recordSpan("Sync GET " + getUrl(), mStartNanos, System.nanoTime());
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.aim.framework;
+
+import com.google.api.client.util.Key;
+
+/**
+ * Freshness information for a {@link SyncableDAO}: the validators the server handed us with the
+ * last full response and when the cached copy was last confirmed to be current.
+ */
+public class SyncMetadata implements CacheComposite {
+
+    @Key
+    private String etag;
+
+    @Key
+    private String lastModified;
+
+    @Key
+    private long lastValidatedMillis;
+
+    public SyncMetadata() {
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getLastValidatedMillis() {
+        return lastValidatedMillis;
+    }
+
+    /**
+     * Record a 304. Validators the server did not repeat are kept, since a 304 may omit them.
+     *
+     * @param newEtag
+     * @param newLastModified
+     * @param validatedAtMillis
+     */
+    public void onNotModified(String newEtag, String newLastModified, long validatedAtMillis) {
+        if (!StringUtils.isNullOrEmpty(newEtag)) {
+            etag = newEtag;
+        }
+        if (!StringUtils.isNullOrEmpty(newLastModified)) {
+            lastModified = newLastModified;
+        }
+        lastValidatedMillis = validatedAtMillis;
+    }
+
+    /**
+     * Record a full response. Its validators replace the old ones, even if it sent none.
+     *
+     * @param newEtag
+     * @param newLastModified
+     * @param validatedAtMillis
+     */
+    public void onRefreshed(String newEtag, String newLastModified, long validatedAtMillis) {
+        etag = newEtag;
+        lastModified = newLastModified;
+        lastValidatedMillis = validatedAtMillis;
+    }
+
+    /**
+     * @param nowMillis
+     * @param minRevalidateIntervalMillis
+     * @return true if the cached copy has not been validated within the given interval
+     */
+    public boolean isStale(long nowMillis, long minRevalidateIntervalMillis) {
+        return nowMillis - lastValidatedMillis >= minRevalidateIntervalMillis;
+    }
+
+    public boolean hasValidators() {
+        return !StringUtils.isNullOrEmpty(etag) || !StringUtils.isNullOrEmpty(lastModified);
+    }
+}
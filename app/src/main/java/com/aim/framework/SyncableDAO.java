@@ -0,0 +1,117 @@
+package com.aim.framework;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@link BaseDAO} whose data has a server-side source of truth. Alongside its data it keeps a
+ * {@link SyncMetadata} in the cache so that {@link SyncManager} can revalidate it with conditional
+ * requests instead of downloading it again.
+ */
+public abstract class SyncableDAO extends BaseDAO {
+    private static final String SYNC_METADATA_KEY_SUFFIX = ".sync";
+
+    protected SyncMetadata mSyncMetadata;
+
+    public SyncableDAO(Context context) {
+        super(context);
+    }
+
+    /**
+     * @return the url this DAO's data is fetched from
+     */
+    public abstract String getSyncUrl();
+
+    /**
+     * Parse a full (200) response. This is called on a network thread, so it must not touch the
+     * DAO's current state.
+     *
+     * @param data raw response body
+     * @param headers response headers
+     * @return the parsed data
+     * @throws IOException if the body could not be parsed
+     */
+    protected abstract CacheComposite parseNetworkData(byte[] data, Map<String, String> headers) throws IOException;
+
+    /**
+     * Merge freshly fetched data into this DAO. Called on the main thread before the DAO is saved
+     * to cache. By default the network copy replaces the cached one.
+     *
+     * @param networkData
+     */
+    protected void mergeNetworkData(CacheComposite networkData) {
+        mCacheComposite = networkData;
+    }
+
+    @Override
+    public void initializeFromCache() throws IllegalAccessException {
+        super.initializeFromCache();
+        mSyncMetadata = CacheManager.getCache(mContext).get(getSyncMetadataKey(), SyncMetadata.class);
+    }
+
+    @Override
+    protected Object readFromCache(BlobCache cache, String cacheKey) {
+        return new Cached(super.readFromCache(cache, cacheKey),
+                cache.get(cacheKey + SYNC_METADATA_KEY_SUFFIX, SyncMetadata.class));
+    }
+
+    @Override
+    protected void onReadFromCache(Object cached) {
+        super.onReadFromCache(((Cached) cached).data);
+        mSyncMetadata = ((Cached) cached).metadata;
+    }
+
+    @Override
+    public void onSignOutSession() {
+        super.onSignOutSession();
+        mSyncMetadata = null;
+    }
+
+    /**
+     * @return this DAO's freshness metadata, never null
+     */
+    public SyncMetadata getSyncMetadata() {
+        if (mSyncMetadata == null) {
+            mSyncMetadata = new SyncMetadata();
+        }
+        return mSyncMetadata;
+    }
+
+    /**
+     * Push the freshness metadata to cache. This is separate from {@link #saveToCache()} so that a
+     * 304 does not have to re-serialize the data itself.
+     */
+    public void saveSyncMetadataToCache() {
+        CacheManager.getCache(mContext).put(getSyncMetadataKey(), getSyncMetadata());
+    }
+
+    /**
+     * Like {@link #saveSyncMetadataToCache()}, but writes on the given lane, as
+     * {@link #saveToCacheAsync} does.
+     *
+     * @param lane
+     * @return a handle to cancel the save with, or null if it was done right away
+     */
+    public TaskScheduler.Task saveSyncMetadataToCacheAsync(TaskScheduler.Lane lane) {
+        return CacheManager.getCache(mContext).putAsync(getSyncMetadataKey(), getSyncMetadata(), lane);
+    }
+
+    private String getSyncMetadataKey() {
+        return mCacheKey + SYNC_METADATA_KEY_SUFFIX;
+    }
+
+    /**
+     * What {@link #readFromCache} hands over to the main thread.
+     */
+    private static class Cached {
+        private final CacheComposite data;
+        private final SyncMetadata metadata;
+
+        private Cached(CacheComposite data, SyncMetadata metadata) {
+            this.data = data;
+            this.metadata = metadata;
+        }
+    }
+}
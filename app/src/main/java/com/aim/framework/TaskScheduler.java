@@ -0,0 +1,617 @@
+package com.aim.framework;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The app's background threads, split into priority lanes so that work the user is waiting on is
+ * never stuck behind housekeeping.
+ *
+ * Each {@link Lane} has its own threads, running at the lane's thread priority, and a bounded
+ * number of queued tasks. Submitting to a full lane blocks the submitting thread until there is
+ * room, which slows down producers that outrun the lane, except on the main thread, which is never
+ * blocked, and on the lane's own threads, which could end up waiting on themselves: there a full
+ * lane rejects the task instead. {@link SerialExecutor} runs tasks one at a time, in order, on a
+ * lane, for work that must not overlap.
+ *
+ * Every task can be cancelled until it starts, and can check {@link Task#isCancelled()} while it
+ * runs. Lanes record how long tasks waited in the queue and how long they ran, see
+ * {@link #getStats(Lane)}.
+ */
+public class TaskScheduler {
+    private static final String TAG = TaskScheduler.class.getSimpleName();
+
+    /** For {@link #newSerialExecutor} whose owner keeps its tasks few, e.g. by coalescing them. */
+    public static final int UNBOUNDED_CAPACITY = Integer.MAX_VALUE;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final LaneExecutor[] sLanes = new LaneExecutor[Lane.values().length];
+    /** The lane the current thread works for, if any. */
+    private static final ThreadLocal<Lane> sWorkerLane = new ThreadLocal<>();
+
+    public enum Lane {
+        /** Work the next frames depend on, e.g. preparing views before they scroll in. */
+        UI_CRITICAL(2, 64, Process.THREAD_PRIORITY_FOREGROUND),
+        /** Work whose result the user is waiting to see, e.g. loading or diffing list contents. */
+        USER_VISIBLE(2, 128, Process.THREAD_PRIORITY_DEFAULT),
+        /** Work the user asked for but does not watch, e.g. committing edits or syncing. */
+        BACKGROUND(2, 256, Process.THREAD_PRIORITY_BACKGROUND),
+        /** Housekeeping that can wait indefinitely, e.g. reclaiming cache space. */
+        IDLE(1, 256, Process.THREAD_PRIORITY_LOWEST);
+
+        private final int mThreadCount;
+        private final int mCapacity;
+        private final int mThreadPriority;
+
+        Lane(int threadCount, int capacity, int threadPriority) {
+            mThreadCount = threadCount;
+            mCapacity = capacity;
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    /**
+     * Receives a result on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Work running on a lane on behalf of a {@link TaskScheduler} caller. The result is delivered
+     * on the main thread, unless the task was cancelled by then.
+     */
+    public static abstract class BackgroundTask<T> {
+        /**
+         * Runs on the lane.
+         */
+        protected abstract T doInBackground(Task task) throws Exception;
+
+        protected void onResult(T result) {
+        }
+
+        protected void onError(Exception e) {
+            Log.e(TAG, "Background task failed", e);
+        }
+    }
+
+    /**
+     * Handle for a submitted task.
+     */
+    public static class Task {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int FINISHED = 2;
+        private static final int CANCELLED = 3;
+
+        private final Lane mLane;
+        private final Runnable mRunnable;
+        private final SerialExecutor mSerialExecutor;
+        private final AtomicInteger mState = new AtomicInteger(QUEUED);
+        private volatile boolean mCancelled;
+        private volatile long mEnqueuedNanos;
+        /** For scheduled tasks, when they are due, in uptime millis. */
+        private volatile long mDueUptimeMillis;
+        /** Whether this task holds one of the lane's queue slots. */
+        private boolean mHoldsSlot;
+
+        private Task(Lane lane, Runnable runnable, SerialExecutor serialExecutor) {
+            mLane = lane;
+            mRunnable = runnable;
+            mSerialExecutor = serialExecutor;
+        }
+
+        /**
+         * Keep the task from running if it has not started yet. A running task keeps running, but
+         * sees {@link #isCancelled()} return true, and its result, if any, is not delivered.
+         *
+         * @return true if the task will not run
+         */
+        public boolean cancel() {
+            mCancelled = true;
+            if (!mState.compareAndSet(QUEUED, CANCELLED)) {
+                return false;
+            }
+            getLane(mLane).recordCancelled();
+            if (mSerialExecutor != null) {
+                mSerialExecutor.remove(this);
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public Lane getLane() {
+            return mLane;
+        }
+
+        /**
+         * @return true once the task has run or was cancelled before it could
+         */
+        public boolean isDone() {
+            final int state = mState.get();
+            return state == FINISHED || state == CANCELLED;
+        }
+
+        /**
+         * @return for a scheduled task, how long until it is due; negative once it is
+         */
+        public long getDelayMillis() {
+            return mDueUptimeMillis - SystemClock.uptimeMillis();
+        }
+
+        private void markEnqueued() {
+            if (mEnqueuedNanos == 0) {
+                mEnqueuedNanos = System.nanoTime();
+            }
+        }
+
+        private void runOn(LaneExecutor lane) {
+            if (mState.compareAndSet(QUEUED, RUNNING)) {
+                final long startNanos = System.nanoTime();
+                try {
+                    mRunnable.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Task failed on " + mLane, e);
+                } finally {
+                    mState.set(FINISHED);
+                    lane.recordRun(startNanos - mEnqueuedNanos, System.nanoTime() - startNanos);
+                }
+            }
+            // cancelled tasks are skipped here, but a serial executor still has to move on
+            if (mSerialExecutor != null) {
+                mSerialExecutor.onFinished(this);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of a lane's counters. Times are in milliseconds.
+     */
+    public static class LaneStats {
+        public final Lane lane;
+        public final long submitted;
+        public final long completed;
+        public final long cancelled;
+        public final long rejected;
+        public final int queued;
+        public final double averageWaitMillis;
+        public final double maxWaitMillis;
+        public final double averageRunMillis;
+        public final double maxRunMillis;
+
+        private LaneStats(LaneExecutor executor) {
+            lane = executor.mLane;
+            submitted = executor.mSubmitted;
+            completed = executor.mCompleted;
+            cancelled = executor.mCancelled;
+            rejected = executor.mRejected;
+            queued = executor.mQueue.size();
+            averageWaitMillis = completed == 0 ? 0 : toMillis(executor.mTotalWaitNanos) / completed;
+            maxWaitMillis = toMillis(executor.mMaxWaitNanos);
+            averageRunMillis = completed == 0 ? 0 : toMillis(executor.mTotalRunNanos) / completed;
+            maxRunMillis = toMillis(executor.mMaxRunNanos);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d submitted, %d completed, %d cancelled, %d rejected, %d queued; "
+                            + "wait avg %.1fms max %.1fms; run avg %.1fms max %.1fms",
+                    lane, submitted, completed, cancelled, rejected, queued,
+                    averageWaitMillis, maxWaitMillis, averageRunMillis, maxRunMillis);
+        }
+    }
+
+    /**
+     * Runs its tasks one at a time, in submission order, on a lane. Holds at most a given number of
+     * waiting tasks, applying backpressure like the lanes do.
+     */
+    public static class SerialExecutor implements Executor {
+        private final Lane mLane;
+        private final int mCapacity;
+        private final ArrayDeque<Task> mPending = new ArrayDeque<>();
+        private Task mActive;
+
+        private SerialExecutor(Lane lane, int capacity) {
+            mLane = lane;
+            mCapacity = capacity;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            submit(runnable);
+        }
+
+        /**
+         * @param runnable
+         * @return a handle to cancel the task with
+         * @throws RejectedExecutionException on the main thread or a thread of the executor's
+         * lane, if the executor is full
+         */
+        public Task submit(Runnable runnable) {
+            final Task task = new Task(mLane, runnable, this);
+            enqueue(task);
+            return task;
+        }
+
+        /**
+         * Submit the runnable after a delay. The delay is not counted as queue wait.
+         *
+         * @param runnable
+         * @param delayMs
+         * @return a handle to cancel the task with, also during the delay. If the executor is full
+         * when the delay is up, the task is dropped and the handle reports it cancelled.
+         */
+        public Task schedule(Runnable runnable, long delayMs) {
+            final Task task = new Task(mLane, runnable, this);
+            task.mDueUptimeMillis = SystemClock.uptimeMillis() + delayMs;
+            sMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (task.mState.get() != Task.QUEUED) {
+                        return;
+                    }
+                    try {
+                        enqueue(task);
+                    } catch (RejectedExecutionException e) {
+                        Log.e(TAG, "Dropped a scheduled task, " + mLane + " executor is full", e);
+                        // it will never run, so it must not look pending to whoever holds it
+                        if (task.mState.compareAndSet(Task.QUEUED, Task.CANCELLED)) {
+                            task.mCancelled = true;
+                        }
+                    }
+                }
+            }, delayMs);
+            return task;
+        }
+
+        private void enqueue(Task task) {
+            final Task next;
+            synchronized (this) {
+                while (mPending.size() >= mCapacity) {
+                    if (!mayWaitFor(mLane)) {
+                        getLane(mLane).recordRejected();
+                        throw new RejectedExecutionException("Serial executor on " + mLane + " is full");
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        getLane(mLane).recordRejected();
+                        throw new RejectedExecutionException("Interrupted waiting for room on " + mLane);
+                    }
+                }
+                task.markEnqueued();
+                mPending.add(task);
+                next = pollNext();
+            }
+            dispatch(next);
+        }
+
+        private synchronized void remove(Task task) {
+            if (mPending.remove(task)) {
+                notifyAll();
+            }
+        }
+
+        private void onFinished(Task task) {
+            final Task next;
+            synchronized (this) {
+                if (mActive != task) {
+                    return;
+                }
+                mActive = null;
+                next = pollNext();
+            }
+            dispatch(next);
+        }
+
+        /**
+         * @return the task to start, if none is active
+         */
+        private Task pollNext() {
+            if (mActive != null) {
+                return null;
+            }
+            mActive = mPending.poll();
+            if (mActive != null) {
+                notifyAll();
+            }
+            return mActive;
+        }
+
+        private void dispatch(Task task) {
+            if (task != null) {
+                // already admitted by this executor, so it does not take a lane slot
+                getLane(mLane).enqueue(task, false, true);
+            }
+        }
+    }
+
+    private static class LaneExecutor {
+        private final Lane mLane;
+        private final LinkedBlockingQueue<Task> mQueue = new LinkedBlockingQueue<>();
+        /** Queue slots for tasks submitted from outside. */
+        private final Semaphore mSlots;
+
+        // guarded by this
+        private long mSubmitted;
+        private long mCompleted;
+        private long mCancelled;
+        private long mRejected;
+        private long mTotalWaitNanos;
+        private long mMaxWaitNanos;
+        private long mTotalRunNanos;
+        private long mMaxRunNanos;
+
+        private LaneExecutor(Lane lane) {
+            mLane = lane;
+            mSlots = new Semaphore(lane.mCapacity);
+            for (int i = 0; i < lane.mThreadCount; i++) {
+                final Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(mLane.mThreadPriority);
+                        sWorkerLane.set(mLane);
+                        runTasks();
+                    }
+                }, lane.name().toLowerCase(Locale.US) + "-" + (i + 1));
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+
+        private void runTasks() {
+            while (true) {
+                final Task task;
+                try {
+                    task = mQueue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (task.mHoldsSlot) {
+                    mSlots.release();
+                }
+                task.runOn(this);
+            }
+        }
+
+        /**
+         * @param block wait for a slot rather than rejecting when the lane is full
+         * @param admitted the task does not need a slot
+         * @return false if the task was rejected
+         */
+        private boolean enqueue(Task task, boolean block, boolean admitted) {
+            if (!admitted) {
+                boolean acquired = mSlots.tryAcquire();
+                if (!acquired && block) {
+                    try {
+                        mSlots.acquire();
+                        acquired = true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (!acquired) {
+                    recordRejected();
+                    return false;
+                }
+                task.mHoldsSlot = true;
+            }
+            task.markEnqueued();
+            synchronized (this) {
+                mSubmitted++;
+            }
+            mQueue.add(task);
+            return true;
+        }
+
+        private synchronized void recordRun(long waitNanos, long runNanos) {
+            mCompleted++;
+            mTotalWaitNanos += waitNanos;
+            mMaxWaitNanos = Math.max(mMaxWaitNanos, waitNanos);
+            mTotalRunNanos += runNanos;
+            mMaxRunNanos = Math.max(mMaxRunNanos, runNanos);
+        }
+
+        private synchronized void recordCancelled() {
+            mCancelled++;
+        }
+
+        private synchronized void recordRejected() {
+            mRejected++;
+        }
+
+        private synchronized void resetStats() {
+            mSubmitted = mCompleted = mCancelled = mRejected = 0;
+            mTotalWaitNanos = mMaxWaitNanos = mTotalRunNanos = mMaxRunNanos = 0;
+        }
+    }
+
+    private TaskScheduler() {
+    }
+
+    // region Submitting
+
+    /**
+     * Run the runnable on the lane. Off the main thread and the lane's own threads this waits for
+     * room if the lane is full.
+     *
+     * @param lane
+     * @param runnable
+     * @return a handle to cancel the task with
+     * @throws RejectedExecutionException on the main thread or a thread of the lane, if the lane
+     * is full
+     */
+    public static Task execute(Lane lane, Runnable runnable) {
+        final Task task = new Task(lane, runnable, null);
+        if (!getLane(lane).enqueue(task, mayWaitFor(lane), false))
+            throw new RejectedExecutionException(lane + " is full");
+        return task;
+    }
+
+    /**
+     * Run the runnable on the lane, unless the lane is full.
+     *
+     * @param lane
+     * @param runnable
+     * @return a handle to cancel the task with, or null if the lane was full
+     */
+    public static Task tryExecute(Lane lane, Runnable runnable) {
+        final Task task = new Task(lane, runnable, null);
+        return getLane(lane).enqueue(task, false, false) ? task : null;
+    }
+
+    /**
+     * Run the background task on the lane and hand its result to the main thread.
+     *
+     * @param lane
+     * @param backgroundTask
+     * @return a handle to cancel the task with; once cancelled, no result is delivered
+     * @throws RejectedExecutionException on the main thread or a thread of the lane, if the lane
+     * is full
+     */
+    public static <T> Task submit(Lane lane, final BackgroundTask<T> backgroundTask) {
+        final Task[] task = new Task[1];
+        task[0] = new Task(lane, new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                Exception error = null;
+                try {
+                    result = backgroundTask.doInBackground(task[0]);
+                } catch (Exception e) {
+                    error = e;
+                }
+                final T deliveredResult = result;
+                final Exception deliveredError = error;
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (task[0].isCancelled()) {
+                            return;
+                        }
+                        if (deliveredError != null) {
+                            backgroundTask.onError(deliveredError);
+                        } else {
+                            backgroundTask.onResult(deliveredResult);
+                        }
+                    }
+                });
+            }
+        }, null);
+        // the handle is set before the task is queued, so the task always sees it
+        if (!getLane(lane).enqueue(task[0], mayWaitFor(lane), false))
+            throw new RejectedExecutionException(lane + " is full");
+        return task[0];
+    }
+
+    /**
+     * @param lane
+     * @param capacity how many tasks may wait at once, or {@link #UNBOUNDED_CAPACITY}
+     * @return a new executor running one task at a time on the lane
+     */
+    public static SerialExecutor newSerialExecutor(Lane lane, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1, but was " + capacity);
+        return new SerialExecutor(lane, capacity);
+    }
+
+    // endregion
+
+    // region Main thread
+
+    public static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * The main thread must never wait, and a lane's thread waiting for room on its own lane could
+     * be waiting for itself.
+     */
+    private static boolean mayWaitFor(Lane lane) {
+        return !isMainThread() && sWorkerLane.get() != lane;
+    }
+
+    /**
+     * Run the runnable on the main thread: right away if already there, otherwise as soon as the
+     * main thread gets to it.
+     *
+     * @param runnable
+     */
+    public static void runOnMainThread(Runnable runnable) {
+        if (isMainThread()) {
+            runnable.run();
+        } else {
+            sMainHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Run the runnable on the main thread after everything already queued there.
+     *
+     * @param runnable
+     */
+    public static void postToMainThread(Runnable runnable) {
+        sMainHandler.post(runnable);
+    }
+
+    public static void postToMainThread(Runnable runnable, long delayMs) {
+        sMainHandler.postDelayed(runnable, delayMs);
+    }
+
+    public static void removeFromMainThread(Runnable runnable) {
+        sMainHandler.removeCallbacks(runnable);
+    }
+
+    // endregion
+
+    // region Metrics
+
+    public static LaneStats getStats(Lane lane) {
+        final LaneExecutor executor = getLane(lane);
+        synchronized (executor) {
+            return new LaneStats(executor);
+        }
+    }
+
+    public static void resetStats() {
+        for (Lane lane : Lane.values()) {
+            getLane(lane).resetStats();
+        }
+    }
+
+    // endregion
+
+    /**
+     * Lanes start their threads on first use.
+     */
+    private static LaneExecutor getLane(Lane lane) {
+        synchronized (sLanes) {
+            LaneExecutor executor = sLanes[lane.ordinal()];
+            if (executor == null) {
+                executor = new LaneExecutor(lane);
+                sLanes[lane.ordinal()] = executor;
+            }
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.aim.framework;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * A row with a thumbnail loaded through {@link ImageLoader} and a title. The load is cancelled and
+ * the bitmap released when the row is recycled, so the loader can pool it.
+ */
+public class ThumbnailViewHolder extends DraggableAndMultiSelectableRecyclerView.ViewHolder {
+    private final ImageView mThumbnail;
+    private final TextView mTitle;
+    private final int mThumbnailSize;
+
+    /**
+     * Declare this row with the list's pool, so its views are inflated ahead of time.
+     *
+     * @param pool
+     * @param viewType the adapter's view type for this row
+     * @param maxRecycled
+     * @param prewarmCount
+     */
+    public static void declare(PrewarmedViewPool pool, int viewType, int maxRecycled, int prewarmCount) {
+        pool.declareViewType(viewType, R.layout.row_thumbnail, maxRecycled, prewarmCount);
+    }
+
+    /**
+     * @param parent
+     * @param pool the list's pool, whose views inflated ahead of time are used first
+     * @return
+     */
+    public static ThumbnailViewHolder create(ViewGroup parent, PrewarmedViewPool pool) {
+        return new ThumbnailViewHolder(pool.obtainView(R.layout.row_thumbnail, parent));
+    }
+
+    public ThumbnailViewHolder(View itemView) {
+        super(itemView);
+        mThumbnail = (ImageView) itemView.findViewById(R.id.thumbnail);
+        mTitle = (TextView) itemView.findViewById(R.id.title);
+        mThumbnailSize = itemView.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+    }
+
+    /**
+     * @param title
+     * @param thumbnailUrl null to show no thumbnail
+     */
+    public void bind(CharSequence title, String thumbnailUrl) {
+        mTitle.setText(title);
+        final ImageLoader loader = ImageLoader.getInstance(itemView.getContext());
+        if (thumbnailUrl != null) {
+            loader.load(thumbnailUrl, mThumbnail, mThumbnailSize, mThumbnailSize);
+        } else {
+            loader.cancel(mThumbnail);
+        }
+    }
+
+    @Override
+    public void onRecycled() {
+        ImageLoader.getInstance(itemView.getContext()).cancel(mThumbnail);
+    }
+}
@@ -0,0 +1,276 @@
+package com.aim.framework;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Named trace sections around the app's hot paths, so slow screens can be attributed.
+ *
+ * Sections go to the platform tracer (systrace) on devices running Jellybean MR2 or later once
+ * {@link #setPlatformTracingEnabled(boolean)} is on, and to an in-memory ring buffer while
+ * {@link #startRecording(int)} is in effect, e.g. in JVM tests. The recording can be exported as a
+ * Chrome trace (chrome://tracing) with {@link #exportChromeTrace(File)}.
+ *
+ * With both off, a section costs one volatile read. Sections must be ended on the thread that
+ * began them, in reverse order; use try/finally. Switch tracing on and off while no sections are
+ * open, or the platform tracer sees unbalanced sections.
+ */
+public class Tracer {
+    /** The platform tracer truncates longer names. */
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static final char PHASE_BEGIN = 'B';
+    private static final char PHASE_END = 'E';
+    private static final char PHASE_COMPLETE = 'X';
+
+    private static final boolean PLATFORM_TRACE_AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+            && "Dalvik".equals(System.getProperty("java.vm.name"));
+
+    private static volatile boolean sActive;
+    private static volatile boolean sPlatformEnabled;
+    private static volatile RingBuffer sRecording;
+    /** Kept for export after {@link #stopRecording()}. */
+    private static volatile RingBuffer sLastRecording;
+
+    /**
+     * Fixed-size event log; once full, the oldest events are overwritten.
+     */
+    private static class RingBuffer {
+        private final String[] mNames;
+        private final char[] mPhases;
+        private final long[] mTimestampsNanos;
+        private final long[] mDurationsNanos;
+        private final long[] mThreadIds;
+        private final long mStartNanos = System.nanoTime();
+        private int mNext;
+        private int mCount;
+
+        private RingBuffer(int capacity) {
+            mNames = new String[capacity];
+            mPhases = new char[capacity];
+            mTimestampsNanos = new long[capacity];
+            mDurationsNanos = new long[capacity];
+            mThreadIds = new long[capacity];
+        }
+
+        private synchronized void add(String name, char phase, long timestampNanos, long durationNanos) {
+            mNames[mNext] = name;
+            mPhases[mNext] = phase;
+            mTimestampsNanos[mNext] = timestampNanos;
+            mDurationsNanos[mNext] = durationNanos;
+            mThreadIds[mNext] = Thread.currentThread().getId();
+            mNext = (mNext + 1) % mNames.length;
+            mCount = Math.min(mCount + 1, mNames.length);
+        }
+
+        private synchronized void writeTo(Writer writer) throws IOException {
+            writer.write("{\"traceEvents\":[");
+            final int first = (mNext - mCount + mNames.length) % mNames.length;
+            for (int i = 0; i < mCount; i++) {
+                final int index = (first + i) % mNames.length;
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write("\n{\"ph\":\"");
+                writer.write(mPhases[index]);
+                writer.write("\",\"ts\":");
+                writer.write(toMicros(mTimestampsNanos[index] - mStartNanos));
+                if (mPhases[index] == PHASE_COMPLETE) {
+                    writer.write(",\"dur\":");
+                    writer.write(toMicros(mDurationsNanos[index]));
+                }
+                writer.write(",\"pid\":0,\"tid\":");
+                writer.write(Long.toString(mThreadIds[index]));
+                if (mNames[index] != null) {
+                    writer.write(",\"name\":\"");
+                    writeEscaped(writer, mNames[index]);
+                    writer.write('"');
+                }
+                writer.write('}');
+            }
+            writer.write("\n]}\n");
+        }
+
+        private synchronized int size() {
+            return mCount;
+        }
+
+        private synchronized int count(String name) {
+            int count = 0;
+            for (int i = 0; i < mNames.length; i++) {
+                if (name.equals(mNames[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private Tracer() {
+    }
+
+    /**
+     * @param enabled emit sections to the platform tracer, where available
+     */
+    public static void setPlatformTracingEnabled(boolean enabled) {
+        sPlatformEnabled = enabled && PLATFORM_TRACE_AVAILABLE;
+        updateActive();
+    }
+
+    /**
+     * Start recording sections into a fresh ring buffer, dropping any previous recording.
+     *
+     * @param capacity how many events to keep; each section is two
+     */
+    public static void startRecording(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1, but was " + capacity);
+        sRecording = new RingBuffer(capacity);
+        updateActive();
+    }
+
+    /**
+     * Stop recording. The recording is kept until the next {@link #startRecording(int)} and can
+     * still be exported.
+     */
+    public static void stopRecording() {
+        final RingBuffer recording = sRecording;
+        if (recording != null) {
+            sLastRecording = recording;
+        }
+        sRecording = null;
+        updateActive();
+    }
+
+    public static boolean isEnabled() {
+        return sActive;
+    }
+
+    /**
+     * @return how many events the current or last recording holds
+     */
+    public static int getRecordedEventCount() {
+        final RingBuffer recording = getRecording();
+        return recording == null ? 0 : recording.size();
+    }
+
+    /**
+     * @param name
+     * @return how many times a section or span of that name begins in the current or last
+     * recording, e.g. to count cache reads in a test
+     */
+    public static int getRecordedSectionCount(String name) {
+        final RingBuffer recording = getRecording();
+        return recording == null ? 0 : recording.count(name);
+    }
+
+    public static void beginSection(String name) {
+        if (!sActive) {
+            return;
+        }
+        if (sPlatformEnabled) {
+            beginPlatformSection(name);
+        }
+        final RingBuffer recording = sRecording;
+        if (recording != null) {
+            recording.add(name, PHASE_BEGIN, System.nanoTime(), 0);
+        }
+    }
+
+    public static void endSection() {
+        if (!sActive) {
+            return;
+        }
+        if (sPlatformEnabled) {
+            endPlatformSection();
+        }
+        final RingBuffer recording = sRecording;
+        if (recording != null) {
+            recording.add(null, PHASE_END, System.nanoTime(), 0);
+        }
+    }
+
+    /**
+     * Record a span that did not begin and end on one thread, e.g. a network request. Only
+     * recordings see these; the platform tracer cannot represent them.
+     *
+     * @param name
+     * @param startNanos from System.nanoTime()
+     * @param endNanos
+     */
+    public static void recordSpan(String name, long startNanos, long endNanos) {
+        final RingBuffer recording = sRecording;
+        if (recording != null) {
+            recording.add(name, PHASE_COMPLETE, startNanos, endNanos - startNanos);
+        }
+    }
+
+    /**
+     * Write the current or last recording as a Chrome trace.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static void exportChromeTrace(File file) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            exportChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static void exportChromeTrace(Writer writer) throws IOException {
+        final RingBuffer recording = getRecording();
+        if (recording == null)
+            throw new IllegalStateException("Nothing was recorded");
+        recording.writeTo(writer);
+    }
+
+    private static RingBuffer getRecording() {
+        final RingBuffer recording = sRecording;
+        return recording != null ? recording : sLastRecording;
+    }
+
+    private static void updateActive() {
+        sActive = sPlatformEnabled || sRecording != null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginPlatformSection(String name) {
+        Trace.beginSection(name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endPlatformSection() {
+        Trace.endSection();
+    }
+
+    private static String toMicros(long nanos) {
+        // keep sub-microsecond precision, as Chrome does
+        return (nanos / 1000) + "." + String.format(Locale.US, "%03d", Math.abs(nanos % 1000));
+    }
+
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+}
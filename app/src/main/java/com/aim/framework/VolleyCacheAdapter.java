@@ -0,0 +1,259 @@
+package com.aim.framework;
+
+import android.util.Log;
+
+import com.android.volley.Cache;
+import com.google.api.client.json.jackson2.JacksonFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * Volley {@link Cache} stored through our own {@link BlobCache}, so HTTP responses share storage,
+ * size limits and statistics with DAO data instead of living in a separate DiskBasedCache.
+ *
+ * Each response is one blob: a length-prefixed {@link HttpCacheHeader} followed by the body. Header
+ * and body are written, evicted and removed together, so headers never pile up without their
+ * bodies, and storing a response costs no preferences commit. The header sits at the front so
+ * freshness checks and invalidation read only the blob's prefix; only {@link #get} reads the body.
+ */
+public class VolleyCacheAdapter implements Cache {
+    private static final String TAG = VolleyCacheAdapter.class.getSimpleName();
+
+    private static final String KEY_PREFIX = "http:";
+    /** Header length prefix plus an empty header, the least a valid blob holds. */
+    private static final int MIN_BLOB_LENGTH = 4 + 2;
+    private static final int MAX_HEADER_LENGTH = 256 * 1024;
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    private final BlobCache mCache;
+    private final JacksonFactory mJackson = new JacksonFactory();
+
+    public VolleyCacheAdapter(BlobCache cache) {
+        mCache = cache;
+    }
+
+    @Override
+    public Entry get(String key) {
+        final String cacheKey = toCacheKey(key);
+        DataInputStream in = null;
+        try {
+            in = openBlob(cacheKey);
+            if (in == null) {
+                return null;
+            }
+            final HttpCacheHeader header = readHeader(in, mCache.getBlobLength(cacheKey));
+            final byte[] data = new byte[(int) header.dataLength];
+            in.readFully(data);
+            return toEntry(header, data);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Dropping damaged response for " + cacheKey, e);
+            mCache.removeBlob(cacheKey);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Read only what describes the stored response, not its body, e.g. to check its freshness.
+     *
+     * @param key the request's cache key
+     * @return the stored header, or null if there is none or it is damaged, in which case the
+     * response is removed
+     */
+    public HttpCacheHeader getHeader(String key) {
+        final String cacheKey = toCacheKey(key);
+        DataInputStream in = null;
+        try {
+            in = openBlob(cacheKey);
+            return in != null ? readHeader(in, mCache.getBlobLength(cacheKey)) : null;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Dropping damaged response for " + cacheKey, e);
+            mCache.removeBlob(cacheKey);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        final String cacheKey = toCacheKey(key);
+        final byte[] data = entry.data != null ? entry.data : new byte[0];
+        final HttpCacheHeader header = new HttpCacheHeader();
+        header.etag = entry.etag;
+        header.serverDate = entry.serverDate;
+        header.ttl = entry.ttl;
+        header.softTtl = entry.softTtl;
+        header.responseHeaders = entry.responseHeaders;
+        header.dataLength = data.length;
+
+        DataOutputStream out = null;
+        try {
+            out = openBlobForWriting(cacheKey, header);
+            out.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store response for " + cacheKey, e);
+            abortWrite(cacheKey, out);
+            return;
+        }
+        finishWrite(cacheKey, out);
+    }
+
+    @Override
+    public void initialize() {
+        // nothing to scan up front, blobs are read lazily through the cache
+    }
+
+    /**
+     * Only the header is parsed. The blob is still rewritten, since blobs are replaced whole, but
+     * the body is streamed across rather than read into memory, and nothing is written if the
+     * response is already as expired as asked.
+     */
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        final String cacheKey = toCacheKey(key);
+        DataInputStream in = null;
+        DataOutputStream out = null;
+        try {
+            in = openBlob(cacheKey);
+            if (in == null) {
+                return;
+            }
+            final HttpCacheHeader header = readHeader(in, mCache.getBlobLength(cacheKey));
+            if (header.softTtl == 0 && (!fullExpire || header.ttl == 0)) {
+                return;
+            }
+            header.softTtl = 0;
+            if (fullExpire) {
+                header.ttl = 0;
+            }
+
+            out = openBlobForWriting(cacheKey, header);
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long remaining = header.dataLength;
+            while (remaining > 0) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Body ended " + remaining + " bytes early");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Unable to invalidate response for " + cacheKey, e);
+            abortWrite(cacheKey, out);
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+        finishWrite(cacheKey, out);
+    }
+
+    @Override
+    public void remove(String key) {
+        mCache.removeBlob(toCacheKey(key));
+    }
+
+    @Override
+    public void clear() {
+        mCache.removeAllWithPrefix(KEY_PREFIX);
+    }
+
+    /**
+     * @return a stream positioned at the blob's header length prefix, or null if there is no
+     * blob or it is too short to hold a header
+     */
+    private DataInputStream openBlob(String cacheKey) throws IOException {
+        final long blobLength = mCache.getBlobLength(cacheKey);
+        if (blobLength < 0) {
+            return null;
+        }
+        if (blobLength < MIN_BLOB_LENGTH) {
+            throw new IOException("Blob is only " + blobLength + " bytes");
+        }
+        final InputStream blob = mCache.openBlobInputStream(cacheKey);
+        return blob != null ? new DataInputStream(blob) : null;
+    }
+
+    /**
+     * Read the length-prefixed header and nothing past it, leaving the stream at the body.
+     *
+     * @param in positioned at the start of the blob
+     * @param blobLength the blob's stored length, to check the body against
+     */
+    private HttpCacheHeader readHeader(DataInputStream in, long blobLength) throws IOException {
+        final int headerLength = in.readInt();
+        if (headerLength < 0 || headerLength > MAX_HEADER_LENGTH) {
+            throw new IOException("Bad header length " + headerLength);
+        }
+        final byte[] headerBytes = new byte[headerLength];
+        in.readFully(headerBytes);
+        final HttpCacheHeader header = mJackson.fromString(new String(headerBytes, "UTF-8"), HttpCacheHeader.class);
+        // a body cut short or left over from another header is useless
+        if (header.dataLength != blobLength - 4 - headerLength || header.dataLength > Integer.MAX_VALUE) {
+            throw new IOException("Body is " + (blobLength - 4 - headerLength) + " bytes, header says " + header.dataLength);
+        }
+        return header;
+    }
+
+    /**
+     * @return a stream for a new blob, with the header already written; the body goes next
+     */
+    private DataOutputStream openBlobForWriting(String cacheKey, HttpCacheHeader header) throws IOException {
+        final byte[] headerBytes = mJackson.toByteArray(header);
+        final DataOutputStream out = new DataOutputStream(mCache.openBlobOutputStream(cacheKey));
+        out.writeInt(headerBytes.length);
+        out.write(headerBytes);
+        return out;
+    }
+
+    private void finishWrite(String cacheKey, DataOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store response for " + cacheKey, e);
+            mCache.removeBlob(cacheKey);
+        }
+    }
+
+    /**
+     * An unclosed blob never replaces the previous one; drop that too rather than serve it.
+     */
+    private void abortWrite(String cacheKey, DataOutputStream out) {
+        closeQuietly(out);
+        mCache.removeBlob(cacheKey);
+    }
+
+    private static Entry toEntry(HttpCacheHeader header, byte[] data) {
+        final Entry entry = new Entry();
+        entry.data = data;
+        entry.etag = header.etag;
+        entry.serverDate = header.serverDate;
+        entry.ttl = header.ttl;
+        entry.softTtl = header.softTtl;
+        entry.responseHeaders = header.responseHeaders != null
+                ? new HashMap<>(header.responseHeaders)
+                : new HashMap<String, String>();
+        return entry;
+    }
+
+    private static String toCacheKey(String key) {
+        return KEY_PREFIX + key;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.aim.framework;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link BitSetSelectionModel}, inversion in particular, against a plain boolean array.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BitSetSelectionModelTest {
+    private static final int ITEM_COUNT = 200;
+    private static final int OPERATIONS = 5000;
+
+    private CountAdapter mAdapter;
+    private BitSetSelectionModel mModel;
+    private boolean[] mExpected;
+
+    @Before
+    public void setUp() {
+        mAdapter = new CountAdapter(ITEM_COUNT);
+        mModel = new BitSetSelectionModel(mAdapter);
+        mExpected = new boolean[ITEM_COUNT];
+    }
+
+    @Test
+    public void invertFlipsEveryPosition() {
+        select(3, 63, 64, 65, 127, 199);
+        mModel.setRangeSelected(100, 20, true);
+        for (int i = 100; i < 120; i++) {
+            mExpected[i] = true;
+        }
+        check();
+
+        mModel.invert();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mExpected[i] = !mExpected[i];
+        }
+        check();
+
+        mModel.invert();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mExpected[i] = !mExpected[i];
+        }
+        check();
+    }
+
+    @Test
+    public void editsWhileInvertedSurviveInvertingBack() {
+        mModel.selectAll();
+        fill(true);
+        mModel.setRangeSelected(10, 70, false);
+        mModel.setSelected(150, false);
+        mModel.toggle(20);
+        for (int i = 10; i < 80; i++) {
+            mExpected[i] = false;
+        }
+        mExpected[150] = false;
+        mExpected[20] = true;
+        check();
+
+        mModel.invert();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mExpected[i] = !mExpected[i];
+        }
+        check();
+    }
+
+    @Test
+    public void shrinkingListDoesNotCountLeftoverBits() {
+        select(5, 150, 190);
+        mModel.invert();
+        mAdapter.mItemCount = 100;
+        mExpected = new boolean[100];
+        fill(true);
+        mExpected[5] = false;
+        check();
+    }
+
+    @Test
+    public void randomOperationsMatchABooleanArray() {
+        final Random random = new Random(5);
+        for (int i = 0; i < OPERATIONS; i++) {
+            final int position = random.nextInt(ITEM_COUNT);
+            switch (random.nextInt(10)) {
+                case 0:
+                    mModel.invert();
+                    for (int p = 0; p < ITEM_COUNT; p++) {
+                        mExpected[p] = !mExpected[p];
+                    }
+                    break;
+                case 1:
+                    final int count = random.nextInt(ITEM_COUNT - position + 1);
+                    final boolean selected = random.nextBoolean();
+                    mModel.setRangeSelected(position, count, selected);
+                    for (int p = position; p < position + count; p++) {
+                        mExpected[p] = selected;
+                    }
+                    break;
+                case 2:
+                    if (random.nextInt(10) == 0) {
+                        mModel.selectAll();
+                        fill(true);
+                    }
+                    break;
+                case 3:
+                    if (random.nextInt(10) == 0) {
+                        mModel.clear();
+                        fill(false);
+                    }
+                    break;
+                default:
+                    mExpected[position] = mModel.toggle(position);
+                    break;
+            }
+            if (i % 50 == 0) {
+                check();
+            }
+        }
+        check();
+    }
+
+    @Test
+    public void inversionSurvivesSaveAndRestore() {
+        select(1, 64, 130);
+        mModel.invert();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mExpected[i] = !mExpected[i];
+        }
+        final Bundle state = new Bundle();
+        mModel.saveInstanceState(state);
+
+        mModel = new BitSetSelectionModel(mAdapter);
+        mModel.restoreInstanceState(state);
+        check();
+    }
+
+    private void select(int... positions) {
+        for (int position : positions) {
+            mModel.setSelected(position, true);
+            mExpected[position] = true;
+        }
+    }
+
+    private void fill(boolean selected) {
+        for (int i = 0; i < mExpected.length; i++) {
+            mExpected[i] = selected;
+        }
+    }
+
+    private void check() {
+        final List<Integer> expectedPositions = new ArrayList<>();
+        for (int i = 0; i < mExpected.length; i++) {
+            assertEquals("position " + i, mExpected[i], mModel.isSelected(i));
+            if (mExpected[i]) {
+                expectedPositions.add(i);
+            }
+        }
+        assertEquals(expectedPositions.size(), mModel.getSelectedCount());
+
+        final List<Integer> walked = new ArrayList<>();
+        final SelectionModel.Cursor cursor = mModel.cursor();
+        for (int position = cursor.next(); position != SelectionModel.Cursor.NO_POSITION; position = cursor.next()) {
+            walked.add(position);
+        }
+        assertEquals(expectedPositions, walked);
+    }
+
+    private static class CountAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        private int mItemCount;
+
+        private CountAdapter(int itemCount) {
+            mItemCount = itemCount;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mItemCount;
+        }
+    }
+}
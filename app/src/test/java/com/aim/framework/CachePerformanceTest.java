@@ -0,0 +1,182 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.api.client.util.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs scripted workloads against the cache and holds them to budgets on preferences reads and
+ * writes, counted from the cache's {@link CacheStats} and the sections it records with
+ * {@link Tracer}. Runs on the JVM, so it needs no device.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CachePerformanceTest {
+    private static final String PREF_KEY = "cache_performance_test";
+    private static final String SESSION_PREF_KEY = "cache_performance_test_session";
+    private static final int ITEM_COUNT = 50;
+    private static final int TRACE_CAPACITY = 16 * 1024;
+
+    private static final String READ = "SharedPreferenceCache.read";
+    private static final String WRITE = "SharedPreferenceCache.write";
+    private static final String SERIALIZE = "SharedPreferenceCache.serialize";
+    private static final String DESERIALIZE = "SharedPreferenceCache.deserialize";
+
+    private SharedPreferenceCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new SharedPreferenceCache(RuntimeEnvironment.application, PREF_KEY);
+        mCache.clearAll();
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.stopRecording();
+    }
+
+    @Test
+    public void repeatedGetsAreServedFromMemory() {
+        Tracer.startRecording(TRACE_CAPACITY);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mCache.put(key(i), new Item(i));
+        }
+        for (int pass = 0; pass < 10; pass++) {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                assertEquals(i, mCache.get(key(i), Item.class).value);
+            }
+        }
+
+        final CacheStats stats = mCache.getStats();
+        assertEquals(ITEM_COUNT, stats.getWrites());
+        assertEquals(10 * ITEM_COUNT, stats.getMemoryHits());
+        assertEquals(0, stats.getDiskHits());
+        assertEquals(0, stats.getMisses());
+        assertEquals(ITEM_COUNT, Tracer.getRecordedSectionCount(WRITE));
+        assertEquals(ITEM_COUNT, Tracer.getRecordedSectionCount(SERIALIZE));
+        assertEquals(0, Tracer.getRecordedSectionCount(READ));
+        assertEquals(0, Tracer.getRecordedSectionCount(DESERIALIZE));
+    }
+
+    @Test
+    public void coldReadsHitDiskOncePerKey() {
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mCache.put(key(i), new Item(i));
+        }
+        // a fresh instance has nothing in memory, as after a process restart
+        final SharedPreferenceCache cold = new SharedPreferenceCache(RuntimeEnvironment.application, PREF_KEY);
+
+        Tracer.startRecording(TRACE_CAPACITY);
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                assertEquals(i, cold.get(key(i), Item.class).value);
+            }
+        }
+        assertNull(cold.get("missing", Item.class));
+
+        final CacheStats stats = cold.getStats();
+        assertEquals(ITEM_COUNT, stats.getDiskHits());
+        assertEquals(2 * ITEM_COUNT, stats.getMemoryHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0, stats.getWrites());
+        assertEquals(ITEM_COUNT + 1, Tracer.getRecordedSectionCount(READ));
+        assertEquals(ITEM_COUNT, Tracer.getRecordedSectionCount(DESERIALIZE));
+        assertEquals(0, Tracer.getRecordedSectionCount(WRITE));
+    }
+
+    @Test
+    public void bulkPutCommitsOnce() {
+        final Map<String, Item> items = new HashMap<>();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.put(key(i), new Item(i));
+        }
+
+        Tracer.startRecording(TRACE_CAPACITY);
+        mCache.putAll(items);
+
+        assertEquals(ITEM_COUNT, mCache.getStats().getWrites());
+        assertEquals(ITEM_COUNT, Tracer.getRecordedSectionCount(SERIALIZE));
+        assertEquals(1, Tracer.getRecordedSectionCount(WRITE));
+    }
+
+    @Test
+    public void signOutDoesNotWriteSynchronously() {
+        final List<Runnable> reclaims = new ArrayList<>();
+        final SessionPartitionedCache sessions = new SessionPartitionedCache(
+                RuntimeEnvironment.application, mCache, SESSION_PREF_KEY, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        reclaims.add(command);
+                    }
+                });
+        // the startup cleanup, which has nothing to remove yet
+        runAll(reclaims);
+        final String previousPrefix = "s" + sessions.getGeneration() + ":";
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            sessions.put(key(i), new Item(i));
+        }
+
+        Tracer.startRecording(TRACE_CAPACITY);
+        assertTrue(sessions.startNewSession());
+
+        // the previous session's items are unreachable right away, but still stored
+        assertEquals(0, Tracer.getRecordedSectionCount(WRITE));
+        final SharedPreferences sessionPrefs =
+                RuntimeEnvironment.application.getSharedPreferences(SESSION_PREF_KEY, Context.MODE_PRIVATE);
+        assertEquals(sessions.getGeneration(), sessionPrefs.getLong("generation", -1));
+        assertNull(sessions.get(key(0), Item.class));
+        assertEquals(1, reclaims.size());
+        final SharedPreferences prefs =
+                RuntimeEnvironment.application.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        assertTrue(prefs.contains(previousPrefix + key(0)));
+
+        // and removed once the deferred cleanup runs
+        runAll(reclaims);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            assertFalse(prefs.contains(previousPrefix + key(i)));
+        }
+    }
+
+    private static void runAll(List<Runnable> runnables) {
+        for (Runnable runnable : runnables) {
+            runnable.run();
+        }
+        runnables.clear();
+    }
+
+    private static String key(int i) {
+        return "item_" + i;
+    }
+
+    public static class Item implements CacheComposite {
+        @Key
+        public int value;
+
+        public Item() {
+        }
+
+        private Item(int value) {
+            this.value = value;
+        }
+    }
+}
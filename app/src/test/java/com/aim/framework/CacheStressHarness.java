@@ -0,0 +1,479 @@
+package com.aim.framework;
+
+import com.google.api.client.util.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs a mix of get, put, remove and clearAll from many threads against any {@link Cache}, checks
+ * what every get returns against what could have been written, and reports throughput and latency
+ * per operation.
+ *
+ * Each key is written (put or removed) by one thread only, and every put stores a value with a
+ * sequence number higher than the key's previous one. Any thread may read any key and any thread
+ * may clear the cache. That allows checking, as each get returns:
+ * <ul>
+ *     <li>the value belongs to the key it was read under;</li>
+ *     <li>the value was actually put, and is not from a put that has not started yet;</li>
+ *     <li>no thread sees a key go back to an older value;</li>
+ *     <li>the writing thread reads back exactly what it last wrote, unless a clearAll overlapped.</li>
+ * </ul>
+ *
+ * With {@link Config#sharedKeys()} every thread writes every key instead, which leaves the first
+ * two checks; once the threads are done, each key must hold the last value one of its writers put.
+ *
+ * Once the threads are done, {@link #snapshot(Cache)} and {@link #checkDurability(Map, Cache)} tell
+ * whether a cache opened afterwards, e.g. after a simulated process kill, holds the same.
+ */
+class CacheStressHarness {
+    private static final String KEY_PREFIX = "stress_";
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+    private static final long NOT_WRITTEN = -1;
+
+    private static final int GET = 0;
+    private static final int PUT = 1;
+    private static final int REMOVE = 2;
+    private static final int CLEAR_ALL = 3;
+    private static final String[] OPERATION_NAMES = {"get", "put", "remove", "clearAll"};
+
+    private final Config mConfig;
+    private final int mKeyCount;
+
+    // shared by the threads of one run
+    private AtomicLongArray mStartedSeqs;
+    private final AtomicLong mLastSeq = new AtomicLong();
+    private final AtomicLong mClearsStarted = new AtomicLong();
+    private final AtomicLong mClearsFinished = new AtomicLong();
+    private final ConcurrentLinkedQueue<String> mViolations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mViolationCount = new AtomicInteger();
+
+    /**
+     * The operation mix and its size. Weights are relative to each other.
+     */
+    static class Config {
+        private int mThreads = 8;
+        private int mOperationsPerThread = 2000;
+        private int mKeysPerThread = 8;
+        private final int[] mWeights = {60, 30, 9, 1};
+        private long mSeed = 1;
+        private boolean mSharedKeys;
+
+        Config threads(int threads) {
+            if (threads < 1)
+                throw new IllegalArgumentException("threads must be at least 1, but was " + threads);
+            mThreads = threads;
+            return this;
+        }
+
+        Config operationsPerThread(int operations) {
+            mOperationsPerThread = operations;
+            return this;
+        }
+
+        Config keysPerThread(int keys) {
+            if (keys < 1)
+                throw new IllegalArgumentException("keys must be at least 1, but was " + keys);
+            mKeysPerThread = keys;
+            return this;
+        }
+
+        Config mix(int get, int put, int remove, int clearAll) {
+            if (get < 0 || put < 0 || remove < 0 || clearAll < 0 || get + put + remove + clearAll == 0)
+                throw new IllegalArgumentException("Weights must not be negative or all zero");
+            mWeights[GET] = get;
+            mWeights[PUT] = put;
+            mWeights[REMOVE] = remove;
+            mWeights[CLEAR_ALL] = clearAll;
+            return this;
+        }
+
+        Config seed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        /**
+         * Have every thread write the same keys, as many as {@link #keysPerThread(int)}, rather
+         * than keys of its own.
+         */
+        Config sharedKeys() {
+            mSharedKeys = true;
+            return this;
+        }
+    }
+
+    /**
+     * What one run did and how fast.
+     */
+    static class Report {
+        final String name;
+        final long operations;
+        final long elapsedNanos;
+        /** Latencies of each operation in nanoseconds, ascending, by operation. */
+        private final long[][] mLatencies;
+        final List<String> violations;
+        final int violationCount;
+
+        private Report(String name, long elapsedNanos, long[][] latencies, List<String> violations, int violationCount) {
+            this.name = name;
+            this.elapsedNanos = elapsedNanos;
+            mLatencies = latencies;
+            long operations = 0;
+            for (long[] latency : latencies) {
+                operations += latency.length;
+            }
+            this.operations = operations;
+            this.violations = violations;
+            this.violationCount = violationCount;
+        }
+
+        double getOperationsPerSecond() {
+            return operations * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * @param operation one of get, put, remove or clearAll
+         * @param percentile between 0 and 100
+         * @return latency in microseconds, or 0 if the operation never ran
+         */
+        double getLatencyMicros(String operation, double percentile) {
+            final long[] latencies = mLatencies[Arrays.asList(OPERATION_NAMES).indexOf(operation)];
+            if (latencies.length == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "%s: %d ops in %d ms, %.0f ops/s, %d violations%n",
+                    name, operations, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getOperationsPerSecond(), violationCount));
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                final String operation = OPERATION_NAMES[op];
+                sb.append(String.format(Locale.US, "  %-8s n=%-7d p50=%8.1fus p99=%8.1fus p99.9=%8.1fus max=%8.1fus%n",
+                        operation, mLatencies[op].length, getLatencyMicros(operation, 50), getLatencyMicros(operation, 99),
+                        getLatencyMicros(operation, 99.9), getLatencyMicros(operation, 100)));
+            }
+            for (String violation : violations) {
+                sb.append("  ").append(violation).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The value every put stores.
+     */
+    public static class Value implements CacheComposite {
+        @Key
+        public String key;
+        @Key
+        public long seq;
+
+        public Value() {
+        }
+
+        private Value(String key, long seq) {
+            this.key = key;
+            this.seq = seq;
+        }
+    }
+
+    CacheStressHarness(Config config) {
+        mConfig = config;
+        mKeyCount = config.mSharedKeys ? config.mKeysPerThread : config.mThreads * config.mKeysPerThread;
+    }
+
+    /**
+     * Clear the cache and run the mix against it, returning once every thread is done.
+     *
+     * @param name for the report
+     * @param cache
+     * @return
+     * @throws InterruptedException
+     */
+    Report run(String name, final Cache cache) throws InterruptedException {
+        cache.clearAll();
+        mStartedSeqs = new AtomicLongArray(mKeyCount);
+        for (int i = 0; i < mKeyCount; i++) {
+            mStartedSeqs.set(i, NOT_WRITTEN);
+        }
+        mLastSeq.set(0);
+        mClearsStarted.set(0);
+        mClearsFinished.set(0);
+        mViolations.clear();
+        mViolationCount.set(0);
+
+        final Worker[] workers = new Worker[mConfig.mThreads];
+        final Thread[] threads = new Thread[mConfig.mThreads];
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, cache, start);
+            threads[i] = new Thread(workers[i], "stress-" + i);
+            threads[i].start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        final long[][] latencies = new long[OPERATION_NAMES.length][];
+        for (int op = 0; op < latencies.length; op++) {
+            int count = 0;
+            for (Worker worker : workers) {
+                count += worker.mCounts[op];
+            }
+            latencies[op] = new long[count];
+            int offset = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.mLatencies[op], 0, latencies[op], offset, worker.mCounts[op]);
+                offset += worker.mCounts[op];
+            }
+            Arrays.sort(latencies[op]);
+        }
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i].mFailure != null) {
+                violation(threads[i].getName(), "threw " + workers[i].mFailure);
+            }
+        }
+        if (mConfig.mSharedKeys) {
+            checkLastWrites(cache, workers);
+        }
+        return new Report(name, elapsedNanos, latencies, new ArrayList<>(mViolations), mViolationCount.get());
+    }
+
+    /**
+     * Read every key the mix uses, with no other thread running.
+     *
+     * @param cache
+     * @return sequence number of the value under each key, absent for keys without one
+     */
+    Map<String, Long> snapshot(Cache cache) {
+        final Map<String, Long> snapshot = new HashMap<>();
+        for (int i = 0; i < mKeyCount; i++) {
+            final Value value = cache.get(key(i), Value.class);
+            if (value != null) {
+                snapshot.put(key(i), value.seq);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param expected from {@link #snapshot(Cache)} of the cache before it went away
+     * @param recovered the cache opened afterwards
+     * @return every key the recovered cache disagrees on
+     */
+    List<String> checkDurability(Map<String, Long> expected, Cache recovered) {
+        final List<String> violations = new ArrayList<>();
+        final Map<String, Long> actual = snapshot(recovered);
+        for (int i = 0; i < mKeyCount; i++) {
+            final String key = key(i);
+            final Long want = expected.get(key);
+            final Long got = actual.get(key);
+            if (want == null ? got != null : !want.equals(got)) {
+                violations.add(key + " was " + want + " before and " + got + " after recovery");
+            }
+        }
+        return Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * Every key has to hold what one of its writers last put, or nothing if one of them last
+     * removed it or the cache was cleared.
+     */
+    private void checkLastWrites(Cache cache, Worker[] workers) {
+        for (int key = 0; key < mKeyCount; key++) {
+            final Value value = cache.get(key(key), Value.class);
+            final long seq = value == null ? NOT_WRITTEN : value.seq;
+            boolean written = false;
+            boolean lastWrite = seq == NOT_WRITTEN && mClearsStarted.get() > 0;
+            for (Worker worker : workers) {
+                if (worker.mWroteKey[key]) {
+                    written = true;
+                    lastWrite |= worker.mWritten[key] == seq;
+                }
+            }
+            if (written ? !lastWrite : seq != NOT_WRITTEN) {
+                violation("after run", key(key) + " holds #" + seq + ", which none of its writers left last");
+            }
+        }
+    }
+
+    private static String key(int index) {
+        return KEY_PREFIX + index;
+    }
+
+    private void violation(String thread, String message) {
+        if (mViolationCount.incrementAndGet() <= MAX_REPORTED_VIOLATIONS) {
+            mViolations.add(thread + ": " + message);
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final int mIndex;
+        private final Cache mCache;
+        private final CountDownLatch mStart;
+        private final Random mRandom;
+        private final int mTotalWeight;
+
+        private final long[][] mLatencies = new long[OPERATION_NAMES.length][];
+        private final int[] mCounts = new int[OPERATION_NAMES.length];
+        private volatile Throwable mFailure;
+
+        /** Highest sequence number this thread has read for each key. */
+        private final long[] mLastSeen = new long[mKeyCount];
+        /** What this thread last wrote to each of its keys, by key index. */
+        private final long[] mWritten = new long[mKeyCount];
+        /** {@link #mClearsStarted} as each of this thread's writes started, by key index. */
+        private final long[] mClearsAtWrite = new long[mKeyCount];
+        /** Whether a clearAll was still running when each of this thread's writes started. */
+        private final boolean[] mClearRunningAtWrite = new boolean[mKeyCount];
+        /** Whether this thread wrote each key at all, by key index. */
+        private final boolean[] mWroteKey = new boolean[mKeyCount];
+
+        private Worker(int index, Cache cache, CountDownLatch start) {
+            mIndex = index;
+            mCache = cache;
+            mStart = start;
+            mRandom = new Random(mConfig.mSeed * 31 + index);
+            int totalWeight = 0;
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                totalWeight += mConfig.mWeights[op];
+                mLatencies[op] = new long[mConfig.mOperationsPerThread];
+            }
+            mTotalWeight = totalWeight;
+            Arrays.fill(mLastSeen, NOT_WRITTEN);
+            Arrays.fill(mWritten, NOT_WRITTEN);
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+                for (int i = 0; i < mConfig.mOperationsPerThread; i++) {
+                    final int op = pickOperation();
+                    final long start = System.nanoTime();
+                    switch (op) {
+                        case GET:
+                            get(mRandom.nextInt(mKeyCount));
+                            break;
+                        case PUT:
+                            put(pickOwnKey());
+                            break;
+                        case REMOVE:
+                            remove(pickOwnKey());
+                            break;
+                        case CLEAR_ALL:
+                            mClearsStarted.incrementAndGet();
+                            mCache.clearAll();
+                            mClearsFinished.incrementAndGet();
+                            break;
+                    }
+                    mLatencies[op][mCounts[op]++] = System.nanoTime() - start;
+                }
+            } catch (Throwable t) {
+                mFailure = t;
+            }
+        }
+
+        private int pickOperation() {
+            int pick = mRandom.nextInt(mTotalWeight);
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                pick -= mConfig.mWeights[op];
+                if (pick < 0) {
+                    return op;
+                }
+            }
+            return GET;
+        }
+
+        /**
+         * Keys are dealt out round robin, so this thread owns every key whose index leaves its own
+         * index modulo the thread count. Shared keys belong to every thread.
+         */
+        private int pickOwnKey() {
+            if (mConfig.mSharedKeys) {
+                return mRandom.nextInt(mKeyCount);
+            }
+            return mIndex + mConfig.mThreads * mRandom.nextInt(mConfig.mKeysPerThread);
+        }
+
+        /**
+         * @return whether this thread is the only one writing the key
+         */
+        private boolean isOwnKey(int key) {
+            return !mConfig.mSharedKeys && key % mConfig.mThreads == mIndex;
+        }
+
+        private void beforeWrite(int key) {
+            final long clearsFinished = mClearsFinished.get();
+            final long clearsStarted = mClearsStarted.get();
+            mClearsAtWrite[key] = clearsStarted;
+            mClearRunningAtWrite[key] = clearsStarted != clearsFinished;
+            mWroteKey[key] = true;
+        }
+
+        private void put(int key) {
+            // unique across threads, so a value read tells which put it came from
+            final long seq = mLastSeq.incrementAndGet();
+            beforeWrite(key);
+            long started = mStartedSeqs.get(key);
+            while (started < seq && !mStartedSeqs.compareAndSet(key, started, seq)) {
+                // another writer of the key moved it on
+                started = mStartedSeqs.get(key);
+            }
+            mCache.put(key(key), new Value(key(key), seq));
+            mWritten[key] = seq;
+        }
+
+        private void remove(int key) {
+            beforeWrite(key);
+            mCache.remove(key(key));
+            mWritten[key] = NOT_WRITTEN;
+        }
+
+        private void get(int key) {
+            final String name = key(key);
+            final Value value = mCache.get(name, Value.class);
+            final long startedSeq = mStartedSeqs.get(key);
+            final long seq = value == null ? NOT_WRITTEN : value.seq;
+            final String thread = Thread.currentThread().getName();
+
+            if (value != null && !name.equals(value.key)) {
+                violation(thread, "read " + value.key + "#" + seq + " under " + name);
+                return;
+            }
+            if (seq > startedSeq) {
+                violation(thread, "read " + name + "#" + seq + " before it was put; latest put is #" + startedSeq);
+            }
+            // writers of a shared key finish out of order, so it may go back legitimately
+            if (value != null && !mConfig.mSharedKeys && seq < mLastSeen[key]) {
+                violation(thread, "read " + name + "#" + seq + " after having read #" + mLastSeen[key]);
+            }
+            mLastSeen[key] = Math.max(mLastSeen[key], seq);
+
+            if (isOwnKey(key) && !mClearRunningAtWrite[key] && mClearsStarted.get() == mClearsAtWrite[key]
+                    && seq != mWritten[key]) {
+                violation(thread, "read " + name + "#" + seq + " after writing #" + mWritten[key]);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.aim.framework;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stresses the cache backends with {@link CacheStressHarness}, then kills the process partway
+ * through a write and checks that a restarted one finds everything that was written before.
+ * Throughput and latency are printed for comparing backends.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CacheStressTest {
+    private static final String PREF_KEY = "cache_stress_test";
+    private static final String SESSION_PREF_KEY = "cache_stress_test_session";
+    private static final long SEED = 42;
+
+    private static final int BLOB_THREADS = 4;
+    private static final int BLOBS_PER_THREAD = 4;
+    private static final int BLOB_VERSIONS = 20;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mRoot;
+
+    /**
+     * Opens the cache under test in a process.
+     */
+    private interface Backend {
+        Cache open(ProcessContext process);
+    }
+
+    private static final Backend SHARED_PREFERENCES = new Backend() {
+        @Override
+        public Cache open(ProcessContext process) {
+            return new SharedPreferenceCache(process, PREF_KEY);
+        }
+    };
+
+    private static final Backend SESSION_PARTITIONED = new Backend() {
+        @Override
+        public Cache open(ProcessContext process) {
+            return new SessionPartitionedCache(process, new SharedPreferenceCache(process, PREF_KEY), SESSION_PREF_KEY);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = mTemporaryFolder.newFolder("process");
+    }
+
+    @Test
+    public void sharedPreferenceCacheIsConsistentAndDurable() throws Exception {
+        stressAndRecover("SharedPreferenceCache", SHARED_PREFERENCES, new CacheStressHarness.Config().seed(SEED));
+    }
+
+    @Test
+    public void sessionPartitionedCacheIsConsistentAndDurable() throws Exception {
+        stressAndRecover("SessionPartitionedCache", SESSION_PARTITIONED, new CacheStressHarness.Config().seed(SEED));
+    }
+
+    @Test
+    public void readHeavyMixOnFewKeys() throws Exception {
+        stressAndRecover("SharedPreferenceCache, read heavy", SHARED_PREFERENCES, new CacheStressHarness.Config()
+                .seed(SEED)
+                .threads(16)
+                .keysPerThread(1)
+                .mix(95, 4, 1, 0));
+    }
+
+    @Test
+    public void writersSharingKeysLeaveMemoryAndDiskAgreeing() throws Exception {
+        stressAndRecover("SharedPreferenceCache, shared keys", SHARED_PREFERENCES, new CacheStressHarness.Config()
+                .seed(SEED)
+                .sharedKeys()
+                .keysPerThread(4)
+                .mix(40, 50, 10, 0));
+    }
+
+    @Test
+    public void concurrentBlobWritersOfOneKeyLeaveAWholeBlob() throws Exception {
+        final SharedPreferenceCache cache = new SharedPreferenceCache(newProcess(), PREF_KEY);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < BLOB_THREADS; t++) {
+            final int thread = t;
+            threads.add(new Thread("blob-writer-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int version = 1; version <= BLOB_VERSIONS; version++) {
+                            for (int i = 0; i < BLOBS_PER_THREAD; i++) {
+                                // every thread writes the same keys, in small chunks to interleave
+                                final byte[] content = blobContent(blobKey(0, i), thread * BLOB_VERSIONS + version);
+                                final OutputStream out = cache.openBlobOutputStream(blobKey(0, i));
+                                for (int offset = 0; offset < content.length; offset += 512) {
+                                    out.write(content, offset, Math.min(512, content.length - offset));
+                                }
+                                out.close();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        final SharedPreferenceCache recovered = new SharedPreferenceCache(newProcess(), PREF_KEY);
+        for (int i = 0; i < BLOBS_PER_THREAD; i++) {
+            final String key = blobKey(0, i);
+            final byte[] content = readBlob(cache, key);
+            assertEquals(key, content.length, cache.getBlobLength(key));
+            assertArrayEquals(key, content, readBlob(recovered, key));
+            // whole, and the last version of one of the writers
+            boolean lastWritten = false;
+            for (int t = 0; t < BLOB_THREADS; t++) {
+                lastWritten |= Arrays.equals(blobContent(key, (t + 1) * BLOB_VERSIONS), content);
+            }
+            assertTrue(key, lastWritten);
+        }
+        assertEquals(0, countTempFiles(mRoot));
+    }
+
+    @Test
+    public void blobWritesKilledMidWriteKeepLastCompleteBlob() throws Exception {
+        final ProcessContext process = newProcess();
+        final SharedPreferenceCache cache = new SharedPreferenceCache(process, PREF_KEY);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < BLOB_THREADS; t++) {
+            final int thread = t;
+            threads.add(new Thread("blob-writer-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int version = 1; version <= BLOB_VERSIONS; version++) {
+                            for (int i = 0; i < BLOBS_PER_THREAD; i++) {
+                                final String key = blobKey(thread, i);
+                                final OutputStream out = cache.openBlobOutputStream(key);
+                                out.write(blobContent(key, version));
+                                out.close();
+                            }
+                        }
+                        // killed before these are closed
+                        for (int i = 0; i < BLOBS_PER_THREAD; i++) {
+                            final String key = blobKey(thread, i);
+                            final byte[] content = blobContent(key, BLOB_VERSIONS + 1);
+                            final OutputStream out = cache.openBlobOutputStream(key);
+                            out.write(content, 0, content.length / 2);
+                            out.flush();
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        process.simulateKillMidWrite(new Random(SEED));
+        final SharedPreferenceCache recovered = new SharedPreferenceCache(newProcess(), PREF_KEY);
+
+        for (int t = 0; t < BLOB_THREADS; t++) {
+            for (int i = 0; i < BLOBS_PER_THREAD; i++) {
+                final String key = blobKey(t, i);
+                final byte[] expected = blobContent(key, BLOB_VERSIONS);
+                assertEquals(key, expected.length, recovered.getBlobLength(key));
+                assertArrayEquals(key, expected, readBlob(recovered, key));
+            }
+        }
+        assertEquals(0, countTempFiles(mRoot));
+    }
+
+    private void stressAndRecover(String name, Backend backend, CacheStressHarness.Config config) throws Exception {
+        final CacheStressHarness harness = new CacheStressHarness(config);
+        final ProcessContext process = newProcess();
+        final Cache cache = backend.open(process);
+
+        final CacheStressHarness.Report report = harness.run(name, cache);
+        System.out.print(report);
+        assertEquals(report.toString(), 0, report.violationCount);
+
+        final Map<String, Long> expected = harness.snapshot(cache);
+        // a commit torn by the kill must not take the earlier ones with it
+        process.simulateKillMidWrite(new Random(SEED));
+
+        final List<String> lost = harness.checkDurability(expected, backend.open(newProcess()));
+        assertTrue(lost.toString(), lost.isEmpty());
+    }
+
+    private ProcessContext newProcess() {
+        return new ProcessContext(RuntimeEnvironment.application, mRoot);
+    }
+
+    private static String blobKey(int thread, int index) {
+        return "blob_" + thread + "_" + index;
+    }
+
+    /**
+     * Content that differs by key and version, length included.
+     */
+    private static byte[] blobContent(String key, int version) {
+        final byte[] content = new byte[1024 + (version * 397) % 8192];
+        final int seed = key.hashCode() * 31 + version;
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (seed + i * 7);
+        }
+        return content;
+    }
+
+    private static byte[] readBlob(BlobCache cache, String key) throws IOException {
+        final InputStream in = cache.openBlobInputStream(key);
+        if (in == null) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return content.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int countTempFiles(File dir) {
+        int count = 0;
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    count += countTempFiles(file);
+                } else if (file.getName().endsWith(".tmp")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+package com.aim.framework;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.NoCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link RequestQueue} for JVM tests that never goes to the network. Added requests are only
+ * recorded, and the test delivers their results, on the calling thread, the way Volley's own
+ * delivery would: canceled requests get nothing.
+ */
+class FakeRequestQueue extends RequestQueue {
+    private final List<Request<?>> mRequests = new ArrayList<>();
+    private final ResponseDelivery mDelivery = new ExecutorDelivery(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+
+    FakeRequestQueue() {
+        super(new NoCache(), new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                throw new VolleyError("No network in tests");
+            }
+        });
+    }
+
+    @Override
+    public <T> Request<T> add(Request<T> request) {
+        mRequests.add(request);
+        return request;
+    }
+
+    /**
+     * @return every request added so far, in order
+     */
+    List<Request<?>> getRequests() {
+        return mRequests;
+    }
+
+    Request<?> getLastRequest() {
+        return mRequests.get(mRequests.size() - 1);
+    }
+
+    void deliverResponse(Request<?> request, Object result) {
+        mDelivery.postResponse(request, Response.success(result, null));
+    }
+
+    void deliverError(Request<?> request, VolleyError error) {
+        mDelivery.postError(request, error);
+    }
+}
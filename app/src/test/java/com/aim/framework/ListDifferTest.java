@@ -0,0 +1,243 @@
+package com.aim.framework;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Diffs randomly edited lists with {@link ListDiffer} and replays the notifications it dispatches
+ * on a copy of the old list, which must come out as the new list with exactly the changed rows
+ * marked.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ListDifferTest {
+    private static final int RUNS = 500;
+    private static final int MAX_SIZE = 60;
+    private static final long INSERTED = Long.MIN_VALUE;
+
+    private static final ListDiffer.ItemCallback<Item> CALLBACK = new ListDiffer.ItemCallback<Item>() {
+        @Override
+        public long getItemId(Item item) {
+            return item.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(Item oldItem, Item newItem) {
+            return oldItem.version == newItem.version;
+        }
+    };
+
+    @Test
+    public void randomEditsReplayToTheNewList() {
+        final Random random = new Random(7);
+        for (int run = 0; run < RUNS; run++) {
+            final List<Item> oldList = randomList(random);
+            final List<Item> newList = edit(oldList, random);
+            checkDiff("run " + run, oldList, newList);
+        }
+    }
+
+    @Test
+    public void edgeCasesReplayToTheNewList() {
+        final List<Item> empty = new ArrayList<>();
+        final List<Item> abc = items(1, 2, 3);
+        checkDiff("empty to empty", empty, empty);
+        checkDiff("empty to some", empty, abc);
+        checkDiff("some to empty", abc, empty);
+        checkDiff("reversed", abc, items(3, 2, 1));
+        checkDiff("rotated", abc, items(2, 3, 1));
+        checkDiff("replaced", abc, items(4, 5, 6));
+    }
+
+    @Test
+    public void hugeEditsFallBackToFullRefresh() {
+        final List<Item> oldList = new ArrayList<>();
+        final List<Item> newList = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            oldList.add(new Item(i, 0));
+            newList.add(new Item(i + 1500, 0));
+        }
+        final ListDiffer.Result result = ListDiffer.diff(oldList, newList, CALLBACK);
+        assertTrue(result.isFullRefresh());
+
+        final ReplayAdapter adapter = new ReplayAdapter(oldList);
+        result.dispatchTo(adapter);
+        assertTrue(adapter.mFullRefresh);
+        assertEquals(0, adapter.mOpCount);
+    }
+
+    private static void checkDiff(String name, List<Item> oldList, List<Item> newList) {
+        final ListDiffer.Result result = ListDiffer.diff(oldList, newList, CALLBACK);
+        assertFalse(name, result.isFullRefresh());
+
+        final ReplayAdapter adapter = new ReplayAdapter(oldList);
+        result.dispatchTo(adapter);
+        assertFalse(name, adapter.mFullRefresh);
+
+        final Set<Long> oldIds = new HashSet<>();
+        for (Item item : oldList) {
+            oldIds.add(item.id);
+        }
+        assertEquals(name, newList.size(), adapter.mIds.size());
+        for (int j = 0; j < newList.size(); j++) {
+            final Item item = newList.get(j);
+            final long replayed = adapter.mIds.get(j);
+            if (replayed == INSERTED) {
+                assertFalse(name + ": item " + item.id + " at " + j + " was inserted but already existed", oldIds.contains(item.id));
+            } else {
+                assertEquals(name + ": position " + j, item.id, replayed);
+            }
+            final boolean changed = replayed != INSERTED && !CALLBACK.areContentsTheSame(find(oldList, item.id), item);
+            assertEquals(name + ": change notification at " + j, changed, adapter.mChanged.contains(j));
+        }
+    }
+
+    private static List<Item> randomList(Random random) {
+        final int size = random.nextInt(MAX_SIZE + 1);
+        final List<Item> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new Item(i, 0));
+        }
+        return list;
+    }
+
+    /**
+     * Removes, moves, inserts and changes a random share of the items.
+     */
+    private static List<Item> edit(List<Item> oldList, Random random) {
+        final List<Item> list = new ArrayList<>();
+        for (Item item : oldList) {
+            if (random.nextInt(5) == 0) {
+                continue;
+            }
+            list.add(random.nextInt(4) == 0 ? new Item(item.id, item.version + 1) : item);
+        }
+        final int moves = list.isEmpty() ? 0 : random.nextInt(4);
+        for (int i = 0; i < moves; i++) {
+            final Item moved = list.remove(random.nextInt(list.size()));
+            list.add(random.nextInt(list.size() + 1), moved);
+        }
+        if (random.nextInt(10) == 0) {
+            Collections.shuffle(list, random);
+        }
+        final int inserts = random.nextInt(MAX_SIZE / 4);
+        for (int i = 0; i < inserts; i++) {
+            list.add(random.nextInt(list.size() + 1), new Item(MAX_SIZE + i, 0));
+        }
+        return list;
+    }
+
+    private static List<Item> items(long... ids) {
+        final List<Item> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(new Item(id, 0));
+        }
+        return list;
+    }
+
+    private static Item find(List<Item> list, long id) {
+        for (Item item : list) {
+            if (item.id == id) {
+                return item;
+            }
+        }
+        throw new AssertionError("No item " + id);
+    }
+
+    private static class Item {
+        private final long id;
+        private final int version;
+
+        private Item(long id, int version) {
+            this.id = id;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Applies every notification it receives to a list of ids. Inserted rows hold
+     * {@link #INSERTED}, and changed rows are recorded by position.
+     */
+    private static class ReplayAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        private final List<Long> mIds = new ArrayList<>();
+        private final Set<Integer> mChanged = new HashSet<>();
+        private boolean mFullRefresh;
+        private int mOpCount;
+
+        private ReplayAdapter(List<Item> items) {
+            for (Item item : items) {
+                mIds.add(item.id);
+            }
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mFullRefresh = true;
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    mOpCount++;
+                    for (int i = positionStart; i < positionStart + itemCount; i++) {
+                        assertTrue("change out of range: " + i, i < mIds.size());
+                        assertTrue("changed twice: " + i, mChanged.add(i));
+                    }
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    mOpCount++;
+                    assertTrue(mChanged.isEmpty());
+                    for (int i = 0; i < itemCount; i++) {
+                        mIds.add(positionStart, INSERTED);
+                    }
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    mOpCount++;
+                    assertTrue(mChanged.isEmpty());
+                    mIds.subList(positionStart, positionStart + itemCount).clear();
+                }
+
+                @Override
+                public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                    mOpCount++;
+                    assertEquals(1, itemCount);
+                    assertTrue(mChanged.isEmpty());
+                    mIds.add(toPosition, mIds.remove(fromPosition));
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mIds.size();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.aim.framework;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link LongHashSet} against a {@link HashSet} under random adds and removes. Keys come from
+ * a small range, so probe runs are long, wrap around the table and get shifted back on almost
+ * every removal.
+ */
+public class LongHashSetTest {
+    private static final int OPERATIONS = 200000;
+    /** Sized so the table has {@link #TABLE_CAPACITY} slots and never grows in the test. */
+    private static final int TABLE_EXPECTED_SIZE = 200;
+    private static final int TABLE_CAPACITY = 512;
+    private static final int HOME_SLOT = TABLE_CAPACITY - 10;
+
+    @Test
+    public void matchesHashSetUnderRandomAddsAndRemoves() {
+        final Random random = new Random(11);
+        final LongHashSet set = new LongHashSet();
+        final Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            // 0 is the table's free marker and is stored on the side
+            final long key = random.nextInt(10) == 0 ? 0 : random.nextInt(300) - 150;
+            if (random.nextInt(3) == 0) {
+                assertEquals("remove " + key, expected.remove(key), set.remove(key));
+            } else {
+                assertEquals("add " + key, expected.add(key), set.add(key));
+            }
+            assertEquals(expected.size(), set.size());
+            if (i % 1000 == 0) {
+                checkContents(expected, set);
+            }
+        }
+        checkContents(expected, set);
+    }
+
+    @Test
+    public void removalKeepsCollidingKeysReachable() {
+        final LongHashSet set = new LongHashSet(TABLE_EXPECTED_SIZE);
+        final Set<Long> expected = new HashSet<>();
+        // one long probe run, with the table's neighbours of that run mixed in
+        final long[] colliding = keysWithHomeSlot(HOME_SLOT, 24);
+        for (int i = 0; i < colliding.length; i++) {
+            set.add(colliding[i]);
+            expected.add(colliding[i]);
+        }
+        final long[] neighbours = keysWithHomeSlot(HOME_SLOT + 3, 8);
+        for (long key : neighbours) {
+            set.add(key);
+            expected.add(key);
+        }
+        for (int i = 0; i < colliding.length; i += 2) {
+            assertTrue(set.remove(colliding[i]));
+            expected.remove(colliding[i]);
+            for (Long key : expected) {
+                assertTrue("lost " + key + " after removing " + colliding[i], set.contains(key));
+            }
+            assertFalse(set.contains(colliding[i]));
+        }
+        assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    public void clearEmptiesTheSet() {
+        final LongHashSet set = new LongHashSet(4);
+        for (long key = -10; key <= 10; key++) {
+            set.add(key);
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(5));
+        assertArrayEquals(new long[0], set.toArray());
+    }
+
+    /**
+     * Keys that hash to the given slot of a table with {@link #TABLE_CAPACITY} slots, using the same
+     * hash as {@link LongHashSet}. Starting near the end of the table makes their run wrap around.
+     */
+    private static long[] keysWithHomeSlot(int slot, int count) {
+        final long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            if (((int) (h ^ (h >>> 32)) & (TABLE_CAPACITY - 1)) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private static void checkContents(Set<Long> expected, LongHashSet set) {
+        for (long key = -151; key <= 151; key++) {
+            assertEquals("contains " + key, expected.contains(key), set.contains(key));
+        }
+        for (Long key : expected) {
+            assertTrue("contains " + key, set.contains(key));
+        }
+        final long[] actual = set.toArray();
+        Arrays.sort(actual);
+        final long[] sorted = new long[expected.size()];
+        int i = 0;
+        for (Long key : expected) {
+            sorted[i++] = key;
+        }
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, actual);
+    }
+}
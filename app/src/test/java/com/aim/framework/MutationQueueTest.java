@@ -0,0 +1,367 @@
+package com.aim.framework;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link MutationQueue#compact(List)}: the compacted log must leave the server in the same
+ * state as the full one, in order, and never change the mutations it was given.
+ *
+ * Also runs whole queues against a recording {@link MutationSender}: batched, ordered replay,
+ * backoff after failed batches, and replay of a log persisted by an earlier queue. Replays run on
+ * the queue's own lane, so those tests wait for batches to arrive; retry delays run on the main
+ * looper's clock, which the tests advance by hand.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MutationQueueTest {
+    private static final Mutation.Operation CREATE = Mutation.Operation.CREATE;
+    private static final Mutation.Operation UPDATE = Mutation.Operation.UPDATE;
+    private static final Mutation.Operation DELETE = Mutation.Operation.DELETE;
+
+    private static final int RUNS = 1000;
+    private static final int ENTITIES = 5;
+
+    private static final String PREF_KEY = "mutation_queue_test";
+    private static final long TIMEOUT_MS = 5000;
+    /** Delay before the first retry of a failed batch; each further failure doubles it. */
+    private static final long INITIAL_BACKOFF_MS = 1000;
+
+    private long mNextSequence;
+
+    private SharedPreferenceCache mCache;
+    private final List<MutationQueue> mQueues = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mCache = new SharedPreferenceCache(RuntimeEnvironment.application, PREF_KEY);
+    }
+
+    @After
+    public void tearDown() {
+        for (MutationQueue queue : mQueues) {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void createThenDeleteSendsNothing() {
+        final List<Mutation> compacted = MutationQueue.compact(log(
+                mutation("a", CREATE, "a1"),
+                mutation("a", DELETE, null)));
+        assertTrue(compacted.isEmpty());
+    }
+
+    @Test
+    public void createThenUpdateSendsOneCreateInTheUpdatesPlace() {
+        final Mutation create = mutation("a", CREATE, "a1");
+        final Mutation other = mutation("b", UPDATE, "b1");
+        final Mutation update = mutation("a", UPDATE, "a2");
+        final List<Mutation> compacted = MutationQueue.compact(log(create, other, update));
+
+        assertEquals(2, compacted.size());
+        assertSame(other, compacted.get(0));
+        final Mutation merged = compacted.get(1);
+        assertEquals(CREATE, merged.getOperation());
+        assertEquals("a2", merged.getPayload());
+        assertEquals(update.getSequence(), merged.getSequence());
+        // the originals may be in a batch on the wire
+        assertEquals(UPDATE, update.getOperation());
+        assertEquals(CREATE, create.getOperation());
+    }
+
+    @Test
+    public void updateThenDeleteSendsTheDelete() {
+        final Mutation delete = mutation("a", DELETE, null);
+        final List<Mutation> compacted = MutationQueue.compact(log(mutation("a", UPDATE, "a1"), delete));
+        assertEquals(1, compacted.size());
+        assertSame(delete, compacted.get(0));
+    }
+
+    @Test
+    public void deleteThenCreateKeepsBoth() {
+        final List<Mutation> compacted = MutationQueue.compact(log(
+                mutation("a", DELETE, null),
+                mutation("a", CREATE, "a2")));
+        assertEquals(2, compacted.size());
+    }
+
+    @Test
+    public void randomLogsCompactToTheSameServerState() {
+        final Random random = new Random(3);
+        for (int run = 0; run < RUNS; run++) {
+            final Map<String, String> initial = new HashMap<>();
+            for (int e = 0; e < ENTITIES; e++) {
+                if (random.nextBoolean()) {
+                    initial.put("e" + e, "initial");
+                }
+            }
+            final List<Mutation> log = randomLog(initial, random);
+            final List<Mutation> compacted = MutationQueue.compact(log);
+
+            assertTrue(compacted.size() <= log.size());
+            assertEquals("run " + run + ": " + log + " compacted to " + compacted,
+                    apply(initial, log), apply(initial, compacted));
+            for (int i = 1; i < compacted.size(); i++) {
+                assertTrue("run " + run + " out of order: " + compacted,
+                        compacted.get(i - 1).getSequence() < compacted.get(i).getSequence());
+            }
+        }
+    }
+
+    @Test
+    public void replaysOldestFirstInBatches() throws Exception {
+        final RecordingSender sender = new RecordingSender();
+        final MutationQueue queue = newQueue("ordered", sender);
+        queue.setBatchSize(3);
+        for (int i = 0; i < 7; i++) {
+            queue.enqueue("e" + i, UPDATE, "v" + i);
+        }
+
+        queue.start();
+
+        assertEquals(Arrays.asList("e0", "e1", "e2"), entityKeys(sender.takeBatch()));
+        assertEquals(Arrays.asList("e3", "e4", "e5"), entityKeys(sender.takeBatch()));
+        assertEquals(Arrays.asList("e6"), entityKeys(sender.takeBatch()));
+        awaitPendingCount(queue, 0);
+    }
+
+    @Test
+    public void failedBatchIsRetriedWithDoublingBackoff() throws Exception {
+        final RecordingSender sender = new RecordingSender();
+        sender.failuresLeft.set(2);
+        final MutationQueue queue = newQueue("backoff", sender);
+        queue.enqueue("a", UPDATE, "a1");
+
+        queue.start();
+        awaitRetryScheduled();
+        assertEquals(1, sender.attempts.get());
+
+        ShadowLooper.idleMainLooper(INITIAL_BACKOFF_MS - 1);
+        assertEquals(1, sender.attempts.get());
+        ShadowLooper.idleMainLooper(1);
+        awaitRetryScheduled();
+        assertEquals(2, sender.attempts.get());
+
+        ShadowLooper.idleMainLooper(2 * INITIAL_BACKOFF_MS - 1);
+        assertEquals(2, sender.attempts.get());
+        ShadowLooper.idleMainLooper(1);
+        assertEquals(Arrays.asList("a"), entityKeys(sender.takeBatch()));
+        assertEquals(3, sender.attempts.get());
+        awaitPendingCount(queue, 0);
+    }
+
+    @Test
+    public void senderBugsAreRetriedLikeFailures() throws Exception {
+        final RecordingSender sender = new RecordingSender();
+        sender.failuresLeft.set(1);
+        sender.failWithRuntimeException = true;
+        final MutationQueue queue = newQueue("sender_bug", sender);
+        queue.enqueue("a", DELETE, null);
+
+        queue.start();
+        awaitRetryScheduled();
+        ShadowLooper.idleMainLooper(INITIAL_BACKOFF_MS);
+        assertEquals(Arrays.asList("a"), entityKeys(sender.takeBatch()));
+    }
+
+    @Test
+    public void persistedLogIsReplayedByTheNextQueue() throws Exception {
+        // never started, so it only records
+        final MutationQueue first = newQueue("recovered", new RecordingSender());
+        first.enqueue("a", CREATE, "a1");
+        first.enqueue("b", UPDATE, "b1");
+        first.enqueue("c", DELETE, null);
+        awaitPersisted("recovered", 3);
+
+        // as after a restart: nothing carried over in memory
+        final RecordingSender sender = new RecordingSender();
+        final MutationQueue second = newQueue("recovered", sender,
+                new SharedPreferenceCache(RuntimeEnvironment.application, PREF_KEY));
+        second.enqueue("d", UPDATE, "d1");
+        second.start();
+
+        final List<Mutation> batch = sender.takeBatch();
+        // what was on disk goes first, then what was made since
+        assertEquals(Arrays.asList("a", "b", "c", "d"), entityKeys(batch));
+        for (int i = 1; i < batch.size(); i++) {
+            assertTrue(batch.get(i - 1).getSequence() < batch.get(i).getSequence());
+        }
+        awaitPendingCount(second, 0);
+        awaitPersisted("recovered", 0);
+    }
+
+    @Test
+    public void deleteCommitterQueuesDeletesInOrder() throws Exception {
+        final RecordingSender sender = new RecordingSender();
+        final MutationQueue queue = newQueue("swipe_deletes", sender);
+        final DeferredDeleteController.Committer<String> committer = queue.newDeleteCommitter(
+                new MutationQueue.EntityKeys<String>() {
+                    @Override
+                    public String getEntityKey(String item) {
+                        return "row:" + item;
+                    }
+                });
+
+        committer.commitDeletes(Arrays.asList("3", "1", "2"));
+        assertEquals(3, queue.getPendingCount());
+        queue.start();
+
+        final List<Mutation> batch = sender.takeBatch();
+        assertEquals(Arrays.asList("row:3", "row:1", "row:2"), entityKeys(batch));
+        for (Mutation mutation : batch) {
+            assertEquals(DELETE, mutation.getOperation());
+        }
+    }
+
+    private MutationQueue newQueue(String name, MutationSender sender) {
+        return newQueue(name, sender, mCache);
+    }
+
+    private MutationQueue newQueue(String name, MutationSender sender, BlobCache cache) {
+        final MutationQueue queue = new MutationQueue(RuntimeEnvironment.application, name, sender, cache);
+        mQueues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Wait until a failed batch has scheduled its retry on the main looper.
+     */
+    private static void awaitRetryScheduled() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (Robolectric.getForegroundThreadScheduler().size() == 0) {
+            assertTrue("No retry was scheduled", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitPendingCount(MutationQueue queue, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (queue.getPendingCount() != count) {
+            assertTrue("Still " + queue.getPendingCount() + " pending", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitPersisted(String name, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            final MutationLog log = new SharedPreferenceCache(RuntimeEnvironment.application, PREF_KEY)
+                    .get("mutation_queue:" + name, MutationLog.class);
+            if (log != null && log.mutations.size() == count) {
+                return;
+            }
+            assertTrue("Log was not persisted", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> entityKeys(List<Mutation> batch) {
+        final List<String> keys = new ArrayList<>(batch.size());
+        for (Mutation mutation : batch) {
+            keys.add(mutation.getEntityKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Only valid sequences: creates of missing entities, updates and deletes of existing ones.
+     */
+    private List<Mutation> randomLog(Map<String, String> initial, Random random) {
+        final Map<String, String> state = new HashMap<>(initial);
+        final int length = random.nextInt(20);
+        final List<Mutation> log = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            final String key = "e" + random.nextInt(ENTITIES);
+            final Mutation mutation;
+            if (!state.containsKey(key)) {
+                mutation = mutation(key, CREATE, "v" + i);
+            } else if (random.nextBoolean()) {
+                mutation = mutation(key, UPDATE, "v" + i);
+            } else {
+                mutation = mutation(key, DELETE, null);
+            }
+            log.add(mutation);
+            applyTo(state, mutation);
+        }
+        return log;
+    }
+
+    private static Map<String, String> apply(Map<String, String> initial, List<Mutation> log) {
+        final Map<String, String> state = new HashMap<>(initial);
+        for (Mutation mutation : log) {
+            applyTo(state, mutation);
+        }
+        return state;
+    }
+
+    private static void applyTo(Map<String, String> state, Mutation mutation) {
+        if (mutation.getOperation() == DELETE) {
+            state.remove(mutation.getEntityKey());
+        } else {
+            state.put(mutation.getEntityKey(), mutation.getPayload());
+        }
+    }
+
+    private Mutation mutation(String entityKey, Mutation.Operation operation, String payload) {
+        return new Mutation(mNextSequence++, entityKey, operation, payload);
+    }
+
+    private static List<Mutation> log(Mutation... mutations) {
+        final List<Mutation> log = new ArrayList<>(mutations.length);
+        for (Mutation mutation : mutations) {
+            log.add(mutation);
+        }
+        return log;
+    }
+
+    private static class RecordingSender implements MutationSender {
+        private final BlockingQueue<List<Mutation>> batches = new LinkedBlockingQueue<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+        /** Calls that fail before the sender starts accepting batches. */
+        private final AtomicInteger failuresLeft = new AtomicInteger();
+        private volatile boolean failWithRuntimeException;
+
+        @Override
+        public void sendBatch(List<Mutation> batch) throws IOException {
+            attempts.incrementAndGet();
+            if (failuresLeft.getAndDecrement() > 0) {
+                if (failWithRuntimeException) {
+                    throw new IllegalStateException("Sender bug");
+                }
+                throw new IOException("Server unavailable");
+            }
+            batches.add(new ArrayList<>(batch));
+        }
+
+        private List<Mutation> takeBatch() throws InterruptedException {
+            final List<Mutation> batch = batches.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("No batch was sent", batch);
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.aim.framework;
+
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which pages {@link PagedAdapter} loads and keeps as rows are bound: prefetching in the
+ * direction the list scrolls, dropping pages far from the viewport, and retrying failed pages with
+ * backoff. Page loads are queued rather than run, and the main looper is paused, so each test
+ * decides when loads run and when their results arrive.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PagedAdapterTest {
+    private static final int PAGE_SIZE = 10;
+    private static final int ITEM_COUNT = 1000;
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final int SCROLL_STEP = 40;
+
+    private final List<Runnable> mLoads = new ArrayList<>();
+    private FakeSource mSource;
+    private TestAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        mSource = new FakeSource();
+        mAdapter = new TestAdapter(mSource, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mLoads.add(command);
+            }
+        });
+        // the count
+        runLoads();
+        assertEquals(ITEM_COUNT, mAdapter.getItemCount());
+    }
+
+    @After
+    public void tearDown() {
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void bindLoadsThePageAndPrefetchesAhead() {
+        mAdapter.onPositionAccessed(0);
+        runLoads();
+
+        assertEquals(Arrays.asList(0, 1), mSource.loadedPages);
+        assertEquals(Integer.valueOf(5), mAdapter.getItem(5));
+        assertEquals(Integer.valueOf(15), mAdapter.getItem(15));
+        assertNull(mAdapter.getItem(25));
+    }
+
+    @Test
+    public void prefetchFollowsTheScrollDirection() {
+        mAdapter.onListScrolled(0, SCROLL_STEP);
+        mAdapter.onPositionAccessed(500);
+        runLoads();
+        assertEquals(Arrays.asList(50, 51), mSource.loadedPages);
+
+        mSource.loadedPages.clear();
+        mAdapter.onListScrolled(0, -SCROLL_STEP);
+        mAdapter.onPositionAccessed(495);
+        runLoads();
+        assertEquals(Arrays.asList(49, 48), mSource.loadedPages);
+    }
+
+    @Test
+    public void bindOrderDoesNotTurnThePrefetchAround() {
+        mAdapter.onListScrolled(0, SCROLL_STEP);
+        mAdapter.onPositionAccessed(500);
+        runLoads();
+        mSource.loadedPages.clear();
+
+        // the arrived page is rebound in fill order: from the anchor down, then back up
+        for (int position = 505; position < 510; position++) {
+            mAdapter.onPositionAccessed(position);
+        }
+        for (int position = 504; position >= 500; position--) {
+            mAdapter.onPositionAccessed(position);
+        }
+        runLoads();
+
+        // still prefetching forwards, where page 51 is already loaded, not back to page 49
+        assertTrue(mSource.loadedPages.isEmpty());
+    }
+
+    @Test
+    public void getItemLeavesThePrefetchWindowAlone() {
+        mAdapter.setMaxResidentPages(2);
+        mAdapter.onPositionAccessed(500);
+        runLoads();
+        mSource.loadedPages.clear();
+
+        // e.g. a click handler looking up a row far from the last bound one
+        assertNull(mAdapter.getItem(100));
+        assertTrue(mLoads.isEmpty());
+        assertNotNull(mAdapter.getItem(500));
+        assertNotNull(mAdapter.getItem(510));
+    }
+
+    @Test
+    public void pagesFarFromTheViewportAreDropped() {
+        mAdapter.setMaxResidentPages(4);
+        for (int position = 0; position <= 100; position += PAGE_SIZE) {
+            mAdapter.onPositionAccessed(position);
+            runLoads();
+        }
+
+        // scrolling forward from page 10: one page behind, the current one and two ahead
+        assertNull(mAdapter.getItem(80));
+        assertNotNull(mAdapter.getItem(90));
+        assertNotNull(mAdapter.getItem(100));
+        assertNotNull(mAdapter.getItem(110));
+        assertNull(mAdapter.getItem(130));
+        assertNull(mAdapter.getItem(0));
+    }
+
+    @Test
+    public void droppedPagesAreLoadedAgainWhenBound() {
+        mAdapter.setMaxResidentPages(2);
+        mAdapter.onPositionAccessed(0);
+        runLoads();
+        mAdapter.onPositionAccessed(500);
+        runLoads();
+        assertNull(mAdapter.getItem(0));
+
+        mSource.loadedPages.clear();
+        mAdapter.onPositionAccessed(0);
+        runLoads();
+        assertTrue(mSource.loadedPages.contains(0));
+        assertEquals(Integer.valueOf(0), mAdapter.getItem(0));
+    }
+
+    @Test
+    public void failedPageIsRetriedWithDoublingBackoff() {
+        mSource.failingPage = 20;
+        mSource.failuresLeft = 2;
+        mAdapter.onPositionAccessed(PAGE_SIZE * 20);
+        runLoads();
+        assertEquals(1, mAdapter.failures);
+
+        // binding again while the retry is pending does not hammer the source
+        mAdapter.onPositionAccessed(PAGE_SIZE * 20 + 1);
+        assertTrue(mLoads.isEmpty());
+
+        ShadowLooper.idleMainLooper(INITIAL_RETRY_DELAY_MS - 1);
+        assertTrue(mLoads.isEmpty());
+        ShadowLooper.idleMainLooper(1);
+        runLoads();
+        assertEquals(2, mAdapter.failures);
+
+        ShadowLooper.idleMainLooper(2 * INITIAL_RETRY_DELAY_MS - 1);
+        assertTrue(mLoads.isEmpty());
+        ShadowLooper.idleMainLooper(1);
+        runLoads();
+        assertEquals(2, mAdapter.failures);
+        assertEquals(Integer.valueOf(PAGE_SIZE * 20), mAdapter.getItem(PAGE_SIZE * 20));
+    }
+
+    @Test
+    public void failedPageIsNotRetriedOnceTheListMovedAway() {
+        mSource.failingPage = 0;
+        mSource.failuresLeft = 1;
+        mAdapter.onPositionAccessed(0);
+        runLoads();
+        assertEquals(1, mAdapter.failures);
+
+        mAdapter.onPositionAccessed(500);
+        runLoads();
+        mSource.loadedPages.clear();
+
+        ShadowLooper.idleMainLooper(INITIAL_RETRY_DELAY_MS);
+        runLoads();
+        assertFalse(mSource.loadedPages.contains(0));
+    }
+
+    /**
+     * Run the queued page loads, then deliver their results on the main thread.
+     */
+    private void runLoads() {
+        while (!mLoads.isEmpty()) {
+            final List<Runnable> loads = new ArrayList<>(mLoads);
+            mLoads.clear();
+            for (Runnable load : loads) {
+                load.run();
+            }
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private static class FakeSource implements PageSource<Integer> {
+        private final List<Integer> loadedPages = new ArrayList<>();
+        private int failingPage = -1;
+        /** Loads of failingPage that fail before it recovers. */
+        private int failuresLeft;
+
+        @Override
+        public int getCount() {
+            return ITEM_COUNT;
+        }
+
+        @Override
+        public List<Integer> loadPage(int pageIndex, int pageSize) throws IOException {
+            if (pageIndex == failingPage && failuresLeft > 0) {
+                failuresLeft--;
+                throw new IOException("Page " + pageIndex + " is unavailable");
+            }
+            loadedPages.add(pageIndex);
+            final List<Integer> page = new ArrayList<>(pageSize);
+            for (int i = pageIndex * pageSize; i < Math.min((pageIndex + 1) * pageSize, ITEM_COUNT); i++) {
+                page.add(i);
+            }
+            return page;
+        }
+    }
+
+    private static class TestAdapter extends PagedAdapter<Integer, DraggableAndMultiSelectableRecyclerView.ViewHolder> {
+        private int failures;
+
+        private TestAdapter(PageSource<Integer> source, Executor pageExecutor) {
+            super(source, PAGE_SIZE, pageExecutor);
+        }
+
+        @Override
+        public DraggableAndMultiSelectableRecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException("Not attached to a list");
+        }
+
+        @Override
+        protected void onBindItem(DraggableAndMultiSelectableRecyclerView.ViewHolder holder, int position, Integer item) {
+        }
+
+        @Override
+        protected void onPageLoadFailed(int pageIndex, Exception e) {
+            failures++;
+        }
+    }
+}
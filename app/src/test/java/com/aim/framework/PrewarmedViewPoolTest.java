@@ -0,0 +1,207 @@
+package com.aim.framework;
+
+import android.app.Activity;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link PrewarmedViewPool} has holders ready before a list needs them, hands out views
+ * inflated ahead of time, and keeps holders between the lists that share it. Background inflation
+ * is queued rather than run, so each test decides when it happens.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PrewarmedViewPoolTest {
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+    private static final int ITEM_HEIGHT = 80;
+    private static final int ITEM_COUNT = 100;
+
+    private static final int VIEW_TYPE = 0;
+    private static final int MAX_RECYCLED = 16;
+    private static final int PREWARM_COUNT = 12;
+
+    private Activity mActivity;
+    private final List<Runnable> mInflates = new ArrayList<>();
+    private PrewarmedViewPool mPool;
+
+    @Before
+    public void setUp() {
+        mActivity = Robolectric.setupActivity(Activity.class);
+        mPool = new PrewarmedViewPool(mActivity, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mInflates.add(command);
+            }
+        });
+        mPool.declareViewType(VIEW_TYPE, R.layout.row_thumbnail, MAX_RECYCLED, PREWARM_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotPrewarmMoreThanThePoolKeeps() {
+        mPool.declareViewType(VIEW_TYPE, R.layout.row_thumbnail, MAX_RECYCLED, MAX_RECYCLED + 1);
+    }
+
+    @Test
+    public void obtainViewInflatesOnDemandWhenNothingIsReady() {
+        final RecyclerView list = newList(new CountingAdapter());
+        final View view = mPool.obtainView(R.layout.row_thumbnail, list);
+        assertNotNull(view.findViewById(R.id.thumbnail));
+    }
+
+    @Test
+    public void obtainViewTakesViewsInflatedAheadOfTime() {
+        final RecyclerView list = newList(new CountingAdapter());
+        mPool.prewarm(list);
+        assertEquals(PREWARM_COUNT, mInflates.size());
+        runAll(mInflates);
+        assertEquals(PREWARM_COUNT, mPool.getReadyViewCount(R.layout.row_thumbnail));
+
+        final View view = mPool.obtainView(R.layout.row_thumbnail, list);
+        assertEquals(PREWARM_COUNT - 1, mPool.getReadyViewCount(R.layout.row_thumbnail));
+        // inflated against a stand-in parent, then given the list's own layout params
+        assertSame(RecyclerView.LayoutParams.class, view.getLayoutParams().getClass());
+    }
+
+    @Test
+    public void prewarmOnlyInflatesWhatIsMissing() {
+        final RecyclerView list = newList(new CountingAdapter());
+        mPool.prewarm(list);
+        runAll(mInflates);
+        mPool.obtainView(R.layout.row_thumbnail, list);
+
+        mPool.prewarm(list);
+        assertEquals(1, mInflates.size());
+    }
+
+    @Test
+    public void prewarmParksTheDeclaredNumberOfHolders() {
+        final CountingAdapter adapter = new CountingAdapter();
+        final RecyclerView list = newList(adapter);
+        mPool.prewarm(list);
+        prewarmAll();
+
+        assertEquals(PREWARM_COUNT, adapter.creates);
+        for (int i = 0; i < PREWARM_COUNT; i++) {
+            assertNotNull(mPool.getRecycledView(VIEW_TYPE));
+        }
+        assertNull(mPool.getRecycledView(VIEW_TYPE));
+    }
+
+    @Test
+    public void firstLayoutCreatesNoHoldersOnceWarm() {
+        final CountingAdapter adapter = new CountingAdapter();
+        final RecyclerView list = newList(adapter);
+        mPool.prewarm(list);
+        prewarmAll();
+        adapter.creates = 0;
+
+        attachAndLayout(list);
+
+        // a screenful is HEIGHT / ITEM_HEIGHT rows, all of them taken from the pool
+        assertEquals(0, adapter.creates);
+    }
+
+    @Test
+    public void nextListReusesReturnedHolders() {
+        final CountingAdapter firstAdapter = new CountingAdapter();
+        final RecyclerView first = newList(firstAdapter);
+        mPool.prewarm(first);
+        prewarmAll();
+        attachAndLayout(first);
+        mPool.returnViews(first);
+
+        // declared again by the next fragment, as ChallengeActivityFragment does
+        mPool.declareViewType(VIEW_TYPE, R.layout.row_thumbnail, MAX_RECYCLED, PREWARM_COUNT);
+        final CountingAdapter secondAdapter = new CountingAdapter();
+        final RecyclerView second = newList(secondAdapter);
+        mPool.prewarm(second);
+        prewarmAll();
+        attachAndLayout(second);
+
+        assertEquals(0, secondAdapter.creates);
+    }
+
+    @Test
+    public void releaseDropsEverything() {
+        final RecyclerView list = newList(new CountingAdapter());
+        mPool.prewarm(list);
+        prewarmAll();
+        mPool.release();
+
+        assertNull(mPool.getRecycledView(VIEW_TYPE));
+        // inflates still queued at release are not kept
+        runAll(mInflates);
+        assertEquals(0, mPool.getReadyViewCount(R.layout.row_thumbnail));
+    }
+
+    private RecyclerView newList(CountingAdapter adapter) {
+        final DraggableAndMultiSelectableRecyclerView list = new DraggableAndMultiSelectableRecyclerView(mActivity);
+        list.setAdapter(adapter);
+        return list;
+    }
+
+    private void prewarmAll() {
+        while (mPool.prewarmOne()) {
+            // one holder per idle pass
+        }
+    }
+
+    private void attachAndLayout(RecyclerView list) {
+        mActivity.setContentView(list);
+        list.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        list.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private static void runAll(List<Runnable> runnables) {
+        for (Runnable runnable : runnables) {
+            runnable.run();
+        }
+        runnables.clear();
+    }
+
+    private static class CountingAdapter extends DraggableAndMultiSelectableRecyclerView.Adapter<DraggableAndMultiSelectableRecyclerView.ViewHolder> {
+        private int creates;
+
+        @Override
+        public DraggableAndMultiSelectableRecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            creates++;
+            final View view = new View(parent.getContext());
+            view.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ITEM_HEIGHT));
+            return new DraggableAndMultiSelectableRecyclerView.ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(DraggableAndMultiSelectableRecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return ITEM_COUNT;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.aim.framework;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Stands in for one app process in JVM tests. Shared preferences are kept in files under a root
+ * directory and committed the way the platform commits them (the last good file is moved aside as
+ * a backup, the new one written, then the backup dropped), and the cache directory lives there
+ * too. A new instance over the same directory sees what a restarted process would.
+ *
+ * Unlike Robolectric's preferences, these are thread safe, so caches can be stressed from many
+ * threads.
+ */
+class ProcessContext extends ContextWrapper {
+    private static final String PREFS_SUFFIX = ".prefs";
+    private static final String BACKUP_SUFFIX = ".bak";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File mPrefsDir;
+    private final File mCacheDir;
+    private final HashMap<String, FilePreferences> mPreferences = new HashMap<>();
+
+    /**
+     * @param base for resources and everything else that is not stored
+     * @param root where this process keeps its files, across restarts
+     */
+    ProcessContext(Context base, File root) {
+        super(base);
+        mPrefsDir = new File(root, "shared_prefs");
+        mCacheDir = new File(root, "cache");
+        mPrefsDir.mkdirs();
+        mCacheDir.mkdirs();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return mCacheDir;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        FilePreferences preferences = mPreferences.get(name);
+        if (preferences == null) {
+            preferences = new FilePreferences(new File(mPrefsDir, name + PREFS_SUFFIX));
+            mPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    /**
+     * Leave the files as a process killed partway through writing them would: every preferences
+     * file is caught mid-commit, with its last good copy moved to the backup and the new copy cut
+     * short, and blobs still being written have their temp files cut short. Nothing of this
+     * process may be used afterwards; start a new one over the same root.
+     *
+     * @param random picks where each file is cut
+     * @throws IOException
+     */
+    void simulateKillMidWrite(Random random) throws IOException {
+        final File[] prefsFiles = mPrefsDir.listFiles();
+        if (prefsFiles != null) {
+            for (File file : prefsFiles) {
+                final File backup = new File(file.getPath() + BACKUP_SUFFIX);
+                if (!file.getName().endsWith(PREFS_SUFFIX) || backup.exists() || !file.renameTo(backup)) {
+                    continue;
+                }
+                copyPrefix(backup, file, (long) (random.nextDouble() * backup.length()));
+            }
+        }
+        truncateTempFiles(mCacheDir, random);
+    }
+
+    private static void truncateTempFiles(File dir, Random random) throws IOException {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                truncateTempFiles(file, random);
+            } else if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength((long) (random.nextDouble() * raf.length()));
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+    }
+
+    private static void copyPrefix(File from, File to, long length) throws IOException {
+        final FileInputStream in = new FileInputStream(from);
+        final FileOutputStream out = new FileOutputStream(to);
+        try {
+            final byte[] buffer = new byte[4096];
+            long remaining = length;
+            while (remaining > 0) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Preferences held in memory and written out whole on every commit. Listeners are not
+     * supported, and apply commits synchronously.
+     */
+    private static class FilePreferences implements SharedPreferences {
+        private final File mFile;
+        private final File mBackup;
+        /** Guarded by this. */
+        private final HashMap<String, Object> mValues;
+
+        private FilePreferences(File file) {
+            mFile = file;
+            mBackup = new File(file.getPath() + BACKUP_SUFFIX);
+            mValues = load();
+        }
+
+        /**
+         * A backup means the last commit never finished, so it wins over the file; an unreadable
+         * file is dropped, as the platform does.
+         */
+        @SuppressWarnings("unchecked")
+        private HashMap<String, Object> load() {
+            if (mBackup.exists()) {
+                mFile.delete();
+                mBackup.renameTo(mFile);
+            }
+            if (!mFile.exists()) {
+                return new HashMap<>();
+            }
+            try {
+                final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+                try {
+                    return (HashMap<String, Object>) in.readObject();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                return new HashMap<>();
+            }
+        }
+
+        private void write() throws IOException {
+            if (mFile.exists()) {
+                if (!mBackup.exists()) {
+                    if (!mFile.renameTo(mBackup))
+                        throw new IOException("Unable to back up " + mFile);
+                } else {
+                    mFile.delete();
+                }
+            }
+            final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            try {
+                out.writeObject(mValues);
+            } finally {
+                out.close();
+            }
+            mBackup.delete();
+        }
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(mValues);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            final Object value = mValues.get(key);
+            return value != null ? (String) value : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            final Object value = mValues.get(key);
+            return value != null ? (Set<String>) value : defValues;
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            final Object value = mValues.get(key);
+            return value != null ? (Integer) value : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            final Object value = mValues.get(key);
+            return value != null ? (Long) value : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            final Object value = mValues.get(key);
+            return value != null ? (Float) value : defValue;
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            final Object value = mValues.get(key);
+            return value != null ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new FileEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        private class FileEditor implements Editor {
+            /** A null value removes its key. */
+            private final HashMap<String, Object> mChanges = new HashMap<>();
+            private boolean mClear;
+
+            private Editor set(String key, Object value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                return set(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return set(key, values == null ? null : new HashSet<>(values));
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return set(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return set(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return set(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return set(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                return set(key, null);
+            }
+
+            @Override
+            public Editor clear() {
+                mClear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (FilePreferences.this) {
+                    // like the platform, a clear applies before this editor's own changes
+                    if (mClear) {
+                        mValues.clear();
+                    }
+                    for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                        if (change.getValue() == null) {
+                            mValues.remove(change.getKey());
+                        } else {
+                            mValues.put(change.getKey(), change.getValue());
+                        }
+                    }
+                    try {
+                        write();
+                        return true;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
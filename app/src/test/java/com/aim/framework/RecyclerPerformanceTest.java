@@ -0,0 +1,351 @@
+package com.aim.framework;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.support.v7.widget.RecyclerView;
+import android.view.ActionMode;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link DraggableAndMultiSelectableRecyclerView} with synthetic touch streams and holds it
+ * to budgets on allocations per drag frame, binds and adapter notifications. Runs on the JVM, so
+ * it needs no device.
+ *
+ * The runtime's allocation counter that {@link GestureFrameStats} reads does not count anything on
+ * the JVM, so allocations are measured in bytes with the JVM's per-thread counter instead, against
+ * the same gesture with dragging disabled. That cancels out what the framework and Robolectric
+ * allocate per event and leaves what the drag handler adds.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RecyclerPerformanceTest {
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+    private static final int ITEM_HEIGHT = 80;
+    private static final int ITEM_COUNT = 100;
+
+    private static final int DRAG_FRAMES = 60;
+    private static final float DRAG_STEP_X = 3f;
+    /** Frames at the start of a drag that may allocate, while the drag is picked up. */
+    private static final int DRAG_PICK_UP_FRAMES = 5;
+    /** Average bytes a steady drag frame may allocate on top of the framework's own. */
+    private static final long DRAG_FRAME_ALLOCATION_BUDGET_BYTES = 256;
+
+    private DraggableAndMultiSelectableRecyclerView mRecyclerView;
+    private CountingAdapter mAdapter;
+    private CountingObserver mObserver;
+    private RecordingListener mListener;
+
+    @Before
+    public void setUp() {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        mRecyclerView = new DraggableAndMultiSelectableRecyclerView(activity);
+        mAdapter = new CountingAdapter();
+        mObserver = new CountingObserver();
+        mListener = new RecordingListener();
+        mAdapter.registerAdapterDataObserver(mObserver);
+        mRecyclerView.setAdapter(mAdapter);
+        mRecyclerView.setRecyclerViewListener(mListener);
+        mRecyclerView.setActionModeCallback(new EmptyActionModeCallback());
+        activity.setContentView(mRecyclerView);
+        layout();
+        mAdapter.resetCounts();
+    }
+
+    @After
+    public void tearDown() {
+        mRecyclerView.getGestureFrameStats().setEnabled(false);
+    }
+
+    @Test
+    public void dragFramesStayWithinAllocationBudget() {
+        mRecyclerView.setFeatureEnabled(DraggableAndMultiSelectableRecyclerView.RecyclerFeature.ITEM_DRAG, false);
+        // warm up both paths, so class loading and first-use caches are not measured
+        drag(rowCenterY(2));
+        mRecyclerView.setFeatureEnabled(DraggableAndMultiSelectableRecyclerView.RecyclerFeature.ITEM_DRAG, true);
+        drag(rowCenterY(2));
+        settle();
+
+        mRecyclerView.setFeatureEnabled(DraggableAndMultiSelectableRecyclerView.RecyclerFeature.ITEM_DRAG, false);
+        final long baselineBytes = drag(rowCenterY(3));
+        settle();
+
+        mRecyclerView.setFeatureEnabled(DraggableAndMultiSelectableRecyclerView.RecyclerFeature.ITEM_DRAG, true);
+        mRecyclerView.getGestureFrameStats().setEnabled(true);
+        mAdapter.resetCounts();
+        mObserver.reset();
+        mListener.reset();
+        final long dragBytes = drag(rowCenterY(3));
+        settle();
+
+        final int steadyFrames = DRAG_FRAMES - DRAG_PICK_UP_FRAMES;
+        final long extraBytesPerFrame = Math.max(0, dragBytes - baselineBytes) / steadyFrames;
+        assertTrue("drag frames allocated " + extraBytesPerFrame + " bytes each on top of the framework",
+                extraBytesPerFrame <= DRAG_FRAME_ALLOCATION_BUDGET_BYTES);
+        assertTrue("the drag handler never ran", mRecyclerView.getGestureFrameStats().getFrames() > 0);
+
+        // a drag only transforms the view; it never rebinds or notifies
+        assertEquals(0, mAdapter.binds);
+        assertEquals(0, mAdapter.creates);
+        assertEquals(0, mObserver.notifications);
+        // one for picking up, one for letting go
+        assertEquals(2, mAdapter.payloadBinds);
+        assertEquals(1, mListener.deleteRequests);
+    }
+
+    @Test
+    public void longPressSelectsWithOnePartialBind() {
+        mRecyclerView.setFeatureEnabled(DraggableAndMultiSelectableRecyclerView.RecyclerFeature.MULTI_SELECT, true);
+
+        longPress(rowCenterY(2));
+
+        assertEquals(1, mAdapter.getSelectedItemCount());
+        assertTrue(mAdapter.isPositionSelected(2));
+        assertEquals(1, mAdapter.payloadBinds);
+        assertEquals(0, mAdapter.binds);
+        assertEquals(0, mObserver.notifications);
+        assertEquals(0, mListener.selections);
+
+        // taps now toggle the selection, each with one partial bind
+        tap(rowCenterY(4));
+        tap(rowCenterY(6));
+        tap(rowCenterY(4));
+
+        assertEquals(2, mAdapter.getSelectedItemCount());
+        assertEquals(4, mAdapter.payloadBinds);
+        assertEquals(0, mAdapter.binds);
+        assertEquals(0, mAdapter.creates);
+        assertEquals(0, mObserver.notifications);
+    }
+
+    @Test
+    public void rapidTapsSelectWithoutRebinding() {
+        final int taps = 50;
+        for (int i = 0; i < taps; i++) {
+            // alternate rows further apart than the double-tap slop, so no tap is taken for a double tap
+            tap(rowCenterY(i % 2 == 0 ? 1 : 6));
+        }
+
+        assertEquals(taps, mListener.selections);
+        assertEquals(0, mAdapter.binds);
+        assertEquals(0, mAdapter.payloadBinds);
+        assertEquals(0, mAdapter.creates);
+        assertEquals(0, mObserver.notifications);
+    }
+
+    // region TOUCH SCRIPTS
+
+    /**
+     * Drag a row to the right, well past the delete threshold, and let go.
+     *
+     * @param y
+     * @return bytes allocated on this thread by the move events after the first few
+     */
+    private long drag(float y) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float startX = WIDTH / 4;
+        // obtained up front, so the script's own allocations are not measured
+        final MotionEvent[] moves = new MotionEvent[DRAG_FRAMES];
+        for (int i = 0; i < DRAG_FRAMES; i++) {
+            moves[i] = MotionEvent.obtain(downTime, downTime + 16 * (i + 1), MotionEvent.ACTION_MOVE,
+                    startX + DRAG_STEP_X * (i + 1), y, 0);
+        }
+
+        dispatch(downTime, downTime, MotionEvent.ACTION_DOWN, startX, y);
+        for (int i = 0; i < DRAG_PICK_UP_FRAMES; i++) {
+            mRecyclerView.dispatchTouchEvent(moves[i]);
+        }
+        final long before = getAllocatedBytes();
+        for (int i = DRAG_PICK_UP_FRAMES; i < DRAG_FRAMES; i++) {
+            mRecyclerView.dispatchTouchEvent(moves[i]);
+        }
+        final long allocated = getAllocatedBytes() - before;
+        final MotionEvent lastMove = moves[DRAG_FRAMES - 1];
+        dispatch(downTime, lastMove.getEventTime() + 16, MotionEvent.ACTION_UP, lastMove.getX(), y);
+
+        for (MotionEvent move : moves) {
+            move.recycle();
+        }
+        return allocated;
+    }
+
+    private void longPress(float y) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = WIDTH / 2;
+        dispatch(downTime, downTime, MotionEvent.ACTION_DOWN, x, y);
+        ShadowLooper.idleMainLooper(ViewConfiguration.getTapTimeout() + ViewConfiguration.getLongPressTimeout() + 10);
+        dispatch(downTime, SystemClock.uptimeMillis(), MotionEvent.ACTION_UP, x, y);
+        settle();
+    }
+
+    private void tap(float y) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = WIDTH / 2;
+        dispatch(downTime, downTime, MotionEvent.ACTION_DOWN, x, y);
+        dispatch(downTime, downTime + 10, MotionEvent.ACTION_UP, x, y);
+    }
+
+    private void dispatch(long downTime, long eventTime, int action, float x, float y) {
+        final MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, x, y, 0);
+        mRecyclerView.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    /**
+     * Run pending animations and messages, then lay out again.
+     */
+    private void settle() {
+        ShadowLooper.idleMainLooper(1000);
+        layout();
+    }
+
+    // endregion
+
+    private void layout() {
+        mRecyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mRecyclerView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private static float rowCenterY(int row) {
+        return row * ITEM_HEIGHT + ITEM_HEIGHT / 2;
+    }
+
+    private static long getAllocatedBytes() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class CountingAdapter extends DraggableAndMultiSelectableRecyclerView.Adapter<DraggableAndMultiSelectableRecyclerView.ViewHolder> {
+        private int creates;
+        private int binds;
+        private int payloadBinds;
+
+        private void resetCounts() {
+            creates = 0;
+            binds = 0;
+            payloadBinds = 0;
+        }
+
+        @Override
+        public DraggableAndMultiSelectableRecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            creates++;
+            final View view = new View(parent.getContext());
+            view.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ITEM_HEIGHT));
+            return new DraggableAndMultiSelectableRecyclerView.ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(DraggableAndMultiSelectableRecyclerView.ViewHolder holder, int position) {
+            binds++;
+        }
+
+        @Override
+        public void onBindViewHolderPayload(DraggableAndMultiSelectableRecyclerView.ViewHolder holder, int position,
+                                            DraggableAndMultiSelectableRecyclerView.Payload payload) {
+            payloadBinds++;
+            super.onBindViewHolderPayload(holder, position, payload);
+        }
+
+        @Override
+        public int getItemCount() {
+            return ITEM_COUNT;
+        }
+    }
+
+    private static class CountingObserver extends RecyclerView.AdapterDataObserver {
+        private int notifications;
+
+        private void reset() {
+            notifications = 0;
+        }
+
+        @Override
+        public void onChanged() {
+            notifications++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            notifications++;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            notifications++;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            notifications++;
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            notifications++;
+        }
+    }
+
+    private static class RecordingListener implements DraggableAndMultiSelectableRecyclerView.DraggableAndMultiSelectableRecyclerViewListener {
+        private int selections;
+        private int deleteRequests;
+
+        private void reset() {
+            selections = 0;
+            deleteRequests = 0;
+        }
+
+        @Override
+        public void onItemSelected(DraggableAndMultiSelectableRecyclerView.ViewHolder holder) {
+            selections++;
+        }
+
+        @Override
+        public boolean onDeleteItem(DraggableAndMultiSelectableRecyclerView.ViewHolder holder) {
+            deleteRequests++;
+            // keep the item, so every drag ends with the same rows in place
+            return false;
+        }
+    }
+
+    private static class EmptyActionModeCallback implements ActionMode.Callback {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.aim.framework;
+
+import android.text.TextUtils;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when {@link RequestBatcher} sends its batches (once full, or once the window closes) and
+ * that each caller gets its own item. Batches go to a {@link FakeRequestQueue} and the main looper
+ * is paused, so each test decides when the window closes and what comes back.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RequestBatcherTest {
+    private static final String BATCH_URL = "https://api.test/items?ids=";
+    private static final int MAX_BATCH_SIZE = 3;
+    private static final long WINDOW_MS = 20;
+
+    private FakeRequestQueue mQueue;
+    private RequestBatcher<String> mBatcher;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        mQueue = new FakeRequestQueue();
+        mBatcher = new RequestBatcher<>(new RequestCoalescer(mQueue), new Endpoint(), WINDOW_MS);
+    }
+
+    @After
+    public void tearDown() {
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void batchIsSentOnceTheWindowCloses() {
+        fetch("a");
+        fetch("b");
+        assertTrue(mQueue.getRequests().isEmpty());
+
+        ShadowLooper.idleMainLooper(WINDOW_MS - 1);
+        assertTrue(mQueue.getRequests().isEmpty());
+        ShadowLooper.idleMainLooper(1);
+
+        assertEquals(1, mQueue.getRequests().size());
+        assertEquals(BATCH_URL + "a,b", mQueue.getLastRequest().getUrl());
+    }
+
+    @Test
+    public void fullBatchIsSentRightAway() {
+        fetch("a");
+        fetch("b");
+        fetch("c");
+
+        assertEquals(1, mQueue.getRequests().size());
+        assertEquals(BATCH_URL + "a,b,c", mQueue.getLastRequest().getUrl());
+
+        // nothing left for the window to send
+        ShadowLooper.idleMainLooper(WINDOW_MS);
+        assertEquals(1, mQueue.getRequests().size());
+    }
+
+    @Test
+    public void callersOfOneIdShareASlotInTheBatch() {
+        fetch("a");
+        fetch("a");
+        fetch("b");
+        assertTrue(mQueue.getRequests().isEmpty());
+
+        fetch("c");
+        assertEquals(BATCH_URL + "a,b,c", mQueue.getLastRequest().getUrl());
+    }
+
+    @Test
+    public void eachCallerGetsItsOwnItem() {
+        final RecordingCallback a = fetch("a");
+        final RecordingCallback alsoA = fetch("a");
+        final RecordingCallback b = fetch("b");
+        final RecordingCallback missing = fetch("missing");
+
+        mQueue.deliverResponse(mQueue.getLastRequest(), items("a", "b"));
+
+        assertEquals(Collections.singletonList("item a"), a.responses);
+        assertEquals(Collections.singletonList("item a"), alsoA.responses);
+        assertEquals(Collections.singletonList("item b"), b.responses);
+        assertTrue(missing.responses.isEmpty());
+        assertEquals(1, missing.errors.size());
+    }
+
+    @Test
+    public void batchErrorReachesEveryCaller() {
+        final RecordingCallback a = fetch("a");
+        final RecordingCallback b = fetch("b");
+        mBatcher.flush();
+
+        final VolleyError error = new VolleyError("Server error");
+        mQueue.deliverError(mQueue.getLastRequest(), error);
+
+        assertEquals(Collections.singletonList(error), a.errors);
+        assertEquals(Collections.singletonList(error), b.errors);
+    }
+
+    @Test
+    public void idsInFlightAreNotRequestedAgain() {
+        final RecordingCallback first = fetch("a");
+        mBatcher.flush();
+        final RecordingCallback second = fetch("a");
+        ShadowLooper.idleMainLooper(WINDOW_MS);
+        assertEquals(1, mQueue.getRequests().size());
+
+        mQueue.deliverResponse(mQueue.getLastRequest(), items("a"));
+        assertEquals(Collections.singletonList("item a"), first.responses);
+        assertEquals(Collections.singletonList("item a"), second.responses);
+
+        // delivered, so the next fetch goes out again
+        fetch("a");
+        mBatcher.flush();
+        assertEquals(2, mQueue.getRequests().size());
+    }
+
+    @Test
+    public void cancelledPendingFetchIsLeftOutOfTheBatch() {
+        final RecordingCallback cancelled = new RecordingCallback();
+        mBatcher.fetch("a", cancelled).cancel();
+        fetch("b");
+
+        ShadowLooper.idleMainLooper(WINDOW_MS);
+        assertEquals(BATCH_URL + "b", mQueue.getLastRequest().getUrl());
+    }
+
+    @Test
+    public void cancellingEveryPendingFetchSendsNothing() {
+        mBatcher.fetch("a", new RecordingCallback()).cancel();
+
+        ShadowLooper.idleMainLooper(WINDOW_MS);
+        assertTrue(mQueue.getRequests().isEmpty());
+    }
+
+    @Test
+    public void cancelledFetchInFlightGetsNothingButOthersDo() {
+        final RecordingCallback cancelled = new RecordingCallback();
+        final RequestCoalescer.Ticket ticket = mBatcher.fetch("a", cancelled);
+        final RecordingCallback waiting = fetch("b");
+        mBatcher.flush();
+
+        ticket.cancel();
+        mQueue.deliverResponse(mQueue.getLastRequest(), items("a", "b"));
+
+        assertTrue(cancelled.responses.isEmpty());
+        assertTrue(cancelled.errors.isEmpty());
+        assertEquals(Collections.singletonList("item b"), waiting.responses);
+    }
+
+    private RecordingCallback fetch(String id) {
+        final RecordingCallback callback = new RecordingCallback();
+        mBatcher.fetch(id, callback);
+        return callback;
+    }
+
+    private static Map<String, String> items(String... ids) {
+        final Map<String, String> items = new HashMap<>();
+        for (String id : ids) {
+            items.put(id, "item " + id);
+        }
+        return items;
+    }
+
+    private static class RecordingCallback extends RequestCoalescerTest.RecordingCallback<String> {
+    }
+
+    private static class Endpoint implements RequestBatcher.BatchEndpoint<String> {
+        @Override
+        public String getBatchUrl(List<String> ids) {
+            return BATCH_URL + TextUtils.join(",", ids);
+        }
+
+        @Override
+        public Map<String, String> parseBatchResponse(NetworkResponse response) {
+            throw new UnsupportedOperationException("Tests deliver parsed results");
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return MAX_BATCH_SIZE;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.aim.framework;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link RequestCoalescer} sends identical GETs once, fans the result out to every
+ * caller, and only cancels a shared request once nobody is waiting for it. Requests go to a
+ * {@link FakeRequestQueue}, so each test decides what comes back and when.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RequestCoalescerTest {
+    private static final String URL = "https://api.test/challenges";
+    private static final String OTHER_URL = "https://api.test/profile";
+
+    private static final RequestCoalescer.ResponseParser<String> PARSER = new StringParser();
+
+    private FakeRequestQueue mQueue;
+    private RequestCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mQueue = new FakeRequestQueue();
+        mCoalescer = new RequestCoalescer(mQueue);
+    }
+
+    @Test
+    public void identicalGetsShareOneRequest() {
+        mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+        mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+
+        assertEquals(1, mQueue.getRequests().size());
+        assertEquals(1, mCoalescer.getInFlightCount());
+    }
+
+    @Test
+    public void differentUrlsOrParsersAreNotShared() {
+        mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+        mCoalescer.get(OTHER_URL, PARSER, new RecordingCallback<String>());
+        // same class, but possibly configured differently
+        mCoalescer.get(URL, new StringParser(), new RecordingCallback<String>());
+
+        assertEquals(3, mQueue.getRequests().size());
+        assertEquals(3, mCoalescer.getInFlightCount());
+    }
+
+    @Test
+    public void resultIsFannedOutToEveryCaller() {
+        final RecordingCallback<String> first = new RecordingCallback<>();
+        final RecordingCallback<String> second = new RecordingCallback<>();
+        mCoalescer.get(URL, PARSER, first);
+        mCoalescer.get(URL, PARSER, second);
+
+        mQueue.deliverResponse(mQueue.getLastRequest(), "result");
+
+        assertEquals(Collections.singletonList("result"), first.responses);
+        assertEquals(Collections.singletonList("result"), second.responses);
+        assertEquals(0, mCoalescer.getInFlightCount());
+    }
+
+    @Test
+    public void errorIsFannedOutToEveryCaller() {
+        final RecordingCallback<String> first = new RecordingCallback<>();
+        final RecordingCallback<String> second = new RecordingCallback<>();
+        mCoalescer.get(URL, PARSER, first);
+        mCoalescer.get(URL, PARSER, second);
+
+        final VolleyError error = new VolleyError("Server error");
+        mQueue.deliverError(mQueue.getLastRequest(), error);
+
+        assertEquals(Collections.singletonList(error), first.errors);
+        assertEquals(Collections.singletonList(error), second.errors);
+        assertEquals(0, mCoalescer.getInFlightCount());
+    }
+
+    @Test
+    public void getAfterDeliveryGoesToTheNetworkAgain() {
+        mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+        mQueue.deliverResponse(mQueue.getLastRequest(), "result");
+
+        mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+
+        assertEquals(2, mQueue.getRequests().size());
+    }
+
+    @Test
+    public void cancellingOneCallerKeepsTheRequestForTheOthers() {
+        final RecordingCallback<String> cancelled = new RecordingCallback<>();
+        final RecordingCallback<String> waiting = new RecordingCallback<>();
+        final RequestCoalescer.Ticket ticket = mCoalescer.get(URL, PARSER, cancelled);
+        mCoalescer.get(URL, PARSER, waiting);
+
+        ticket.cancel();
+        final Request<?> request = mQueue.getLastRequest();
+        assertFalse(request.isCanceled());
+        assertEquals(1, mCoalescer.getInFlightCount());
+
+        mQueue.deliverResponse(request, "result");
+        assertTrue(cancelled.responses.isEmpty());
+        assertEquals(Collections.singletonList("result"), waiting.responses);
+    }
+
+    @Test
+    public void cancellingTheLastCallerCancelsTheRequest() {
+        final RecordingCallback<String> first = new RecordingCallback<>();
+        final RequestCoalescer.Ticket firstTicket = mCoalescer.get(URL, PARSER, first);
+        final RequestCoalescer.Ticket secondTicket = mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+        final Request<?> request = mQueue.getLastRequest();
+
+        firstTicket.cancel();
+        secondTicket.cancel();
+
+        assertTrue(request.isCanceled());
+        assertEquals(0, mCoalescer.getInFlightCount());
+        // a result that was already on its way is dropped
+        mQueue.deliverResponse(request, "result");
+        assertTrue(first.responses.isEmpty());
+    }
+
+    @Test
+    public void getAfterCancellingStartsAFreshRequest() {
+        final RequestCoalescer.Ticket ticket = mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+        final Request<?> cancelled = mQueue.getLastRequest();
+        ticket.cancel();
+
+        final RecordingCallback<String> callback = new RecordingCallback<>();
+        mCoalescer.get(URL, PARSER, callback);
+        final Request<?> fresh = mQueue.getLastRequest();
+        assertNotSame(cancelled, fresh);
+
+        // the cancelled request finishing late does not free the fresh one's slot
+        mQueue.deliverResponse(cancelled, "stale");
+        assertEquals(1, mCoalescer.getInFlightCount());
+        mCoalescer.get(URL, PARSER, new RecordingCallback<String>());
+        assertSame(fresh, mQueue.getLastRequest());
+
+        mQueue.deliverResponse(fresh, "result");
+        assertEquals(Collections.singletonList("result"), callback.responses);
+    }
+
+    static class RecordingCallback<T> implements RequestCoalescer.Callback<T> {
+        final List<T> responses = new ArrayList<>();
+        final List<VolleyError> errors = new ArrayList<>();
+
+        @Override
+        public void onResponse(T response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onError(VolleyError error) {
+            errors.add(error);
+        }
+    }
+
+    private static class StringParser implements RequestCoalescer.ResponseParser<String> {
+        @Override
+        public String parse(NetworkResponse response) throws IOException {
+            return new String(response.data, "UTF-8");
+        }
+    }
+}